@@ -77,6 +77,23 @@ abstract class AbstractDoubleObjectNode<V> implements DoubleObjectNode<V> {
         return getKeysCount() == maxKeys();
     }
 
+    /**
+     * @return
+     */
+    protected int minKeys() {
+        return degree - 1;
+    }
+
+    @Override
+    public boolean isUnderfull() {
+        return getKeysCount() < minKeys();
+    }
+
+    @Override
+    public boolean canLendKey() {
+        return getKeysCount() > minKeys();
+    }
+
     /**
      * Converts result from {@link java.util.Collections#binarySearch(java.util.List, Object)} to correct positive position
      *
@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.btree;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.List;
+
+/**
+ * Forward cursor over leaves of {@link BPlusTreeMultiDoubleObjectMap}. Range searches with increasing keys continue
+ * from the leaf where the previous search stopped. Following leaves are reached over siblings as long as it is
+ * cheaper than descending from the root again.
+ *
+ * @author Karel Rank
+ */
+@NotThreadSafe
+public class BPlusTreeCursor<V> {
+    private final DoubleObjectNode<V> root;
+    private final int height;
+    /**
+     * Leaf which contains the first key which isn't lower than {@link #lastTo}
+     */
+    private LeafDoubleObjectNode<V> leaf = null;
+    private double lastTo = Double.NEGATIVE_INFINITY;
+    private long nodeVisits = 0;
+    private long rangeSearchNodeVisits = 0;
+
+    BPlusTreeCursor(DoubleObjectNode<V> root, int height) {
+        this.root = root;
+        this.height = height;
+    }
+
+    /**
+     * Appends values whose keys are in range {@code <from, to)} into {@code result}. Cursor descends from the root
+     * again when {@code from} is lower than {@code to} of the previous search.
+     *
+     * @param from   lowest key (inclusive)
+     * @param to     highest key (exclusive)
+     * @param result list for found values
+     */
+    public void rangeSearch(double from, double to, List<V> result) {
+        BPlusTreeMultiDoubleObjectMap.doCheckRange(from, to);
+
+        moveTo(from);
+
+        int visitedLeaves = 1;
+        int pos = leaf.lowerBound(from);
+        while (true) {
+            if (pos == leaf.getKeysCount()) {
+                final LeafDoubleObjectNode<V> sibling = leaf.getSibling();
+                if (sibling == null) {
+                    break;
+                }
+
+                leaf = sibling;
+                pos = 0;
+                nodeVisits++;
+                visitedLeaves++;
+            } else if (leaf.keyAt(pos) >= to) {
+                break;
+            } else {
+                leaf.addValuesAt(pos++, result);
+            }
+        }
+
+        rangeSearchNodeVisits += height + visitedLeaves;
+        lastTo = to;
+    }
+
+    private void moveTo(double from) {
+        if (leaf == null || from < lastTo) {
+            seek(from);
+            return;
+        }
+
+        // Hopping over siblings is cheaper than descending while there are fewer hops than tree levels
+        LeafDoubleObjectNode<V> node = leaf;
+        for (int hops = 0; hops < height && from > node.lastKey(); hops++) {
+            final LeafDoubleObjectNode<V> sibling = node.getSibling();
+            if (sibling == null) {
+                leaf = node;
+                return;
+            }
+
+            node = sibling;
+            nodeVisits++;
+        }
+
+        if (from > node.lastKey()) {
+            seek(from);
+        } else {
+            leaf = node;
+        }
+    }
+
+    private void seek(double key) {
+        DoubleObjectNode<V> node = root;
+        for (int level = 0; level < height; level++) {
+            node = node.childFor(key);
+            nodeVisits++;
+        }
+        nodeVisits++;
+
+        leaf = (LeafDoubleObjectNode<V>) node;
+    }
+
+    /**
+     * @return number of nodes visited by the cursor
+     */
+    public long getNodeVisits() {
+        return nodeVisits;
+    }
+
+    /**
+     * @return number of nodes which would be visited if every range search of the cursor descended from the root
+     */
+    public long getRangeSearchNodeVisits() {
+        return rangeSearchNodeVisits;
+    }
+}
@@ -29,14 +29,28 @@
  */
 package cz.rank.vsfs.btree;
 
+import gnu.trove.list.TDoubleList;
+import gnu.trove.list.array.TDoubleArrayList;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author rank
  */
 public class BPlusTreeMultiDoubleObjectMap<V> {
+    /**
+     * Bulk loaded nodes are full
+     */
+    public static final double DEFAULT_FILL_FACTOR = 1d;
     private final int degree;
     private DoubleObjectNode<V> root;
+    /**
+     * Number of internal node levels above leaves
+     */
+    private int height = 0;
 
     /**
      * Construct B+Tree with degree
@@ -68,6 +82,7 @@ public class BPlusTreeMultiDoubleObjectMap<V> {
             final InternalDoubleObjectNode<V> s = new InternalDoubleObjectNode<>(getDegree());
 
             root = s;
+            height++;
             s.setChild(0, r);
 
             r.splitChild(s, 0);
@@ -77,6 +92,173 @@ public class BPlusTreeMultiDoubleObjectMap<V> {
         }
     }
 
+    /**
+     * Replaces content of the tree by {@code pairs} which are loaded bottom up. Leaves are filled with distinct keys
+     * first and internal levels are built above them, so no node is split. Nodes have {@code fillFactor} of maximum
+     * keys, keys are spread evenly, so no node except root is less than half full.
+     *
+     * @param pairs      pairs which are sorted by the call in the calling thread
+     * @param fillFactor part of maximum keys of a node which is filled, from {@code (0, 1>}
+     */
+    public void bulkLoad(DoubleObjectPairs<V> pairs, double fillFactor) {
+        doCheckFillFactor(fillFactor);
+
+        pairs.sort();
+        load(pairs, fillFactor);
+    }
+
+    /**
+     * Replaces content of the tree by {@code pairs} like {@link #bulkLoad(DoubleObjectPairs, double)}, but pairs are
+     * sorted in parallel by {@code pool}
+     */
+    public void bulkLoad(DoubleObjectPairs<V> pairs, double fillFactor, ForkJoinPool pool) {
+        doCheckFillFactor(fillFactor);
+
+        pairs.sort(pool);
+        load(pairs, fillFactor);
+    }
+
+    private void load(DoubleObjectPairs<V> pairs, double fillFactor) {
+        final TDoubleList maxKeys = new TDoubleArrayList();
+        List<DoubleObjectNode<V>> nodes = buildLeaves(pairs, fillFactor, maxKeys);
+        int levels = 0;
+        while (nodes.size() > 1) {
+            nodes = buildInternalNodes(nodes, fillFactor, maxKeys);
+            levels++;
+        }
+
+        root = nodes.isEmpty() ? new LeafDoubleObjectNode<V>(degree) : nodes.get(0);
+        height = levels;
+    }
+
+    private void doCheckFillFactor(double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("Fill factor must be greater than 0 and at most 1. Current: " +
+                                                       fillFactor);
+        }
+    }
+
+    /**
+     * @param maxKeys filled by the highest key of every leaf
+     */
+    private List<DoubleObjectNode<V>> buildLeaves(DoubleObjectPairs<V> pairs, double fillFactor, TDoubleList maxKeys) {
+        final int size = pairs.size();
+        int distinctKeys = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || pairs.keyAt(i) != pairs.keyAt(i - 1)) {
+                distinctKeys++;
+            }
+        }
+
+        final int minKeys = degree - 1;
+        final int leavesCount = nodesCount(distinctKeys, filledKeys(fillFactor), FastMath.max(minKeys, 1));
+        final List<DoubleObjectNode<V>> leaves = new ArrayList<>(leavesCount);
+        LeafDoubleObjectNode<V> leaf = null;
+        int keyIndex = 0;
+        int leafEnd = 0;
+        for (int i = 0; i < size; keyIndex++) {
+            if (keyIndex == leafEnd) {
+                final LeafDoubleObjectNode<V> nextLeaf = new LeafDoubleObjectNode<>(degree);
+                if (leaf != null) {
+                    leaf.setSibling(nextLeaf);
+                    maxKeys.add(leaf.lastKey());
+                }
+                leaf = nextLeaf;
+                leaves.add(leaf);
+                leafEnd = nodeEnd(leaves.size() - 1, distinctKeys, leavesCount);
+            }
+
+            final double key = pairs.keyAt(i);
+            int keyEnd = i + 1;
+            while (keyEnd < size && pairs.keyAt(keyEnd) == key) {
+                keyEnd++;
+            }
+
+            final List<V> keyValues = new ArrayList<>(keyEnd - i);
+            for (; i < keyEnd; i++) {
+                keyValues.add(pairs.valueAt(i));
+            }
+            leaf.append(key, keyValues);
+        }
+
+        if (leaf != null) {
+            maxKeys.add(leaf.lastKey());
+        }
+
+        return leaves;
+    }
+
+    /**
+     * @param maxKeys highest keys of {@code children} which are replaced by highest keys of the created nodes
+     */
+    private List<DoubleObjectNode<V>> buildInternalNodes(List<DoubleObjectNode<V>> children, double fillFactor,
+                                                         TDoubleList maxKeys) {
+        final int childrenCount = children.size();
+        final int nodesCount = nodesCount(childrenCount, filledKeys(fillFactor) + 1, degree);
+        final List<DoubleObjectNode<V>> nodes = new ArrayList<>(nodesCount);
+        final TDoubleList nodesMaxKeys = new TDoubleArrayList(nodesCount);
+        int childIndex = 0;
+        for (int i = 0; i < nodesCount; i++) {
+            final InternalDoubleObjectNode<V> node = new InternalDoubleObjectNode<>(degree);
+            final int nodeEnd = nodeEnd(i, childrenCount, nodesCount);
+            node.setChild(0, children.get(childIndex++));
+            for (int position = 1; childIndex < nodeEnd; position++, childIndex++) {
+                node.setChild(position, maxKeys.get(childIndex - 1), children.get(childIndex));
+            }
+
+            nodes.add(node);
+            nodesMaxKeys.add(maxKeys.get(nodeEnd - 1));
+        }
+
+        maxKeys.clear();
+        maxKeys.addAll(nodesMaxKeys);
+
+        return nodes;
+    }
+
+    private int filledKeys(double fillFactor) {
+        return (int) FastMath.max(1, FastMath.round(fillFactor * (2 * degree - 1)));
+    }
+
+    /**
+     * @return the lowest number of nodes which hold {@code entries} with at most {@code entriesPerNode} in every
+     *         node, but at least {@code minEntries} in every node when there are more nodes
+     */
+    private static int nodesCount(int entries, int entriesPerNode, int minEntries) {
+        int nodes = (entries + entriesPerNode - 1) / entriesPerNode;
+        while (nodes > 1 && entries / nodes < minEntries) {
+            nodes--;
+        }
+
+        return nodes;
+    }
+
+    /**
+     * @return index after the last entry of node {@code node} when {@code entries} are spread evenly into
+     *         {@code nodes}
+     */
+    private static int nodeEnd(int node, int entries, int nodes) {
+        return (int) ((long) (node + 1) * entries / nodes);
+    }
+
+    /**
+     * Removes {@code value} stored under {@code key}. Value is found by identity, not by equals. Nodes which become
+     * less than half full borrow keys from their siblings or are merged with them. Root is removed when its last two
+     * children are merged.
+     *
+     * @return {@code true} when the value was found
+     */
+    public boolean remove(double key, V value) {
+        final boolean removed = root.remove(key, value);
+
+        if (height > 0 && root.getKeysCount() == 0) {
+            root = ((InternalDoubleObjectNode<V>) root).getChild(0);
+            height--;
+        }
+
+        return removed;
+    }
+
     /**
      * @param key
      * @return first matching item
@@ -96,12 +278,35 @@ public class BPlusTreeMultiDoubleObjectMap<V> {
     }
 
     public List<V> rangeSearch(double from, double to) {
+        final List<V> result = new ArrayList<>();
+        rangeSearch(from, to, result);
+
+        return result;
+    }
+
+    /**
+     * Appends values whose keys are in range {@code <from, to)} into {@code result}
+     *
+     * @param from   lowest key (inclusive)
+     * @param to     highest key (exclusive)
+     * @param result list for found values which is reused by caller
+     */
+    public void rangeSearch(double from, double to, List<V> result) {
         doCheckRange(from, to);
 
-        return root.rangeSearch(from, to);
+        root.rangeSearch(from, to, result);
     }
 
-    private void doCheckRange(double from, double to) {
+    /**
+     * Creates cursor for range searches with increasing keys. Cursor is valid until the next insert or removal.
+     *
+     * @return new cursor positioned before the first key
+     */
+    public BPlusTreeCursor<V> cursor() {
+        return new BPlusTreeCursor<>(root, height);
+    }
+
+    static void doCheckRange(double from, double to) {
         if (from > to) {
             throw new IllegalArgumentException("From: " + from + " cannot be greater than to: " + to);
         }
@@ -109,8 +314,12 @@ public class BPlusTreeMultiDoubleObjectMap<V> {
 
     public String toGraph() {
         final DotDoubleObjectNodeVisitor<V> visitor = new DotDoubleObjectNodeVisitor<>();
-        root.accept(visitor);
+        accept(visitor);
 
         return visitor.getGraphDefinition();
     }
+
+    void accept(DoubleObjectNodeVisitor<V> visitor) {
+        root.accept(visitor);
+    }
 }
@@ -48,7 +48,56 @@ interface DoubleObjectNode<V> {
 
     void setChild(int index, DoubleObjectNode<V> node);
 
-    List<V> rangeSearch(double from, double to);
+    /**
+     * Appends values whose keys are in range {@code <from, to)} into {@code result}
+     */
+    void rangeSearch(double from, double to, List<V> result);
+
+    /**
+     * @return child node which can contain {@code key}
+     */
+    DoubleObjectNode<V> childFor(double key);
+
+    /**
+     * Removes {@code value} stored under {@code key}. Underfull children are refilled from their siblings or merged
+     * with them.
+     *
+     * @return {@code true} when the value was found
+     */
+    boolean remove(double key, V value);
+
+    /**
+     * @return {@code true} when the node has fewer keys than a node which isn't root needs
+     */
+    boolean isUnderfull();
+
+    /**
+     * @return {@code true} when the node can give a key to its sibling and stay at least half full
+     */
+    boolean canLendKey();
+
+    /**
+     * Moves the last key of this node to the beginning of its right sibling {@code node}
+     *
+     * @param separator key of the parent which separates this node from {@code node}
+     * @return new separator of the nodes
+     */
+    double moveLastTo(DoubleObjectNode<V> node, double separator);
+
+    /**
+     * Moves the first key of this node to the end of its left sibling {@code node}
+     *
+     * @param separator key of the parent which separates {@code node} from this node
+     * @return new separator of the nodes
+     */
+    double moveFirstTo(DoubleObjectNode<V> node, double separator);
+
+    /**
+     * Appends all keys of the right sibling {@code node} to this node
+     *
+     * @param separator key of the parent which separates this node from {@code node}
+     */
+    void merge(DoubleObjectNode<V> node, double separator);
 
     void accept(DoubleObjectNodeVisitor<V> visitor);
 }
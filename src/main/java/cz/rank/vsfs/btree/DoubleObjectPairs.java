@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.btree;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Key and value pairs for bulk loading of {@link BPlusTreeMultiDoubleObjectMap}. Pairs are kept in two growing
+ * arrays, so no object is allocated per pair.
+ *
+ * @author Karel Rank
+ */
+@NotThreadSafe
+public class DoubleObjectPairs<V> {
+    /**
+     * Ranges shorter than this are sorted by insertion sort
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    /**
+     * Ranges longer than this are sorted by forked tasks
+     */
+    private static final int PARALLEL_SORT_THRESHOLD = 8192;
+    private double[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    public DoubleObjectPairs() {
+        this(16);
+    }
+
+    public DoubleObjectPairs(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be greater than 0. Current: " + capacity);
+        }
+
+        keys = new double[capacity];
+        values = new Object[capacity];
+    }
+
+    public void add(double key, V value) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        keys[size] = key;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Appends all pairs of {@code pairs} in their order
+     */
+    public void addAll(DoubleObjectPairs<? extends V> pairs) {
+        final int newSize = size + pairs.size;
+        if (newSize > keys.length) {
+            final int capacity = FastMath.max(newSize, keys.length * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        System.arraycopy(pairs.keys, 0, keys, size, pairs.size);
+        System.arraycopy(pairs.values, 0, values, size, pairs.size);
+        size = newSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    double keyAt(int index) {
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int index) {
+        return (V) values[index];
+    }
+
+    /**
+     * Sorts pairs by keys in the calling thread. Sort is stable, so values of the same key keep order in which they
+     * were added.
+     */
+    void sort() {
+        if (size >= 2) {
+            createSortTask(false).compute();
+        }
+    }
+
+    /**
+     * Sorts pairs by keys like {@link #sort()}, long ranges are sorted in parallel by {@code pool}
+     */
+    void sort(ForkJoinPool pool) {
+        if (size >= 2) {
+            pool.invoke(createSortTask(true));
+        }
+    }
+
+    private MergeSortTask createSortTask(boolean parallel) {
+        final double[] keysBuffer = Arrays.copyOf(keys, size);
+        final Object[] valuesBuffer = Arrays.copyOf(values, size);
+
+        return new MergeSortTask(keysBuffer, valuesBuffer, keys, values, 0, size, parallel);
+    }
+
+    /**
+     * Merge sort which sorts range of source arrays into target arrays. Both source and target arrays contain the
+     * same pairs in the range at the start, the source range is used as a buffer.
+     */
+    private static class MergeSortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] sourceKeys;
+        private final Object[] sourceValues;
+        private final double[] targetKeys;
+        private final Object[] targetValues;
+        private final int from;
+        private final int to;
+        private final boolean parallel;
+
+        private MergeSortTask(double[] sourceKeys, Object[] sourceValues, double[] targetKeys, Object[] targetValues,
+                              int from, int to, boolean parallel) {
+            this.sourceKeys = sourceKeys;
+            this.sourceValues = sourceValues;
+            this.targetKeys = targetKeys;
+            this.targetValues = targetValues;
+            this.from = from;
+            this.to = to;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < INSERTION_SORT_THRESHOLD) {
+                insertionSort();
+                return;
+            }
+
+            // Halves are sorted into the source arrays and merged back into the target arrays
+            final int middle = (from + to) >>> 1;
+            final MergeSortTask left = new MergeSortTask(targetKeys, targetValues, sourceKeys, sourceValues, from,
+                    middle, parallel);
+            final MergeSortTask right = new MergeSortTask(targetKeys, targetValues, sourceKeys, sourceValues, middle,
+                    to, parallel);
+            if (parallel && to - from > PARALLEL_SORT_THRESHOLD) {
+                invokeAll(left, right);
+            } else {
+                left.compute();
+                right.compute();
+            }
+
+            merge(middle);
+        }
+
+        private void insertionSort() {
+            for (int i = from + 1; i < to; i++) {
+                final double key = targetKeys[i];
+                final Object value = targetValues[i];
+                int j = i - 1;
+                while (j >= from && targetKeys[j] > key) {
+                    targetKeys[j + 1] = targetKeys[j];
+                    targetValues[j + 1] = targetValues[j];
+                    j--;
+                }
+                targetKeys[j + 1] = key;
+                targetValues[j + 1] = value;
+            }
+        }
+
+        private void merge(int middle) {
+            int left = from;
+            int right = middle;
+            for (int i = from; i < to; i++) {
+                if (right == to || left < middle && sourceKeys[left] <= sourceKeys[right]) {
+                    targetKeys[i] = sourceKeys[left];
+                    targetValues[i] = sourceValues[left++];
+                } else {
+                    targetKeys[i] = sourceKeys[right];
+                    targetValues[i] = sourceValues[right++];
+                }
+            }
+        }
+    }
+}
@@ -77,10 +77,75 @@ class InternalDoubleObjectNode<V> extends AbstractDoubleObjectNode<V> {
         final List<DoubleObjectNode<V>> childrenForMove = children.subList(nodeDegree, children.size());
         z.children.addAll(childrenForMove);
 
-        keys.remove(nodeDegree, getKeysCount() - nodeDegree);
+        // Middle key moves up to the parent, so both nodes have one key less than children
+        final double separator = keys.get(nodeDegree - 1);
+        keys.remove(nodeDegree - 1, getKeysCount() - nodeDegree + 1);
         childrenForMove.clear();
 
-        parent.setChild(index + 1, keys.get(nodeDegree - 1), z);
+        parent.setChild(index + 1, separator, z);
+    }
+
+    @Override
+    public boolean remove(double key, V value) {
+        final int childPos = fixBinPos(keys.binarySearch(key));
+        final DoubleObjectNode<V> child = getChild(childPos);
+
+        final boolean removed = child.remove(key, value);
+        if (removed && child.isUnderfull()) {
+            refillChild(childPos);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Borrows a key from a sibling of the child at {@code childPos} or merges the child with one of its siblings
+     * when none of them can lend a key
+     */
+    private void refillChild(int childPos) {
+        final DoubleObjectNode<V> child = getChild(childPos);
+        if (childPos > 0 && getChild(childPos - 1).canLendKey()) {
+            keys.set(childPos - 1, getChild(childPos - 1).moveLastTo(child, keys.get(childPos - 1)));
+        } else if (childPos < getKeysCount() && getChild(childPos + 1).canLendKey()) {
+            keys.set(childPos, getChild(childPos + 1).moveFirstTo(child, keys.get(childPos)));
+        } else if (childPos > 0) {
+            mergeChildren(childPos - 1);
+        } else {
+            mergeChildren(childPos);
+        }
+    }
+
+    private void mergeChildren(int leftPos) {
+        getChild(leftPos).merge(getChild(leftPos + 1), keys.get(leftPos));
+        keys.removeAt(leftPos);
+        children.remove(leftPos + 1);
+    }
+
+    @Override
+    public double moveLastTo(DoubleObjectNode<V> node, double separator) {
+        final InternalDoubleObjectNode<V> right = (InternalDoubleObjectNode<V>) node;
+        final int last = getKeysCount() - 1;
+        right.keys.insert(0, separator);
+        right.children.add(0, children.remove(last + 1));
+
+        return keys.removeAt(last);
+    }
+
+    @Override
+    public double moveFirstTo(DoubleObjectNode<V> node, double separator) {
+        final InternalDoubleObjectNode<V> left = (InternalDoubleObjectNode<V>) node;
+        left.keys.add(separator);
+        left.children.add(children.remove(0));
+
+        return keys.removeAt(0);
+    }
+
+    @Override
+    public void merge(DoubleObjectNode<V> node, double separator) {
+        final InternalDoubleObjectNode<V> right = (InternalDoubleObjectNode<V>) node;
+        keys.add(separator);
+        keys.addAll(right.keys);
+        children.addAll(right.children);
     }
 
     /**
@@ -100,10 +165,13 @@ class InternalDoubleObjectNode<V> extends AbstractDoubleObjectNode<V> {
     }
 
     @Override
-    public List<V> rangeSearch(double from, double to) {
-        final int pos = fixBinPos(keys.binarySearch(from));
+    public void rangeSearch(double from, double to, List<V> result) {
+        childFor(from).rangeSearch(from, to, result);
+    }
 
-        return getChild(pos).rangeSearch(from, to);
+    @Override
+    public DoubleObjectNode<V> childFor(double key) {
+        return getChild(fixBinPos(keys.binarySearch(key)));
     }
 
     /**
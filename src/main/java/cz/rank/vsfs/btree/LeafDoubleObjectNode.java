@@ -30,7 +30,6 @@ import gnu.trove.list.TDoubleList;
 import gnu.trove.list.array.TDoubleArrayList;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -103,32 +102,147 @@ class LeafDoubleObjectNode<V> extends AbstractDoubleObjectNode<V> {
         throwUnsupportedChildren();
     }
 
+    /**
+     * Walks siblings until the first one without matching keys. Values are appended one by one, so nothing is
+     * allocated unless {@code result} has to grow.
+     */
     @Override
-    public List<V> rangeSearch(double from, double to) {
-        final int fromPos = fixBinPos(keys.binarySearch(from));
-        final int toPos = fixBinPos(keys.binarySearch(to));
+    public void rangeSearch(double from, double to, List<V> result) {
+        LeafDoubleObjectNode<V> node = this;
+        while (node != null) {
+            final int fromPos = fixBinPos(node.keys.binarySearch(from));
+            final int toPos = fixBinPos(node.keys.binarySearch(to));
 
-        final List<List<V>> matchedValues = values.subList(fromPos, toPos);
-        final List<V> range = new ArrayList<>(matchedValues.size() * 2);
+            for (int i = fromPos; i < toPos; ++i) {
+                node.addValuesAt(i, result);
+            }
+
+            // Keys may have been removed from the end of the node, so only a key not lower than to ends the search
+            if (toPos < node.getKeysCount()) {
+                return;
+            }
+
+            node = node.sibling;
+        }
+    }
 
-        for (List<V> list : matchedValues) {
-            range.addAll(list);
+    /**
+     * Key is removed together with its last value
+     */
+    @Override
+    public boolean remove(double key, V value) {
+        final int pos = keys.binarySearch(key);
+        if (pos < 0) {
+            return false;
         }
-        if (!matchedValues.isEmpty()) {
-            range.addAll(siblingRange(from, to));
+
+        final List<V> keyValues = values.get(pos);
+        final int valuePos = identityIndexOf(keyValues, value);
+        if (valuePos < 0) {
+            return false;
+        }
+
+        keyValues.remove(valuePos);
+        if (keyValues.isEmpty()) {
+            keys.removeAt(pos);
+            values.remove(pos);
         }
 
-        return range;
+        return true;
     }
 
-    private List<? extends V> siblingRange(double from, double to) {
-        if (sibling == null) {
-            return Collections.emptyList();
-        } else {
-            return sibling.rangeSearch(from, to);
+    /**
+     * Values are compared by identity, so equal values stored under the same key are removed one by one
+     */
+    private static <V> int identityIndexOf(List<V> keyValues, V value) {
+        for (int i = 0; i < keyValues.size(); i++) {
+            if (keyValues.get(i) == value) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public double moveLastTo(DoubleObjectNode<V> node, double separator) {
+        final LeafDoubleObjectNode<V> right = (LeafDoubleObjectNode<V>) node;
+        final int last = getKeysCount() - 1;
+        right.keys.insert(0, keys.removeAt(last));
+        right.values.add(0, values.remove(last));
+
+        return lastKey();
+    }
+
+    @Override
+    public double moveFirstTo(DoubleObjectNode<V> node, double separator) {
+        final LeafDoubleObjectNode<V> left = (LeafDoubleObjectNode<V>) node;
+        final double key = keys.removeAt(0);
+        left.keys.add(key);
+        left.values.add(values.remove(0));
+
+        return key;
+    }
+
+    @Override
+    public void merge(DoubleObjectNode<V> node, double separator) {
+        final LeafDoubleObjectNode<V> right = (LeafDoubleObjectNode<V>) node;
+        keys.addAll(right.keys);
+        values.addAll(right.values);
+        sibling = right.sibling;
+    }
+
+    @Override
+    public DoubleObjectNode<V> childFor(double key) {
+        throwUnsupportedChildren();
+        return null;
+    }
+
+    /**
+     * @return position of the first key which isn't lower than {@code key}
+     */
+    int lowerBound(double key) {
+        return fixBinPos(keys.binarySearch(key));
+    }
+
+    double keyAt(int pos) {
+        return keys.get(pos);
+    }
+
+    /**
+     * @return the highest key of the node or negative infinity when the node is empty
+     */
+    double lastKey() {
+        return keys.isEmpty() ? Double.NEGATIVE_INFINITY : keys.get(keys.size() - 1);
+    }
+
+    /**
+     * Appends all values of key at {@code pos} into {@code result}
+     */
+    void addValuesAt(int pos, List<V> result) {
+        final List<V> nodeValues = values.get(pos);
+        final int size = nodeValues.size();
+        for (int j = 0; j < size; ++j) {
+            result.add(nodeValues.get(j));
         }
     }
 
+    LeafDoubleObjectNode<V> getSibling() {
+        return sibling;
+    }
+
+    void setSibling(LeafDoubleObjectNode<V> sibling) {
+        this.sibling = sibling;
+    }
+
+    /**
+     * Appends {@code key} which is greater than all keys of the node
+     */
+    void append(double key, List<V> keyValues) {
+        keys.add(key);
+        values.add(keyValues);
+    }
+
     @Override
     public int getKeysCount() {
         return keys.size();
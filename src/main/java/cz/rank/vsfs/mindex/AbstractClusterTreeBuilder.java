@@ -26,10 +26,128 @@
 
 package cz.rank.vsfs.mindex;
 
+import cz.rank.vsfs.btree.BPlusTreeMultiDoubleObjectMap;
+import cz.rank.vsfs.btree.DoubleObjectPairs;
+import org.apache.commons.math3.util.FastMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 /**
+ * Builds the cluster tree in parallel. Objects are partitioned by their nearest pivot, every first level subtree
+ * is built by its own worker and keys of all subtrees are bulk loaded into B+Tree at once.
  */
 public abstract class AbstractClusterTreeBuilder<D extends Distanceable<D>> implements ClusterTreeBuilder<D> {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractClusterTreeBuilder.class);
     protected ClusterStats clusterStats = new ClusterStats();
+    protected final List<D> objects;
+    protected final Cluster<D> clusterRoot;
+    protected final PivotDistanceTable<D> pivotDistanceTable;
+    protected final BPlusTreeMultiDoubleObjectMap<D> btreemap;
+    protected final double btreeFillFactor;
+
+    protected AbstractClusterTreeBuilder(List<D> objects, Cluster<D> clusterRoot, PivotDistanceTable<D> pivotDistanceTable, BPlusTreeMultiDoubleObjectMap<D> btreemap, double btreeFillFactor) {
+        this.objects = objects;
+        this.clusterRoot = clusterRoot;
+        this.pivotDistanceTable = pivotDistanceTable;
+        this.btreemap = btreemap;
+        this.btreeFillFactor = btreeFillFactor;
+    }
+
+    @Override
+    public void build() {
+        final List<SubtreeBuilder> subtreeBuilders = createSubtreeBuilders();
+        logger.info("Building {} first level subtrees using {} threads...", subtreeBuilders.size(),
+                SharedPool.getParallelism());
+
+        try {
+            for (Future<DoubleObjectPairs<D>> future : SharedPool.get().invokeAll(subtreeBuilders)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Building of cluster tree was interrupted!", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error during building cluster tree!", e.getCause());
+        }
+
+        final DoubleObjectPairs<D> pairs = createPairs(objects.size());
+        for (SubtreeBuilder subtreeBuilder : subtreeBuilders) {
+            pairs.addAll(subtreeBuilder.pairs);
+            clusterRoot.extendPivotBox(subtreeBuilder.cluster);
+        }
+
+        bulkLoad(btreemap, pairs);
+    }
+
+    /**
+     * Partitions objects by their nearest pivot and creates first level cluster for every partition
+     *
+     * @return builders of first level subtrees ordered from the biggest one, so no worker is left with a big
+     *         subtree at the end
+     */
+    private List<SubtreeBuilder> createSubtreeBuilders() {
+        final int pivotsSize = clusterRoot.getIndex().getMaxIndex();
+        final List<List<D>> partitions = new ArrayList<>(Collections.<List<D>>nCopies(pivotsSize, null));
+        for (D object : objects) {
+            final int pivotIndex = pivotDistanceTable.pivotAt(object, 0).getIndex();
+            List<D> partition = partitions.get(pivotIndex);
+            if (partition == null) {
+                partition = new ArrayList<>();
+                partitions.set(pivotIndex, partition);
+            }
+
+            partition.add(object);
+        }
+
+        final List<SubtreeBuilder> subtreeBuilders = new ArrayList<>();
+        for (List<D> partition : partitions) {
+            if (partition != null) {
+                final Pivot<D> pivot = pivotDistanceTable.pivotAt(partition.get(0), 0);
+                subtreeBuilders.add(new SubtreeBuilder(createFirstLevelCluster(pivot, partition.size()), partition));
+            }
+        }
+
+        Collections.sort(subtreeBuilders, new Comparator<SubtreeBuilder>() {
+            @Override
+            public int compare(SubtreeBuilder o1, SubtreeBuilder o2) {
+                return Integer.compare(o2.objects.size(), o1.objects.size());
+            }
+        });
+
+        return subtreeBuilders;
+    }
+
+    /**
+     * Creates first level cluster for {@code objectsCount} objects nearest to {@code pivot} and stores it into
+     * {@link #clusterRoot}. Called before subtrees are built, so the root is never modified by workers.
+     */
+    protected abstract Cluster<D> createFirstLevelCluster(Pivot<D> pivot, int objectsCount);
+
+    /**
+     * Builds subtree of first level {@code cluster} from {@code clusterObjects} and adds keys of the objects into
+     * {@code pairs}. Called by workers, so only clusters of the subtree may be modified.
+     */
+    protected abstract void buildSubtree(Cluster<D> cluster, List<D> clusterObjects, DoubleObjectPairs<D> pairs);
+
+    protected DoubleObjectPairs<D> createPairs(int objectsCount) {
+        return new DoubleObjectPairs<>(FastMath.max(objectsCount, 1));
+    }
+
+    /**
+     * Loads keys of all objects into empty {@code btreemap} at once
+     */
+    protected void bulkLoad(BPlusTreeMultiDoubleObjectMap<D> btreemap, DoubleObjectPairs<D> pairs) {
+        logger.info("Bulk loading {} keys into B+Tree with fill factor {}...", pairs.size(), btreeFillFactor);
+        btreemap.bulkLoad(pairs, btreeFillFactor, SharedPool.get());
+    }
 
     protected LeafCluster<D> createLeafSubCluster(Cluster<D> cluster, Pivot<D> pivot) {
         return new LeafCluster<>(cluster, nextLevelIndex(cluster, pivot));
@@ -48,7 +166,68 @@ public abstract class AbstractClusterTreeBuilder<D extends Distanceable<D>> impl
         return clusterStats;
     }
 
+    /**
+     * Extends pivot boxes of {@code cluster} and all its ancestors by pivot distances of {@code object}
+     */
+    protected void extendPivotBoxes(Cluster<D> cluster, D object) {
+        extendPivotBoxes(cluster, object, clusterRoot);
+    }
+
+    /**
+     * Extends pivot boxes of {@code cluster} and its ancestors up to {@code topCluster} by pivot distances of
+     * {@code object}
+     */
+    protected void extendPivotBoxes(Cluster<D> cluster, D object, Cluster<D> topCluster) {
+        final Cluster<D> stopCluster = topCluster.getParent();
+        for (Cluster<D> currentCluster = cluster; currentCluster != stopCluster; currentCluster = currentCluster
+                .getParent()) {
+            currentCluster.extendPivotBox(object, pivotDistanceTable);
+        }
+    }
+
+    /**
+     * Sets {@code key} of an object to {@code cluster}
+     *
+     * @return {@code true} when key range of the cluster was extended
+     */
+    protected boolean setKey(Cluster<D> cluster, double key) {
+        final boolean extended = cluster.getKeysCount() == 0 || key < cluster.getKeyMin() || key > cluster
+                .getKeyMax();
+        cluster.setKey(key);
+
+        return extended;
+    }
+
+    /**
+     * Removes {@code cluster} which contained {@code object} from its parent
+     */
+    protected void removeSubCluster(Cluster<D> cluster, D object) {
+        cluster.getParent().removeSubCluster(pivotDistanceTable.pivotAt(object, cluster.getLevel() - 1));
+        getClusterStats().decrementCluster();
+    }
+
     protected void incrementCluster() {
         getClusterStats().incrementCluster();
     }
+
+    /**
+     * Builds one first level subtree and collects keys of its objects
+     */
+    private class SubtreeBuilder implements Callable<DoubleObjectPairs<D>> {
+        private final Cluster<D> cluster;
+        private final List<D> objects;
+        private final DoubleObjectPairs<D> pairs;
+
+        private SubtreeBuilder(Cluster<D> cluster, List<D> objects) {
+            this.cluster = cluster;
+            this.objects = objects;
+            this.pairs = createPairs(objects.size());
+        }
+
+        @Override
+        public DoubleObjectPairs<D> call() {
+            buildSubtree(cluster, objects, pairs);
+            return pairs;
+        }
+    }
 }
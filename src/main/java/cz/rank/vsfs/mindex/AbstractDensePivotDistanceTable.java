@@ -0,0 +1,310 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cz.rank.vsfs.mindex;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Base of pivot distance tables which keep data of all objects in flat arrays, so no object is allocated per
+ * distance. Every object is mapped to an ordinal and data of its pivot {@code p} are stored at
+ * {@code ordinal * pivotsSize + p}. Pivot permutation of the object, i.e. pivot indexes ordered by distance, is
+ * stored at the same offsets in bytes, or in shorts when there are more than 256 pivots. Pivots with the same
+ * distance are ordered by their indexes. Subclasses decide how distances are stored.
+ * <p/>
+ * Built table can be read from multiple threads, but objects can't be added or removed concurrently.
+ *
+ * @author Karel Rank
+ */
+public abstract class AbstractDensePivotDistanceTable<D extends Distanceable<D>> implements PivotDistanceTable<D> {
+    private static final int SOLVER_GRANULARITY = 10000;
+    private static final int NO_ORDINAL = -1;
+    /**
+     * More pivots don't fit into byte permutations
+     */
+    private static final int BYTE_PERMUTATION_PIVOTS = 256;
+    /**
+     * Permutations of fewer pivots are sorted by insertion sort
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    protected final double maximumDistance;
+    protected final List<D> objects;
+    protected final Pivot<D>[] pivots;
+    protected final int pivotsSize;
+    private final TObjectIntHashMap<D> ordinals;
+    private final TIntArrayList freeOrdinals = new TIntArrayList();
+    private int ordinalsCount = 0;
+    private int ordinalsCapacity = 0;
+    private byte[] bytePermutations = null;
+    private short[] shortPermutations = null;
+
+    protected AbstractDensePivotDistanceTable(double maximumDistance, List<Pivot<D>> pivots, List<D> objects) {
+        this.maximumDistance = maximumDistance;
+        this.objects = objects;
+        this.pivots = pivotsByIndex(pivots);
+        pivotsSize = pivots.size();
+        ordinals = new TObjectIntHashMap<>(FastMath.max(objects.size(), 10), 0.5f, NO_ORDINAL);
+        if (pivotsSize <= BYTE_PERMUTATION_PIVOTS) {
+            bytePermutations = new byte[0];
+        } else {
+            shortPermutations = new short[0];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <D extends Distanceable<D>> Pivot<D>[] pivotsByIndex(List<Pivot<D>> pivots) {
+        final Pivot<D>[] pivotsByIndex = (Pivot<D>[]) new Pivot<?>[pivots.size()];
+        for (Pivot<D> pivot : pivots) {
+            pivotsByIndex[pivot.getIndex()] = pivot;
+        }
+
+        return pivotsByIndex;
+    }
+
+    @Override
+    public void calculate() {
+        final int objectsSize = objects.size();
+        ensureCapacity(objectsSize);
+        for (int i = 0; i < objectsSize; i++) {
+            ordinals.put(objects.get(i), i);
+        }
+        ordinalsCount = objectsSize;
+
+        if (objectsSize <= SOLVER_GRANULARITY) {
+            new OrdinalsSolver(0, objectsSize).call();
+            return;
+        }
+
+        final List<OrdinalsSolver> solvers = new ArrayList<>();
+        for (int i = 0; i < objectsSize; i += SOLVER_GRANULARITY) {
+            solvers.add(new OrdinalsSolver(i, FastMath.min(i + SOLVER_GRANULARITY, objectsSize)));
+        }
+
+        try {
+            for (Future<Void> future : SharedPool.get().invokeAll(solvers)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Calculation of pivot distance table was interrupted!", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error during calculation pivot distance table!", e.getCause());
+        }
+    }
+
+    /**
+     * Ordinals of removed objects are reused
+     */
+    @Override
+    public void add(D object) {
+        final int ordinal;
+        if (freeOrdinals.isEmpty()) {
+            ordinal = ordinalsCount++;
+            ensureCapacity(ordinalsCount);
+        } else {
+            ordinal = freeOrdinals.removeAt(freeOrdinals.size() - 1);
+        }
+
+        ordinals.put(object, ordinal);
+        new OrdinalsSolver(ordinal, ordinal + 1).calculateOrdinal(ordinal, object);
+    }
+
+    @Override
+    public void remove(D object) {
+        final int ordinal = ordinals.remove(object);
+        if (ordinal != NO_ORDINAL) {
+            releaseOrdinal(ordinal);
+            freeOrdinals.add(ordinal);
+        }
+    }
+
+    @Override
+    public boolean contains(D object) {
+        return ordinals.containsKey(object);
+    }
+
+    @Override
+    public Pivot<D> pivotAt(D object, int index) {
+        return pivots[pivotIndexAt(offsetOf(object) + index)];
+    }
+
+    @Override
+    public double firstPivotDistance(D object) {
+        return distanceAt(object, 0);
+    }
+
+    /**
+     * @return number of ordinals for which distances are allocated
+     */
+    protected int getOrdinalsCapacity() {
+        return ordinalsCapacity;
+    }
+
+    protected int ordinalOf(D object) {
+        final int ordinal = ordinals.get(object);
+        if (ordinal == NO_ORDINAL) {
+            throw new IllegalArgumentException("Pivot distances of object are not calculated: " + object);
+        }
+
+        return ordinal;
+    }
+
+    protected int offsetOf(D object) {
+        return ordinalOf(object) * pivotsSize;
+    }
+
+    /**
+     * @param position offset of an object plus position in its permutation
+     * @return index of pivot at the position of permutation
+     */
+    protected int pivotIndexAt(int position) {
+        if (bytePermutations != null) {
+            return bytePermutations[position] & 0xFF;
+        }
+
+        return shortPermutations[position];
+    }
+
+    /**
+     * Grows storage of distances, so it holds distances of {@code ordinalsCapacity} objects
+     */
+    protected abstract void growDistances(int ordinalsCapacity);
+
+    /**
+     * Stores normalized distances of object with {@code ordinal}. Called concurrently for different ordinals.
+     *
+     * @param distances   normalized distances indexed by pivot index
+     * @param permutation pivot indexes sorted by distances
+     */
+    protected abstract void storeDistances(int ordinal, double[] distances, int[] permutation);
+
+    /**
+     * Called when {@code ordinal} of a removed object is going to be reused
+     */
+    protected void releaseOrdinal(int ordinal) {
+    }
+
+    private void ensureCapacity(int ordinals) {
+        if (ordinals <= ordinalsCapacity) {
+            return;
+        }
+
+        ordinalsCapacity = FastMath.max(ordinals, ordinalsCapacity * 2);
+        growDistances(ordinalsCapacity);
+        final int capacity = ordinalsCapacity * pivotsSize;
+        if (bytePermutations != null) {
+            bytePermutations = Arrays.copyOf(bytePermutations, capacity);
+        } else {
+            shortPermutations = Arrays.copyOf(shortPermutations, capacity);
+        }
+    }
+
+    /**
+     * Calculates distances and permutations of objects with ordinals from {@code from} to {@code to}
+     */
+    private class OrdinalsSolver implements Callable<Void> {
+        private final int from;
+        private final int to;
+        private final double[] distances = new double[pivotsSize];
+        private final int[] permutation = new int[pivotsSize];
+        private final int[] buffer = new int[pivotsSize];
+
+        private OrdinalsSolver(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Void call() {
+            for (int ordinal = from; ordinal < to; ordinal++) {
+                calculateOrdinal(ordinal, objects.get(ordinal));
+            }
+
+            return null;
+        }
+
+        private void calculateOrdinal(int ordinal, D object) {
+            for (int i = 0; i < pivotsSize; i++) {
+                distances[i] = pivots[i].distance(object) / maximumDistance;
+                permutation[i] = i;
+            }
+
+            sort(0, pivotsSize);
+            final int offset = ordinal * pivotsSize;
+            for (int i = 0; i < pivotsSize; i++) {
+                if (bytePermutations != null) {
+                    bytePermutations[offset + i] = (byte) permutation[i];
+                } else {
+                    shortPermutations[offset + i] = (short) permutation[i];
+                }
+            }
+
+            storeDistances(ordinal, distances, permutation);
+        }
+
+        /**
+         * Stable merge sort of pivot indexes from {@code from} to {@code to} by their distances
+         */
+        private void sort(int from, int to) {
+            if (to - from <= INSERTION_SORT_THRESHOLD) {
+                for (int i = from + 1; i < to; i++) {
+                    final int pivotIndex = permutation[i];
+                    final double distance = distances[pivotIndex];
+                    int j = i - 1;
+                    while (j >= from && distances[permutation[j]] > distance) {
+                        permutation[j + 1] = permutation[j];
+                        j--;
+                    }
+                    permutation[j + 1] = pivotIndex;
+                }
+                return;
+            }
+
+            final int middle = (from + to) >>> 1;
+            sort(from, middle);
+            sort(middle, to);
+
+            System.arraycopy(permutation, from, buffer, from, to - from);
+            int left = from;
+            int right = middle;
+            for (int i = from; i < to; i++) {
+                if (right == to || left < middle && distances[buffer[left]] <= distances[buffer[right]]) {
+                    permutation[i] = buffer[left++];
+                } else {
+                    permutation[i] = buffer[right++];
+                }
+            }
+        }
+    }
+}
@@ -87,11 +87,52 @@ public abstract class AbstractPivotDistanceTable<D extends Distanceable<D>> impl
         return distancesSortedByPivot.get(object).get(pivotIndex).getDistance();
     }
 
+    @Override
+    public double pivotDistanceError(int pivotIndex) {
+        return 0;
+    }
+
     @Override
     public Pivot<D> pivotAt(D object, int index) {
         return pivotDistanceAt(object, index).getPivot();
     }
 
+    @Override
+    public void add(D object) {
+        calculateObjectDistance(object, distancesSortedByPivot, distancesSortedByDistance);
+    }
+
+    @Override
+    public void remove(D object) {
+        distancesSortedByPivot.remove(object);
+        distancesSortedByDistance.remove(object);
+    }
+
+    @Override
+    public boolean contains(D object) {
+        return distancesSortedByPivot.containsKey(object);
+    }
+
+    protected void calculateObjectDistance(D object, Map<D, List<PivotDistance<D>>> distancesSortedByPivot,
+                                           Map<D, List<PivotDistance<D>>> distancesSortedByDistance) {
+        final SortedSet<PivotDistance<D>> objectDistancesByPivot = new TreeSet<>(
+                distanceComparator);
+        final SortedSet<PivotDistance<D>> objectDistancesByDistance = new TreeSet<>();
+        final int size = pivots.size();
+        for (int i = 0; i < size; i++) {
+            final PivotDistance<D> pivotDistance = createPivotDistance(object, i);
+            objectDistancesByPivot.add(pivotDistance);
+            objectDistancesByDistance.add(pivotDistance);
+        }
+
+        distancesSortedByPivot.put(object, new ArrayList<>(objectDistancesByPivot));
+        distancesSortedByDistance.put(object, new ArrayList<>(objectDistancesByDistance));
+    }
+
+    private PivotDistance<D> createPivotDistance(D object, int i) {
+        return new PivotDistance<>(maximumDistance, pivots.get(i), object);
+    }
+
     protected void storeResult(PivotDistanceResult<D> result) {
         distancesSortedByDistance.putAll(result.distancesSortedByDistance);
         distancesSortedByPivot.putAll(result.distancesSortedByPivot);
@@ -116,29 +157,11 @@ public abstract class AbstractPivotDistanceTable<D extends Distanceable<D>> impl
         @Override
         public PivotDistanceResult call() throws Exception {
             for (int i = objectIndex; i < objectIndex + SOLVER_GRANULARITY && i < objectsSize; ++i) {
-                calculateObjectDistance(objects.get(i));
+                calculateObjectDistance(objects.get(i), result.distancesSortedByPivot,
+                        result.distancesSortedByDistance);
             }
             return result;
         }
-
-        private void calculateObjectDistance(D object) {
-            final SortedSet<PivotDistance<D>> objectDistancesByPivot = new TreeSet<>(
-                    distanceComparator);
-            final SortedSet<PivotDistance<D>> objectDistancesByDistance = new TreeSet<>();
-            final int size = pivots.size();
-            for (int i = 0; i < size; i++) {
-                final PivotDistance<D> pivotDistance = createPivotDistance(object, i);
-                objectDistancesByPivot.add(pivotDistance);
-                objectDistancesByDistance.add(pivotDistance);
-            }
-
-            result.distancesSortedByPivot.put(object, new ArrayList<>(objectDistancesByPivot));
-            result.distancesSortedByDistance.put(object, new ArrayList<>(objectDistancesByDistance));
-        }
-
-        private PivotDistance<D> createPivotDistance(D object, int i) {
-            return new PivotDistance<>(maximumDistance, pivots.get(i), object);
-        }
     }
 
     protected class PivotDistanceResult<D extends Distanceable<D>> {
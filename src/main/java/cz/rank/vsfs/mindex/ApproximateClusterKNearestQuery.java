@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+/**
+ * Approximate k nearest neighbours search which prefers clusters whose index matches pivot permutation
+ * of the query object
+ *
+ * @author Karel Rank
+ */
+class ApproximateClusterKNearestQuery<D extends Distanceable<D>> extends ClusterKNearestQuery<D> {
+    ApproximateClusterKNearestQuery(MIndex<D> index, D queryObject, int k, int maxCandidates, int maxDistanceEvaluations) {
+        super(index, queryObject, k, maxCandidates, maxDistanceEvaluations, QueryDeadline.NONE);
+    }
+
+    /**
+     * Number of cluster levels which doesn't match pivot permutation of the query object. Penalty never
+     * decreases from parent to sub cluster.
+     */
+    @Override
+    protected int penalty(Cluster<D> cluster) {
+        final Index index = cluster.getIndex();
+        final int level = index.getLevel();
+        int matchedLevels = 0;
+        while (matchedLevels < level && index.pivotIndexAt(matchedLevels) == queryObjectPivotDistance
+                .pivotAt(queryObject, matchedLevels).getIndex()) {
+            matchedLevels++;
+        }
+
+        return level - matchedLevels;
+    }
+
+    /**
+     * Clusters are ordered by penalty first, so cluster with lower bound over the radius may be followed by
+     * clusters with lower bound under the radius and only that cluster is skipped
+     */
+    @Override
+    protected boolean shouldStop(double lowerBound) {
+        return false;
+    }
+}
@@ -27,6 +27,7 @@
 package cz.rank.vsfs.mindex;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * @author Karel Rank
@@ -34,12 +35,24 @@ import java.util.Collection;
 public interface Cluster<D extends Distanceable<D>> {
     Index getIndex();
 
-    Collection<Cluster<D>> getSubClusters();
+    List<Cluster<D>> getSubClusters();
 
     int getCalculatedIndex();
 
     void setKey(double distance);
 
+    /**
+     * Removes key of an object which was removed from B+Tree. Key range of the cluster isn't changed.
+     *
+     * @return {@code true} when {@code key} was at a bound of key range, so the range may be shrunk
+     */
+    boolean removeKey(double key);
+
+    /**
+     * Forgets all keys, so key range can be set again
+     */
+    void clearKeys();
+
     int getLevel();
 
     int parentIndex();
@@ -48,6 +61,11 @@ public interface Cluster<D extends Distanceable<D>> {
 
     double getKeyMax();
 
+    /**
+     * @return number of keys which were inserted into B+Tree for objects of the cluster
+     */
+    int getKeysCount();
+
     void accept(ClusterVisitor<D> visitor);
 
     int getMaxLevel();
@@ -56,11 +74,51 @@ public interface Cluster<D extends Distanceable<D>> {
 
     void addObject(D object);
 
+    void removeObject(D object);
+
     void storeSubCluster(Pivot<D> pivot, Cluster<D> cluster);
 
+    void removeSubCluster(Pivot<D> pivot);
+
     int getObjectsCount();
 
     Cluster<D> getParent();
 
     Collection<D> getObjects();
+
+    /**
+     * Extends minimal and maximal normalized distances of cluster objects to every pivot by distances of
+     * {@code object}
+     */
+    void extendPivotBox(D object, PivotDistanceTable<D> pivotDistanceTable);
+
+    /**
+     * Extends minimal and maximal normalized distances of cluster objects to every pivot by pivot box of
+     * {@code cluster}
+     */
+    void extendPivotBox(Cluster<D> cluster);
+
+    /**
+     * @param pivotDistances normalized distances of query object to pivots indexed by pivot index
+     * @return lower bound of normalized distance between query object and any object of the cluster
+     */
+    double pivotBoxLowerBound(double[] pivotDistances);
+
+    /**
+     * @param pivotDistances normalized distances of query object to pivots indexed by pivot index
+     * @return upper bound of normalized distance between query object and any object of the cluster
+     */
+    double pivotBoxUpperBound(double[] pivotDistances);
+
+    /**
+     * @return minimal normalized distance of cluster objects to pivot with {@code pivotIndex} or 0 when cluster
+     *         has no objects
+     */
+    double pivotBoxMin(int pivotIndex);
+
+    /**
+     * @return maximal normalized distance of cluster objects to pivot with {@code pivotIndex} or positive infinity
+     *         when cluster has no objects
+     */
+    double pivotBoxMax(int pivotIndex);
 }
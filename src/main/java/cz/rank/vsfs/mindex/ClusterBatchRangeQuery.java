@@ -0,0 +1,241 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Range query of several query objects sharing the cluster tree traversal and B+Tree searches
+ *
+ * @author Karel Rank
+ */
+class ClusterBatchRangeQuery<D extends Distanceable<D>> implements ClusterVisitor<D> {
+    private final MIndex<D> index;
+    private final List<D> queryObjects;
+    private final double range;
+    private final double normalizedRange;
+    private final PivotDistanceTable<D> queryObjectsPivotDistance;
+    private final double[] firstPivotDistances;
+    private final double[][] queryPivotDistances;
+    private final int[][] pivotFilterOrders;
+    private final List<Collection<D>> foundObjects;
+    private final Queue<ClusterQueries<D>> clusterQueue = new LinkedList<>();
+    private final QueryStats stats = new QueryStats();
+    private int[] currentQueries;
+
+    ClusterBatchRangeQuery(MIndex<D> index, List<D> queryObjects, double range, double normalizedRange) {
+        this.index = index;
+        this.queryObjects = queryObjects;
+        this.range = range;
+        this.normalizedRange = normalizedRange;
+        queryObjectsPivotDistance = index.calculateDistanceFor(queryObjects);
+
+        final int queryObjectsSize = queryObjects.size();
+        firstPivotDistances = new double[queryObjectsSize];
+        queryPivotDistances = new double[queryObjectsSize][];
+        pivotFilterOrders = new int[queryObjectsSize][];
+        foundObjects = new ArrayList<>(queryObjectsSize);
+        for (int i = 0; i < queryObjectsSize; i++) {
+            firstPivotDistances[i] = queryObjectsPivotDistance.firstPivotDistance(queryObjects.get(i));
+            queryPivotDistances[i] = index.pivotDistancesOf(queryObjects.get(i), queryObjectsPivotDistance);
+            pivotFilterOrders[i] = PivotPermutations.filterOrder(queryPivotDistances[i]);
+            foundObjects.add(new ArrayList<D>());
+        }
+    }
+
+    @Override
+    public void enterInternalCluster(InternalCluster<D> internalCluster) {
+        for (Cluster<D> subCluster : internalCluster.getSubClusters()) {
+            clusterQueue.add(new ClusterQueries<>(subCluster, currentQueries));
+        }
+    }
+
+    @Override
+    public void enterLeafCluster(LeafCluster<D> leafCluster) {
+        final double keyMin = leafCluster.getKeyMin();
+        final double rMin = MIndex.frac(keyMin);
+        final double rMax = MIndex.frac(leafCluster.getKeyMax());
+
+        final int[] queries = new int[currentQueries.length];
+        int queriesCount = 0;
+        for (int query : currentQueries) {
+            if (index.rangePivotDistanceConstraint(normalizedRange, rMin, rMax, firstPivotDistances[query])) {
+                stats.incrementRangePivotDistanceFilter();
+            } else {
+                queries[queriesCount++] = query;
+            }
+        }
+
+        final double keyMinFloor = FastMath.floor(keyMin);
+        final double keyMaxNext = FastMath.nextUp(leafCluster.getKeyMax());
+        int groupStart = 0;
+        while (groupStart < queriesCount) {
+            double to = keyMinFloor + firstPivotDistances[queries[groupStart]] + normalizedRange;
+            int groupEnd = groupStart + 1;
+            while (groupEnd < queriesCount
+                    && keyMinFloor + firstPivotDistances[queries[groupEnd]] - normalizedRange <= to) {
+                to = keyMinFloor + firstPivotDistances[queries[groupEnd]] + normalizedRange;
+                groupEnd++;
+            }
+
+            final double from = keyMinFloor + firstPivotDistances[queries[groupStart]] - normalizedRange;
+            final double clampedFrom = FastMath.max(keyMin, from);
+            final double clampedTo = FastMath.min(keyMaxNext, to);
+            if (clampedFrom <= clampedTo) {
+                final List<D> objects = index.btreemap.rangeSearch(clampedFrom, clampedTo);
+                filterObjectsFromRangeSearch(leafCluster, objects, queries, groupStart, groupEnd);
+            }
+
+            groupStart = groupEnd;
+        }
+    }
+
+    /**
+     * Objects are found in order of their keys and queries of the group are sorted by their first pivot
+     * distances, so each object is checked only by the window of queries whose key interval contains key
+     * of the object
+     */
+    private void filterObjectsFromRangeSearch(Cluster<D> leafCluster, List<D> objects, int[] queries, int from, int to) {
+        final double keyMinFloor = FastMath.floor(leafCluster.getKeyMin());
+        int windowStart = from;
+        int windowEnd = from;
+        for (D object : objects) {
+            if (!index.belongsToCluster(object, leafCluster)) {
+                continue;
+            }
+
+            final double key = leafCluster.getCalculatedIndex() + index.pivotDistanceTable.firstPivotDistance(object);
+            while (windowStart < to
+                    && keyMinFloor + firstPivotDistances[queries[windowStart]] + normalizedRange < key) {
+                windowStart++;
+            }
+            windowEnd = FastMath.max(windowStart, windowEnd);
+            while (windowEnd < to
+                    && keyMinFloor + firstPivotDistances[queries[windowEnd]] - normalizedRange <= key) {
+                windowEnd++;
+            }
+
+            for (int i = windowStart; i < windowEnd; i++) {
+                final int query = queries[i];
+                if (index.pivotShouldBeFiltered(object, queryPivotDistances[query], pivotFilterOrders[query],
+                        normalizedRange, stats)) {
+                    stats.incrementPivotFilter();
+
+                    continue;
+                }
+
+                if (index.boundedDistance(queryObjects.get(query), object, range) <= range) {
+                    foundObjects.get(query).add(object);
+                } else {
+                    stats.incrementObjectFilter();
+                }
+            }
+        }
+    }
+
+    public List<Collection<D>> performQuery() {
+        final int[] allQueries = queriesByFirstPivotDistance();
+
+        for (Cluster<D> cluster : index.clusterRoot.getSubClusters()) {
+            clusterQueue.add(new ClusterQueries<>(cluster, allQueries));
+        }
+
+        while (!clusterQueue.isEmpty()) {
+            final ClusterQueries<D> clusterQueries = clusterQueue.poll();
+            final Cluster<D> cluster = clusterQueries.cluster;
+
+            currentQueries = filterQueries(cluster, clusterQueries.queries);
+            if (currentQueries.length > 0) {
+                cluster.accept(this);
+            }
+        }
+        index.addQueryStats(stats);
+
+        return foundObjects;
+    }
+
+    /**
+     * Filtering of queries keeps their order, so queries of every leaf cluster are sorted by first pivot distance
+     * without sorting them again
+     */
+    private int[] queriesByFirstPivotDistance() {
+        final List<Integer> sortedQueries = new ArrayList<>(queryObjects.size());
+        for (int i = 0; i < queryObjects.size(); i++) {
+            sortedQueries.add(i);
+        }
+
+        Collections.sort(sortedQueries, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer query1, Integer query2) {
+                return Double.compare(firstPivotDistances[query1], firstPivotDistances[query2]);
+            }
+        });
+
+        final int[] queries = new int[sortedQueries.size()];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = sortedQueries.get(i);
+        }
+
+        return queries;
+    }
+
+    private int[] filterQueries(Cluster<D> cluster, int[] queries) {
+        final int[] filteredQueries = new int[queries.length];
+        int filteredQueriesCount = 0;
+        for (int query : queries) {
+            if (cluster.getLevel() > 0 && index.doublePivotLowerBound(cluster, queryObjectsPivotDistance,
+                    queryObjects.get(query)) > normalizedRange) {
+                stats.incrementDoublePivotDistanceFilter();
+            } else if (cluster.pivotBoxLowerBound(queryPivotDistances[query]) > normalizedRange) {
+                stats.incrementPivotBoxFilter();
+            } else {
+                filteredQueries[filteredQueriesCount++] = query;
+            }
+        }
+
+        return Arrays.copyOf(filteredQueries, filteredQueriesCount);
+    }
+
+    private static class ClusterQueries<D extends Distanceable<D>> {
+        private final Cluster<D> cluster;
+        private final int[] queries;
+
+        private ClusterQueries(Cluster<D> cluster, int[] queries) {
+            this.cluster = cluster;
+            this.queries = queries;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Best-first k nearest neighbours search.
+ * <p/>
+ * Clusters are visited in order of their lower bound distance from the query object. Search radius is shrunk
+ * as soon as k candidates are found, so remaining clusters are pruned by the same constraints as during
+ * the range query.
+ *
+ * @author Karel Rank
+ */
+class ClusterKNearestQuery<D extends Distanceable<D>> extends ClusterQuery<D> implements ClusterVisitor<D> {
+    private final int k;
+    private final int maxCandidates;
+    private final int maxDistanceEvaluations;
+    private final PriorityQueue<ClusterLowerBound<D>> clusterQueue = new PriorityQueue<>();
+    private final PriorityQueue<ObjectDistance<D>> nearestObjects;
+    private double normalizedRadius = Double.POSITIVE_INFINITY;
+    private double currentLowerBound = 0;
+    private int distanceEvaluations = 0;
+
+    ClusterKNearestQuery(MIndex<D> index, D queryObject, int k, QueryDeadline deadline) {
+        this(index, queryObject, k, Integer.MAX_VALUE, Integer.MAX_VALUE, deadline);
+    }
+
+    protected ClusterKNearestQuery(MIndex<D> index, D queryObject, int k, int maxCandidates, int maxDistanceEvaluations, QueryDeadline deadline) {
+        super(index, queryObject, deadline);
+        this.k = k;
+        this.maxCandidates = maxCandidates;
+        this.maxDistanceEvaluations = maxDistanceEvaluations;
+        nearestObjects = new PriorityQueue<>(k, Collections.reverseOrder());
+    }
+
+    @Override
+    public void enterInternalCluster(InternalCluster<D> internalCluster) {
+        enqueueSubClusters(internalCluster);
+    }
+
+    @Override
+    public void enterLeafCluster(LeafCluster<D> leafCluster) {
+        if (isLeafPruned(leafCluster, normalizedRadius, stats)) {
+            return;
+        }
+
+        final List<D> objects = leafRangeSearch(leafCluster, normalizedRadius);
+        filterObjectsFromRangeSearch(leafCluster, objects);
+    }
+
+    private void filterObjectsFromRangeSearch(Cluster<D> leafCluster, List<D> objects) {
+        for (D object : objects) {
+            if (limitsReached()) {
+                return;
+            }
+
+            if (!isCandidate(object, leafCluster, normalizedRadius, stats)) {
+                continue;
+            }
+
+            distanceEvaluations++;
+            final double bound = nearestObjects.size() < k ? Double.POSITIVE_INFINITY : nearestObjects.peek()
+                    .getDistance();
+            final double distance = index.boundedDistance(queryObject, object, bound);
+            if (distance < bound) {
+                addNearestObject(object, distance);
+            } else {
+                stats.incrementObjectFilter();
+            }
+        }
+    }
+
+    private void addNearestObject(D object, double distance) {
+        nearestObjects.add(new ObjectDistance<>(object, distance));
+        if (nearestObjects.size() > k) {
+            nearestObjects.poll();
+            stats.incrementObjectFilter();
+        }
+
+        if (nearestObjects.size() == k) {
+            normalizedRadius = nearestObjects.peek().getDistance() / index.maximumDistance;
+        }
+    }
+
+    private boolean limitsReached() {
+        return stats.getCandidates() >= maxCandidates || distanceEvaluations >= maxDistanceEvaluations
+                || deadlineExpired();
+    }
+
+    private void enqueueSubClusters(Cluster<D> cluster) {
+        for (Cluster<D> subCluster : cluster.getSubClusters()) {
+            double lowerBound = FastMath.max(currentLowerBound, doublePivotLowerBound(subCluster));
+            lowerBound = FastMath.max(lowerBound, subCluster.pivotBoxLowerBound(queryPivotDistances));
+            if (subCluster instanceof LeafCluster) {
+                lowerBound = FastMath.max(lowerBound, rangePivotLowerBound(subCluster));
+            }
+
+            clusterQueue.add(new ClusterLowerBound<>(subCluster, penalty(subCluster), lowerBound));
+        }
+    }
+
+    /**
+     * Clusters with lower penalty are visited first regardless of their lower bound
+     */
+    protected int penalty(Cluster<D> cluster) {
+        return 0;
+    }
+
+    /**
+     * Clusters are taken from the queue in order of their lower bounds, so no remaining cluster can contain
+     * nearer object once the lower bound exceeds the radius
+     *
+     * @param lowerBound lower bound of cluster taken from the queue
+     * @return {@code true} when the query has to be stopped
+     */
+    protected boolean shouldStop(double lowerBound) {
+        return lowerBound > normalizedRadius;
+    }
+
+    public List<ObjectDistance<D>> performQuery() {
+        enqueueSubClusters(index.clusterRoot);
+        while (!clusterQueue.isEmpty() && !limitsReached()) {
+            final ClusterLowerBound<D> clusterLowerBound = clusterQueue.poll();
+            final double lowerBound = clusterLowerBound.getLowerBound();
+            if (shouldStop(lowerBound)) {
+                break;
+            }
+
+            if (lowerBound > normalizedRadius) {
+                continue;
+            }
+
+            final Cluster<D> cluster = clusterLowerBound.getCluster();
+            if (isPruned(cluster, normalizedRadius, stats)) {
+                continue;
+            }
+
+            currentLowerBound = lowerBound;
+            cluster.accept(this);
+        }
+
+        index.addQueryStats(stats);
+
+        final List<ObjectDistance<D>> result = new ArrayList<>(nearestObjects);
+        Collections.sort(result);
+
+        return result;
+    }
+
+    private static class ClusterLowerBound<D extends Distanceable<D>> implements Comparable<ClusterLowerBound<D>> {
+        private final Cluster<D> cluster;
+        private final int penalty;
+        private final double lowerBound;
+
+        private ClusterLowerBound(Cluster<D> cluster, int penalty, double lowerBound) {
+            this.cluster = cluster;
+            this.penalty = penalty;
+            this.lowerBound = lowerBound;
+        }
+
+        public Cluster<D> getCluster() {
+            return cluster;
+        }
+
+        public double getLowerBound() {
+            return lowerBound;
+        }
+
+        @Override
+        public int compareTo(ClusterLowerBound<D> clusterLowerBound) {
+            if (penalty != clusterLowerBound.penalty) {
+                return penalty < clusterLowerBound.penalty ? -1 : 1;
+            }
+
+            return Double.compare(lowerBound, clusterLowerBound.lowerBound);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+/**
+ * Common state of queries of single query object whose distances to pivots are computed when the query is created
+ *
+ * @author Karel Rank
+ */
+abstract class ClusterQuery<D extends Distanceable<D>> extends ClusterTraversal<D> {
+    /**
+     * Deadline of query is checked once per this number of visited clusters and refined objects
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 32;
+    protected final PivotDistanceTable<D> queryObjectPivotDistance;
+    protected final QueryDeadline deadline;
+    protected boolean complete = true;
+    private int deadlineChecks = 0;
+
+    protected ClusterQuery(MIndex<D> index, D queryObject) {
+        this(index, queryObject, QueryDeadline.NONE);
+    }
+
+    protected ClusterQuery(MIndex<D> index, D queryObject, QueryDeadline deadline) {
+        this(index, queryObject, index.calculateDistanceFor(queryObject), deadline);
+    }
+
+    private ClusterQuery(MIndex<D> index, D queryObject, PivotDistanceTable<D> queryObjectPivotDistance, QueryDeadline deadline) {
+        this(index, queryObject, queryObjectPivotDistance,
+                index.pivotDistancesOf(queryObject, queryObjectPivotDistance), deadline);
+    }
+
+    private ClusterQuery(MIndex<D> index, D queryObject, PivotDistanceTable<D> queryObjectPivotDistance, double[] queryPivotDistances, QueryDeadline deadline) {
+        super(index, queryPivotDistances, PivotPermutations.filterOrder(queryPivotDistances));
+        this.queryObject = queryObject;
+        this.queryObjectPivotDistance = queryObjectPivotDistance;
+        this.deadline = deadline;
+        firstPivotDistance = queryObjectPivotDistance.firstPivotDistance(queryObject);
+    }
+
+    @Override
+    protected double doublePivotLowerBound(Cluster<D> cluster) {
+        return index.doublePivotLowerBound(cluster, queryObjectPivotDistance, queryObject);
+    }
+
+    /**
+     * Checks deadline once per {@link #DEADLINE_CHECK_INTERVAL} calls, so the clock isn't read for every object
+     *
+     * @return {@code true} when the query has to be stopped
+     */
+    protected boolean deadlineExpired() {
+        if (complete && deadlineChecks++ % DEADLINE_CHECK_INTERVAL == 0 && deadline.isExpired()) {
+            complete = false;
+        }
+
+        return !complete;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Range query which only counts found objects
+ *
+ * @author Karel Rank
+ */
+class ClusterRangeCountQuery<D extends Distanceable<D>> extends ClusterQuery<D> implements ClusterVisitor<D> {
+    /**
+     * Margin of normalized distances which covers rounding errors when objects are counted without computing
+     * their distance
+     */
+    private static final double INCLUSION_TOLERANCE = 1e-9;
+    private final double range;
+    private final double normalizedRange;
+    private final Queue<Cluster<D>> clusterQueue = new LinkedList<>();
+    private int count = 0;
+
+    ClusterRangeCountQuery(MIndex<D> index, D queryObject, double range, double normalizedRange) {
+        super(index, queryObject);
+        this.range = range;
+        this.normalizedRange = normalizedRange;
+    }
+
+    public int performQuery() {
+        clusterQueue.addAll(index.clusterRoot.getSubClusters());
+        while (!clusterQueue.isEmpty()) {
+            final Cluster<D> cluster = clusterQueue.poll();
+            if (!isPruned(cluster, normalizedRange, stats)) {
+                cluster.accept(this);
+            }
+        }
+        index.addQueryStats(stats);
+
+        return count;
+    }
+
+    @Override
+    public void enterInternalCluster(InternalCluster<D> internalCluster) {
+        clusterQueue.addAll(internalCluster.getSubClusters());
+    }
+
+    @Override
+    public void enterLeafCluster(LeafCluster<D> leafCluster) {
+        if (isLeafPruned(leafCluster, normalizedRange, stats)) {
+            return;
+        }
+
+        if (isInsideRange(leafCluster)) {
+            stats.incrementIncludedClusters();
+            countClusterObjects(leafCluster);
+        } else {
+            countObjectsInRange(leafCluster);
+        }
+    }
+
+    /**
+     * Every object of the cluster is at most {@code keyMax - calculatedIndex} far from the first pivot of the
+     * cluster, so the whole cluster is in range when distance of the query object to the pivot plus this radius
+     * is within the range. The radius is enlarged by rounding error of the key. Pivot box of the cluster gives
+     * the same kind of bound for every pivot.
+     */
+    private boolean isInsideRange(Cluster<D> leafCluster) {
+        final double keyMax = leafCluster.getKeyMax();
+        final double clusterRadius = keyMax - leafCluster.getCalculatedIndex() + 2 * FastMath.ulp(keyMax);
+        final double pivotDistance = queryObjectPivotDistance.pivotDistance(queryObject,
+                leafCluster.getIndex().pivotIndexAt(0));
+
+        return FastMath.min(pivotDistance + clusterRadius, leafCluster.pivotBoxUpperBound(queryPivotDistances))
+                + INCLUSION_TOLERANCE <= normalizedRange;
+    }
+
+    private void countClusterObjects(Cluster<D> leafCluster) {
+        final List<D> objects = index.btreemap.rangeSearch(leafCluster.getKeyMin(),
+                FastMath.nextUp(leafCluster.getKeyMax()));
+        for (D object : objects) {
+            if (index.belongsToCluster(object, leafCluster)) {
+                ++count;
+            }
+        }
+    }
+
+    private void countObjectsInRange(Cluster<D> leafCluster) {
+        for (D object : leafRangeSearch(leafCluster, normalizedRange)) {
+            if (!isCandidate(object, leafCluster, normalizedRange, stats)) {
+                continue;
+            }
+
+            if (pivotProvesInclusion(object)) {
+                stats.incrementPivotInclusion();
+                ++count;
+            } else if (isInRange(object, range, stats)) {
+                ++count;
+            }
+        }
+    }
+
+    /**
+     * By triangle inequality the object is in range when sum of its and query object distances to any pivot is
+     * within the range
+     */
+    private boolean pivotProvesInclusion(D object) {
+        for (int i = 0; i < index.pivotsSize; ++i) {
+            if (queryObjectPivotDistance.pivotDistance(queryObject, i) + index.pivotDistanceTable
+                    .pivotDistance(object, i) + index.pivotDistanceError(i) + INCLUSION_TOLERANCE <= normalizedRange) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import cz.rank.vsfs.btree.BPlusTreeCursor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Range query which collects key intervals of leaf clusters which can't be pruned first. Intervals are sorted and
+ * B+Tree is scanned by single cursor, so neighbouring leaf clusters don't descend from the root again. B+Tree is
+ * searched only in keys of the leaf cluster, so found objects don't need to be deduplicated.
+ *
+ * @author Karel Rank
+ */
+class ClusterRangeQuery<D extends Distanceable<D>> extends ClusterQuery<D> implements ClusterVisitor<D> {
+    private final Collection<D> foundObjects = new ArrayList<>();
+    private final double range;
+    private final double normalizedRange;
+    private final Queue<Cluster<D>> clusterQueue = new LinkedList<>();
+    private final List<LeafKeyInterval<D>> leafKeyIntervals = new ArrayList<>();
+    /**
+     * Found objects with their distances, which are recorded instead of {@link #foundObjects} when not {@code null}
+     */
+    private List<ObjectDistance<D>> foundObjectDistances = null;
+
+    ClusterRangeQuery(MIndex<D> index, D queryObject, double range, double normalizedRange, QueryDeadline deadline) {
+        super(index, queryObject, deadline);
+        this.range = range;
+        this.normalizedRange = normalizedRange;
+    }
+
+    @Override
+    public void enterInternalCluster(InternalCluster<D> internalCluster) {
+        clusterQueue.addAll(internalCluster.getSubClusters());
+    }
+
+    @Override
+    public void enterLeafCluster(LeafCluster<D> leafCluster) {
+        if (isLeafPruned(leafCluster, normalizedRange, stats)) {
+            return;
+        }
+
+        final double from = leafKeysFrom(leafCluster, normalizedRange);
+        final double to = leafKeysTo(leafCluster, normalizedRange);
+        if (from <= to) {
+            leafKeyIntervals.add(new LeafKeyInterval<>(leafCluster, from, to));
+        }
+    }
+
+    private void searchLeafKeyIntervals() {
+        Collections.sort(leafKeyIntervals);
+
+        final BPlusTreeCursor<D> cursor = index.btreemap.cursor();
+        final List<D> objects = new ArrayList<>();
+        for (LeafKeyInterval<D> leafKeyInterval : leafKeyIntervals) {
+            if (deadlineExpired()) {
+                break;
+            }
+
+            objects.clear();
+            cursor.rangeSearch(leafKeyInterval.from, leafKeyInterval.to, objects);
+            filterObjectsFromRangeSearch(leafKeyInterval.leafCluster, objects);
+        }
+
+        stats.addBtreeNodeVisits(cursor.getNodeVisits());
+        stats.addSavedBtreeNodeVisits(cursor.getRangeSearchNodeVisits() - cursor.getNodeVisits());
+    }
+
+    private void filterObjectsFromRangeSearch(Cluster<D> leafCluster, List<D> objects) {
+        for (D object : objects) {
+            if (deadlineExpired()) {
+                return;
+            }
+
+            if (!isCandidate(object, leafCluster, normalizedRange, stats)) {
+                continue;
+            }
+
+            if (foundObjectDistances == null) {
+                if (isInRange(object, range, stats)) {
+                    foundObjects.add(object);
+                }
+            } else {
+                final double distance = rangeDistance(object, range, stats);
+                if (distance <= range) {
+                    foundObjectDistances.add(new ObjectDistance<>(object, distance));
+                }
+            }
+        }
+    }
+
+    public Collection<D> performQuery() {
+        traverse();
+
+        return foundObjects;
+    }
+
+    /**
+     * Performs the query and returns found objects with their distances computed during refinement, in the same
+     * order as {@link #performQuery()}
+     */
+    List<ObjectDistance<D>> performDistanceQuery() {
+        foundObjectDistances = new ArrayList<>();
+        traverse();
+
+        return foundObjectDistances;
+    }
+
+    private void traverse() {
+        clusterQueue.addAll(index.clusterRoot.getSubClusters());
+        while (!clusterQueue.isEmpty() && !deadlineExpired()) {
+            final Cluster<D> cluster = clusterQueue.poll();
+            if (!isPruned(cluster, normalizedRange, stats)) {
+                cluster.accept(this);
+            }
+        }
+        searchLeafKeyIntervals();
+        index.addQueryStats(stats);
+    }
+
+    /**
+     * Keys of leaf cluster which has to be searched in B+Tree. Intervals are ordered by their lowest key.
+     */
+    private static class LeafKeyInterval<D extends Distanceable<D>> implements Comparable<LeafKeyInterval<D>> {
+        private final Cluster<D> leafCluster;
+        private final double from;
+        private final double to;
+
+        private LeafKeyInterval(Cluster<D> leafCluster, double from, double to) {
+            this.leafCluster = leafCluster;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int compareTo(LeafKeyInterval<D> leafKeyInterval) {
+            return Double.compare(from, leafKeyInterval.from);
+        }
+    }
+}
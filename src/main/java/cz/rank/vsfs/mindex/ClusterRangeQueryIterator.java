@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * Range query which traverses cluster tree only when next object is requested
+ *
+ * @author Karel Rank
+ */
+class ClusterRangeQueryIterator<D extends Distanceable<D>> extends ClusterQuery<D>
+        implements ClusterVisitor<D>, CloseableIterator<D> {
+    private final double range;
+    private final double normalizedRange;
+    private final Queue<Cluster<D>> clusterQueue = new LinkedList<>();
+    private Cluster<D> currentLeafCluster = null;
+    private List<D> candidates = Collections.emptyList();
+    private int candidatesPosition = 0;
+    private D nextObject = null;
+    private boolean closed = false;
+
+    ClusterRangeQueryIterator(MIndex<D> index, D queryObject, double range, double normalizedRange) {
+        super(index, queryObject);
+        this.range = range;
+        this.normalizedRange = normalizedRange;
+        clusterQueue.addAll(index.clusterRoot.getSubClusters());
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextObject == null && !closed) {
+            if (candidatesPosition < candidates.size()) {
+                refine(candidates.get(candidatesPosition++));
+            } else if (!clusterQueue.isEmpty()) {
+                visit(clusterQueue.poll());
+            } else {
+                close();
+            }
+        }
+
+        return nextObject != null;
+    }
+
+    @Override
+    public D next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more objects in range: " + range + " from: " + queryObject);
+        }
+
+        final D object = nextObject;
+        nextObject = null;
+
+        return object;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Objects cannot be removed from query result");
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            index.addQueryStats(stats);
+        }
+        closed = true;
+        clusterQueue.clear();
+        candidates = Collections.emptyList();
+        currentLeafCluster = null;
+    }
+
+    private void visit(Cluster<D> cluster) {
+        if (!isPruned(cluster, normalizedRange, stats)) {
+            cluster.accept(this);
+        }
+    }
+
+    @Override
+    public void enterInternalCluster(InternalCluster<D> internalCluster) {
+        clusterQueue.addAll(internalCluster.getSubClusters());
+    }
+
+    @Override
+    public void enterLeafCluster(LeafCluster<D> leafCluster) {
+        if (isLeafPruned(leafCluster, normalizedRange, stats)) {
+            return;
+        }
+
+        currentLeafCluster = leafCluster;
+        candidates = leafRangeSearch(leafCluster, normalizedRange);
+        candidatesPosition = 0;
+    }
+
+    private void refine(D object) {
+        if (isCandidate(object, currentLeafCluster, normalizedRange, stats) && isInRange(object, range, stats)) {
+            nextObject = object;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Similarity join walking pairs of clusters of index and joined index. Pair of the same clusters is expanded to
+ * pairs of its sub clusters, so self join evaluates every pair of objects once.
+ *
+ * @author Karel Rank
+ */
+class ClusterSimilarityJoin<D extends Distanceable<D>> {
+    private final MIndex<D> index;
+    private final MIndex<D> joinedIndex;
+    private final double range;
+    private final Map<Cluster<D>, JoinLeaf<D>> leaves;
+
+    ClusterSimilarityJoin(MIndex<D> index, MIndex<D> joinedIndex, double range) {
+        this.index = index;
+        this.joinedIndex = joinedIndex;
+        this.range = range;
+        leaves = joinLeaves(index);
+        if (joinedIndex != index) {
+            leaves.putAll(joinLeaves(joinedIndex));
+        }
+    }
+
+    public List<ObjectPair<D>> performJoin() {
+        final ClusterPairTask task = new ClusterPairTask(index.clusterRoot, joinedIndex.clusterRoot);
+        final List<ObjectPair<D>> pairs = SharedPool.get().invoke(task);
+        index.addQueryStats(task.taskStats);
+
+        return pairs;
+    }
+
+    /**
+     * Objects of leaf clusters with their distances to pivots, so distances aren't looked up in pivot distance
+     * table for every pair of objects
+     */
+    private static <D extends Distanceable<D>> Map<Cluster<D>, JoinLeaf<D>> joinLeaves(final MIndex<D> index) {
+        final Map<Cluster<D>, JoinLeaf<D>> leaves = new IdentityHashMap<>();
+        final int pivotsSize = index.pivotsSize;
+        final double maximumDistance = index.maximumDistance;
+        index.clusterRoot.accept(new ClusterVisitor<D>() {
+            @Override
+            public void enterInternalCluster(InternalCluster<D> internalCluster) {
+                for (Cluster<D> subCluster : internalCluster.getSubClusters()) {
+                    subCluster.accept(this);
+                }
+            }
+
+            @Override
+            public void enterLeafCluster(LeafCluster<D> leafCluster) {
+                final List<D> objects = new ArrayList<>();
+                for (D object : index.btreemap.rangeSearch(leafCluster.getKeyMin(),
+                        FastMath.nextUp(leafCluster.getKeyMax()))) {
+                    if (index.belongsToCluster(object, leafCluster)) {
+                        objects.add(object);
+                    }
+                }
+
+                final double[][] pivotDistances = new double[objects.size()][];
+                for (int i = 0; i < pivotDistances.length; i++) {
+                    pivotDistances[i] = index.pivotDistancesOf(objects.get(i), index.pivotDistanceTable);
+                    for (int j = 0; j < pivotsSize; j++) {
+                        pivotDistances[i][j] *= maximumDistance;
+                    }
+                }
+
+                final double[] errors = new double[pivotsSize];
+                for (int i = 0; i < pivotsSize; i++) {
+                    errors[i] = index.pivotDistanceError(i) * maximumDistance;
+                }
+
+                leaves.put(leafCluster, new JoinLeaf<>(objects, pivotDistances, errors,
+                        leafCluster.getIndex().pivotIndexAt(0), pivotsSize));
+            }
+        });
+
+        return leaves;
+    }
+
+    /**
+     * Lower bound of distance between any objects of clusters, which is the biggest gap between their pivot
+     * boxes
+     */
+    private double pivotBoxLowerBound(Cluster<D> cluster, Cluster<D> joinedCluster) {
+        double lowerBound = 0;
+        for (int i = 0; i < index.pivotsSize; i++) {
+            final double min = cluster.pivotBoxMin(i) * index.maximumDistance;
+            final double max = cluster.pivotBoxMax(i) * index.maximumDistance;
+            final double joinedMin = joinedCluster.pivotBoxMin(i) * joinedIndex.maximumDistance;
+            final double joinedMax = joinedCluster.pivotBoxMax(i) * joinedIndex.maximumDistance;
+            lowerBound = FastMath.max(lowerBound, FastMath.max(min - joinedMax, joinedMin - max));
+        }
+
+        return lowerBound;
+    }
+
+    private abstract class JoinTask extends RecursiveTask<List<ObjectPair<D>>> {
+        private static final long serialVersionUID = 1L;
+
+        protected final QueryStats taskStats = new QueryStats();
+
+        protected List<ObjectPair<D>> joinAll(List<? extends JoinTask> tasks) {
+            invokeAll(tasks);
+
+            final List<ObjectPair<D>> pairs = new ArrayList<>();
+            for (JoinTask task : tasks) {
+                pairs.addAll(task.join());
+                taskStats.add(task.taskStats);
+            }
+
+            return pairs;
+        }
+    }
+
+    private class ClusterPairTask extends JoinTask {
+        private static final long serialVersionUID = 1L;
+
+        private final Cluster<D> cluster;
+        private final Cluster<D> joinedCluster;
+
+        private ClusterPairTask(Cluster<D> cluster, Cluster<D> joinedCluster) {
+            this.cluster = cluster;
+            this.joinedCluster = joinedCluster;
+        }
+
+        @Override
+        protected List<ObjectPair<D>> compute() {
+            taskStats.incrementVisitedClusters();
+            if (pivotBoxLowerBound(cluster, joinedCluster) > range) {
+                taskStats.incrementPivotBoxFilter();
+                return Collections.emptyList();
+            }
+
+            final JoinLeaf<D> leaf = leaves.get(cluster);
+            final JoinLeaf<D> joinedLeaf = leaves.get(joinedCluster);
+            final List<JoinTask> tasks = new ArrayList<>();
+            if (leaf != null && joinedLeaf != null) {
+                for (int i = 0; i < leaf.objects.size(); i += MIndex.REFINEMENT_GRANULARITY) {
+                    tasks.add(new LeafPairTask(leaf, joinedLeaf, cluster == joinedCluster, i,
+                            FastMath.min(i + MIndex.REFINEMENT_GRANULARITY, leaf.objects.size())));
+                }
+            } else if (cluster == joinedCluster) {
+                final List<Cluster<D>> subClusters = cluster.getSubClusters();
+                for (int i = 0; i < subClusters.size(); i++) {
+                    for (int j = i; j < subClusters.size(); j++) {
+                        tasks.add(new ClusterPairTask(subClusters.get(i), subClusters.get(j)));
+                    }
+                }
+            } else if (leaf == null && (joinedLeaf != null || cluster.getLevel() <= joinedCluster.getLevel())) {
+                for (Cluster<D> subCluster : cluster.getSubClusters()) {
+                    tasks.add(new ClusterPairTask(subCluster, joinedCluster));
+                }
+            } else {
+                for (Cluster<D> joinedSubCluster : joinedCluster.getSubClusters()) {
+                    tasks.add(new ClusterPairTask(cluster, joinedSubCluster));
+                }
+            }
+
+            return joinAll(tasks);
+        }
+    }
+
+    /**
+     * Joins objects from {@code from} to {@code to} of the leaf with objects of the joined leaf. Leaves with the
+     * same first pivot are sorted by distance to it, so only objects whose distances differ at most by range
+     * are compared.
+     */
+    private class LeafPairTask extends JoinTask {
+        private static final long serialVersionUID = 1L;
+
+        private final JoinLeaf<D> leaf;
+        private final JoinLeaf<D> joinedLeaf;
+        private final boolean sameLeaf;
+        private final int from;
+        private final int to;
+        /**
+         * Range widened by errors of distances of both leaves to pivot indexed by pivot index
+         */
+        private final double[] ranges;
+
+        private LeafPairTask(JoinLeaf<D> leaf, JoinLeaf<D> joinedLeaf, boolean sameLeaf, int from, int to) {
+            this.leaf = leaf;
+            this.joinedLeaf = joinedLeaf;
+            this.sameLeaf = sameLeaf;
+            this.from = from;
+            this.to = to;
+            ranges = new double[index.pivotsSize];
+            for (int i = 0; i < index.pivotsSize; i++) {
+                ranges[i] = range + leaf.pivotDistanceErrors[i] + joinedLeaf.pivotDistanceErrors[i];
+            }
+        }
+
+        @Override
+        protected List<ObjectPair<D>> compute() {
+            final List<ObjectPair<D>> pairs = new ArrayList<>();
+            final boolean sortedByFirstPivot = leaf.firstPivot == joinedLeaf.firstPivot;
+            final int firstPivot = leaf.firstPivot;
+            int start = 0;
+            for (int i = from; i < to; i++) {
+                final D object = leaf.objects.get(i);
+                final double[] pivotDistances = leaf.pivotDistances[i];
+                if (!sameLeaf && joinedLeaf.isOutOfRange(pivotDistances, ranges)) {
+                    taskStats.incrementPivotBoxFilter();
+                    continue;
+                }
+                for (int j = sameLeaf ? i + 1 : start; j < joinedLeaf.objects.size(); j++) {
+                    final double[] joinedPivotDistances = joinedLeaf.pivotDistances[j];
+                    if (sortedByFirstPivot) {
+                        final double difference = joinedPivotDistances[firstPivot] - pivotDistances[firstPivot];
+                        if (difference > ranges[firstPivot]) {
+                            break;
+                        }
+                        if (difference < -ranges[firstPivot]) {
+                            start = j + 1;
+                            continue;
+                        }
+                    }
+
+                    taskStats.incrementCandidates();
+                    if (pairShouldBeFiltered(pivotDistances, joinedPivotDistances)) {
+                        taskStats.incrementPivotFilter();
+                        continue;
+                    }
+
+                    final D joinedObject = joinedLeaf.objects.get(j);
+                    final double distance = index.boundedDistance(object, joinedObject, range);
+                    if (distance <= range) {
+                        pairs.add(new ObjectPair<>(object, joinedObject, distance));
+                    } else {
+                        taskStats.incrementObjectFilter();
+                    }
+                }
+            }
+
+            return pairs;
+        }
+
+        private boolean pairShouldBeFiltered(double[] pivotDistances, double[] joinedPivotDistances) {
+            for (int i = 0; i < ranges.length; i++) {
+                if (FastMath.abs(pivotDistances[i] - joinedPivotDistances[i]) > ranges[i]) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Objects of leaf cluster sorted by key, i.e. by distance to the first pivot of the cluster
+     */
+    private static class JoinLeaf<D extends Distanceable<D>> {
+        private final List<D> objects;
+        /**
+         * Distances of objects to pivots, which aren't normalized, so leaves of indexes with different maximum
+         * distances can be joined
+         */
+        private final double[][] pivotDistances;
+        /**
+         * Errors of distances to pivots, which aren't normalized either
+         */
+        private final double[] pivotDistanceErrors;
+        private final int firstPivot;
+        private final double[] pivotDistancesMin;
+        private final double[] pivotDistancesMax;
+
+        private JoinLeaf(List<D> objects, double[][] pivotDistances, double[] pivotDistanceErrors, int firstPivot,
+                         int pivotsSize) {
+            this.objects = objects;
+            this.pivotDistances = pivotDistances;
+            this.pivotDistanceErrors = pivotDistanceErrors;
+            this.firstPivot = firstPivot;
+            pivotDistancesMin = new double[pivotsSize];
+            pivotDistancesMax = new double[pivotsSize];
+            Arrays.fill(pivotDistancesMin, Double.POSITIVE_INFINITY);
+            Arrays.fill(pivotDistancesMax, Double.NEGATIVE_INFINITY);
+            for (double[] objectPivotDistances : pivotDistances) {
+                for (int i = 0; i < pivotsSize; i++) {
+                    pivotDistancesMin[i] = FastMath.min(pivotDistancesMin[i], objectPivotDistances[i]);
+                    pivotDistancesMax[i] = FastMath.max(pivotDistancesMax[i], objectPivotDistances[i]);
+                }
+            }
+        }
+
+        /**
+         * @param ranges range widened by errors of distances to pivot indexed by pivot index
+         * @return {@code true} when object with {@code objectPivotDistances} is farther than range from all objects
+         *         of the leaf
+         */
+        private boolean isOutOfRange(double[] objectPivotDistances, double[] ranges) {
+            for (int i = 0; i < objectPivotDistances.length; i++) {
+                final double distance = objectPivotDistances[i];
+                if (pivotDistancesMin[i] - distance > ranges[i] || distance - pivotDistancesMax[i] > ranges[i]) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
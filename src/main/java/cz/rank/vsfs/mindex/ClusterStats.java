@@ -26,14 +26,29 @@
 
 package cz.rank.vsfs.mindex;
 
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
+ * Clusters are counted by workers building first level subtrees in parallel, so the counter is atomic
+ *
  * @author Karel Rank
  */
+@ThreadSafe
 public class ClusterStats {
-    private int clusters = 0;
+    private final AtomicInteger clusters = new AtomicInteger();
 
     public void incrementCluster() {
-        clusters++;
+        clusters.incrementAndGet();
+    }
+
+    public void decrementCluster() {
+        clusters.decrementAndGet();
+    }
+
+    public int getClusters() {
+        return clusters.get();
     }
 
     @Override
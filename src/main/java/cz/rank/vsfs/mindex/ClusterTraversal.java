@@ -0,0 +1,209 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import org.apache.commons.math3.util.FastMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pruning and refinement shared by all queries of single query object over the cluster tree. Queries decide
+ * order in which clusters are visited, this class decides which clusters and objects can be skipped and counts
+ * them in statistics.
+ *
+ * @author Karel Rank
+ */
+abstract class ClusterTraversal<D extends Distanceable<D>> {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterTraversal.class);
+    protected final MIndex<D> index;
+    /**
+     * Normalized distances of query object to pivots indexed by pivot index
+     */
+    final double[] queryPivotDistances;
+    /**
+     * Order of pivots checked by pivot filter
+     */
+    final int[] pivotFilterOrder;
+    final QueryStats stats = new QueryStats();
+    protected D queryObject;
+    protected double firstPivotDistance;
+
+    ClusterTraversal(MIndex<D> index, double[] queryPivotDistances, int[] pivotFilterOrder) {
+        this.index = index;
+        this.queryPivotDistances = queryPivotDistances;
+        this.pivotFilterOrder = pivotFilterOrder;
+    }
+
+    /**
+     * Lower bound of normalized distance between query object and any object in {@code cluster} which is derived
+     * from the double pivot distance constraint
+     */
+    protected abstract double doublePivotLowerBound(Cluster<D> cluster);
+
+    /**
+     * Counts {@code cluster} as visited and checks whether double pivot distance constraint or pivot box prove that
+     * the cluster has no object in range
+     *
+     * @param stats statistics where visited and pruned clusters are counted
+     * @return {@code true} when the cluster can be skipped
+     */
+    protected boolean isPruned(Cluster<D> cluster, double normalizedRange, QueryStats stats) {
+        stats.incrementVisitedClusters();
+
+        if (cluster.getLevel() > 0 && doublePivotLowerBound(cluster) > normalizedRange) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Skipping cluster due doublePivotDistanceConstraint: {}", cluster);
+            }
+
+            stats.incrementDoublePivotDistanceFilter();
+            return true;
+        }
+
+        if (cluster.pivotBoxLowerBound(queryPivotDistances) > normalizedRange) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Skipping cluster due pivot box: {}", cluster);
+            }
+
+            stats.incrementPivotBoxFilter();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks whether keys of {@code leafCluster} are too far from key of query object by range pivot distance
+     * constraint
+     *
+     * @param stats statistics where pruned leaf clusters are counted
+     * @return {@code true} when the leaf cluster can be skipped
+     */
+    protected boolean isLeafPruned(Cluster<D> leafCluster, double normalizedRange, QueryStats stats) {
+        if (index.rangePivotDistanceConstraint(normalizedRange, MIndex.frac(leafCluster.getKeyMin()),
+                MIndex.frac(leafCluster.getKeyMax()), firstPivotDistance)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Skipping cluster due rangePivotDistanceConstraint: {}", leafCluster);
+            }
+
+            stats.incrementRangePivotDistanceFilter();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Lower bound of normalized distance between query object and any object in {@code leafCluster} which is
+     * derived from the range pivot distance constraint
+     */
+    protected double rangePivotLowerBound(Cluster<D> leafCluster) {
+        final double rMin = MIndex.frac(leafCluster.getKeyMin());
+        final double rMax = MIndex.frac(leafCluster.getKeyMax());
+
+        return FastMath.max(rMin - firstPivotDistance, firstPivotDistance - rMax);
+    }
+
+    /**
+     * Lowest key of {@code leafCluster} which can belong to object in range. Only keys of the leaf cluster are
+     * searched, so objects of neighbouring clusters aren't evaluated twice.
+     */
+    protected double leafKeysFrom(Cluster<D> leafCluster, double normalizedRange) {
+        final double keyMin = leafCluster.getKeyMin();
+
+        return FastMath.max(keyMin, FastMath.floor(keyMin) + firstPivotDistance - normalizedRange);
+    }
+
+    /**
+     * Highest key of {@code leafCluster} which can belong to object in range
+     */
+    protected double leafKeysTo(Cluster<D> leafCluster, double normalizedRange) {
+        return FastMath.min(FastMath.nextUp(leafCluster.getKeyMax()),
+                FastMath.floor(leafCluster.getKeyMin()) + firstPivotDistance + normalizedRange);
+    }
+
+    /**
+     * Searches B+Tree in keys of {@code leafCluster} which can belong to objects in range
+     */
+    protected List<D> leafRangeSearch(Cluster<D> leafCluster, double normalizedRange) {
+        final double from = leafKeysFrom(leafCluster, normalizedRange);
+        final double to = leafKeysTo(leafCluster, normalizedRange);
+
+        if (from > to) {
+            return Collections.emptyList();
+        }
+
+        return index.btreemap.rangeSearch(from, to);
+    }
+
+    /**
+     * Counts {@code object} found in keys of {@code leafCluster} as candidate unless it belongs to another leaf
+     * cluster sharing the keys, and checks it by pivot filter
+     *
+     * @param stats statistics where candidates and filtered objects are counted
+     * @return {@code true} when distance of the object has to be computed
+     */
+    protected boolean isCandidate(D object, Cluster<D> leafCluster, double normalizedRange, QueryStats stats) {
+        if (!index.belongsToCluster(object, leafCluster)) {
+            return false;
+        }
+
+        stats.incrementCandidates();
+        if (index.pivotShouldBeFiltered(object, queryPivotDistances, pivotFilterOrder, normalizedRange, stats)) {
+            stats.incrementPivotFilter();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Computes distance of {@code object} to query object
+     *
+     * @param stats statistics where objects out of range are counted
+     * @return {@code true} when the object is in range
+     */
+    protected boolean isInRange(D object, double range, QueryStats stats) {
+        return rangeDistance(object, range, stats) <= range;
+    }
+
+    /**
+     * Computes distance of {@code object} to query object like {@link #isInRange(Distanceable, double, QueryStats)}
+     *
+     * @return exact distance when the object is in range, otherwise any distance greater than range
+     */
+    protected double rangeDistance(D object, double range, QueryStats stats) {
+        final double distance = index.boundedDistance(queryObject, object, range);
+        if (distance > range) {
+            stats.incrementObjectFilter();
+        }
+
+        return distance;
+    }
+}
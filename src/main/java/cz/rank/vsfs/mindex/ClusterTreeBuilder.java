@@ -31,5 +31,21 @@ package cz.rank.vsfs.mindex;
 public interface ClusterTreeBuilder<D> {
     void build();
 
+    /**
+     * Inserts {@code object} into already built cluster tree and B+Tree. Pivot distances of the object have to be
+     * calculated.
+     *
+     * @return {@code true} when leaf clusters were created or replaced, or key range of a leaf cluster was extended
+     */
+    boolean insert(D object);
+
+    /**
+     * Removes {@code object} from the cluster tree and B+Tree. Leaf cluster without objects is removed from the
+     * tree. Pivot distances of the object have to be still calculated.
+     *
+     * @return whether the object was found and whether its leaf cluster was removed
+     */
+    ClusterTreeRemoval remove(D object);
+
     ClusterStats getClusterStats();
 }
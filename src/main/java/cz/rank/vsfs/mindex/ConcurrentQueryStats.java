@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics of all queries of the index. Statistics of finished queries are added into stripes selected by
+ * thread, so concurrent queries rarely update the same counters. Stripes are padded to separate cache lines.
+ *
+ * @author Karel Rank
+ */
+@ThreadSafe
+class ConcurrentQueryStats {
+    /**
+     * Counters of one stripe rounded up to 128 bytes, i.e. two cache lines which are prefetched together
+     */
+    /**
+     * Cached, because {@code values()} returns new array on each call
+     */
+    private static final QueryStats.Counter[] COUNTERS = QueryStats.Counter.values();
+    private static final int STRIPE_SIZE = (QueryStats.COUNTERS / 16 + 1) * 16;
+    private final int stripeMask;
+    private final AtomicLongArray counters;
+
+    ConcurrentQueryStats() {
+        final int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        stripeMask = stripes - 1;
+        counters = new AtomicLongArray(stripes * STRIPE_SIZE);
+    }
+
+    void add(QueryStats queryStats) {
+        final int stripe = stripeOffset();
+        for (QueryStats.Counter counter : COUNTERS) {
+            final long value = queryStats.counter(counter);
+            if (value != 0) {
+                counters.addAndGet(stripe + counter.ordinal(), value);
+            }
+        }
+    }
+
+    private int stripeOffset() {
+        return ((int) Thread.currentThread().getId() & stripeMask) * STRIPE_SIZE;
+    }
+
+    /**
+     * @return sum of all stripes. Queries finished during summing may be counted only partially.
+     */
+    QueryStats snapshot() {
+        final long[] sums = new long[QueryStats.COUNTERS];
+        for (int stripe = 0; stripe < counters.length(); stripe += STRIPE_SIZE) {
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += counters.get(stripe + i);
+            }
+        }
+
+        return new QueryStats(sums);
+    }
+}
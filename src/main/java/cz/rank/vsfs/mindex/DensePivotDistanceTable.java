@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cz.rank.vsfs.mindex;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pivot distance table which keeps distances of all objects in one flat array of doubles. Normalized distance of
+ * object to pivot {@code p} is stored at {@code ordinal * pivotsSize + p}.
+ * <p/>
+ * Built table can be read from multiple threads, but objects can't be added or removed concurrently.
+ *
+ * @author Karel Rank
+ */
+public class DensePivotDistanceTable<D extends Distanceable<D>> extends AbstractDensePivotDistanceTable<D> {
+    private double[] distances = new double[0];
+
+    public DensePivotDistanceTable(double maximumDistance, List<Pivot<D>> pivots, List<D> objects) {
+        super(maximumDistance, pivots, objects);
+    }
+
+    public DensePivotDistanceTable(List<Pivot<D>> pivots, List<D> objects) {
+        this(1d, pivots, objects);
+    }
+
+    @Override
+    public double distanceAt(D object, int index) {
+        final int offset = offsetOf(object);
+        return distances[offset + pivotIndexAt(offset + index)];
+    }
+
+    @Override
+    public double pivotDistance(D object, int pivotIndex) {
+        return distances[offsetOf(object) + pivotIndex];
+    }
+
+    @Override
+    public double pivotDistanceError(int pivotIndex) {
+        return 0;
+    }
+
+    @Override
+    protected void growDistances(int ordinalsCapacity) {
+        distances = Arrays.copyOf(distances, ordinalsCapacity * pivotsSize);
+    }
+
+    @Override
+    protected void storeDistances(int ordinal, double[] distances, int[] permutation) {
+        System.arraycopy(distances, 0, this.distances, ordinal * pivotsSize, pivotsSize);
+    }
+}
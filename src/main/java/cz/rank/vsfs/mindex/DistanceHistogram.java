@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.Immutable;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.List;
+
+/**
+ * Histogram of normalized distances between objects and every pivot collected from pivot distance table. Distances
+ * greater than 1 are counted in the last bin.
+ *
+ * @author Karel Rank
+ */
+@Immutable
+class DistanceHistogram {
+    static final int BINS = 128;
+    private final int pivotsSize;
+    private final int objectsCount;
+    /**
+     * Cumulative counts of distances for every pivot, i.e. {@code cumulativeCounts[pivot][i]} is number of objects
+     * whose distance to pivot is lower than upper limit of bin {@code i}
+     */
+    private final long[][] cumulativeCounts;
+
+    <D extends Distanceable<D>> DistanceHistogram(List<D> objects, int pivotsSize,
+                                                  PivotDistanceTable<D> pivotDistanceTable) {
+        this.pivotsSize = pivotsSize;
+        objectsCount = objects.size();
+        cumulativeCounts = new long[pivotsSize][BINS];
+        for (D object : objects) {
+            for (int i = 0; i < pivotsSize; i++) {
+                cumulativeCounts[i][bin(pivotDistanceTable.pivotDistance(object, i))]++;
+            }
+        }
+
+        for (long[] counts : cumulativeCounts) {
+            for (int i = 1; i < BINS; i++) {
+                counts[i] += counts[i - 1];
+            }
+        }
+    }
+
+    private static int bin(double distance) {
+        return FastMath.max(0, FastMath.min(BINS - 1, (int) (distance * BINS)));
+    }
+
+    /**
+     * @return estimated fraction of objects whose normalized distance to pivot is from {@code from} to {@code to}
+     */
+    double fraction(int pivotIndex, double from, double to) {
+        if (objectsCount == 0 || from >= to) {
+            return 0;
+        }
+
+        return (cumulativeCount(pivotIndex, to) - cumulativeCount(pivotIndex, from)) / objectsCount;
+    }
+
+    /**
+     * @return estimated fraction of objects whose normalized distance to pivot is at most {@code distance} averaged
+     *         over all pivots
+     */
+    double fractionWithin(double distance) {
+        double fraction = 0;
+        for (int i = 0; i < pivotsSize; i++) {
+            fraction += fraction(i, 0, distance);
+        }
+
+        return fraction / pivotsSize;
+    }
+
+    /**
+     * Interpolates linearly inside of the bin
+     */
+    private double cumulativeCount(int pivotIndex, double distance) {
+        if (distance <= 0) {
+            return 0;
+        }
+        if (distance >= 1) {
+            return objectsCount;
+        }
+
+        final long[] counts = cumulativeCounts[pivotIndex];
+        final double position = distance * BINS;
+        final int bin = (int) position;
+        final double countBefore = bin == 0 ? 0 : counts[bin - 1];
+
+        return countBefore + (counts[bin] - countBefore) * (position - bin);
+    }
+}
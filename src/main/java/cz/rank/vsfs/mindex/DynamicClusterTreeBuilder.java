@@ -27,6 +27,7 @@
 package cz.rank.vsfs.mindex;
 
 import cz.rank.vsfs.btree.BPlusTreeMultiDoubleObjectMap;
+import cz.rank.vsfs.btree.DoubleObjectPairs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,29 +42,121 @@ import java.util.Map;
 public class DynamicClusterTreeBuilder<D extends Distanceable<D>> extends AbstractClusterTreeBuilder<D> {
     private static final Logger logger = LoggerFactory.getLogger(DynamicClusterTreeBuilder.class);
     private final int leafObjectsLimit;
-    private final List<D> objects;
-    private final Cluster<D> clusterRoot;
-    private final PivotDistanceTable<D> pivotDistanceTable;
-    private final BPlusTreeMultiDoubleObjectMap<D> btreemap;
 
     public DynamicClusterTreeBuilder(int leafObjectsLimit, List<D> objects, Cluster<D> clusterRoot, PivotDistanceTable<D> pivotDistanceTable, BPlusTreeMultiDoubleObjectMap<D> btreemap) {
+        this(leafObjectsLimit, objects, clusterRoot, pivotDistanceTable, btreemap,
+             BPlusTreeMultiDoubleObjectMap.DEFAULT_FILL_FACTOR);
+    }
+
+    public DynamicClusterTreeBuilder(int leafObjectsLimit, List<D> objects, Cluster<D> clusterRoot, PivotDistanceTable<D> pivotDistanceTable, BPlusTreeMultiDoubleObjectMap<D> btreemap, double btreeFillFactor) {
+        super(objects, clusterRoot, pivotDistanceTable, btreemap, btreeFillFactor);
         this.leafObjectsLimit = leafObjectsLimit;
-        this.objects = objects;
-        this.clusterRoot = clusterRoot;
-        this.pivotDistanceTable = pivotDistanceTable;
-        this.btreemap = btreemap;
+    }
+
+    /**
+     * Leaf cluster is replaced by internal one as soon as it should hold more than {@link #leafObjectsLimit}
+     * objects, so the first level cluster is created directly as the cluster it would end up as
+     */
+    @Override
+    protected Cluster<D> createFirstLevelCluster(Pivot<D> pivot, int objectsCount) {
+        if (objectsCount > leafObjectsLimit && notAtLeafLevel(clusterRoot.getLevel() + 1)) {
+            final Cluster<D> internalCluster = createInternalSubCluster(clusterRoot, pivot);
+            clusterRoot.storeSubCluster(pivot, internalCluster);
+
+            return internalCluster;
+        }
+
+        final Cluster<D> leafCluster = createAndStoreLeafSubCluster(clusterRoot, pivot);
+        incrementCluster();
+
+        return leafCluster;
+    }
+
+    @Override
+    protected void buildSubtree(Cluster<D> cluster, List<D> clusterObjects, DoubleObjectPairs<D> pairs) {
+        final Map<D, Cluster<D>> objectsMapping = new HashMap<>(clusterObjects.size());
+        final Deque<D> objectsDeque = new LinkedList<>(clusterObjects);
+        routeObjects(objectsDeque, objectsMapping, cluster);
+
+        for (Map.Entry<D, Cluster<D>> entry : objectsMapping.entrySet()) {
+            final D object = entry.getKey();
+            final Cluster<D> leafCluster = entry.getValue();
+            final double objectKey = objectKey(object, leafCluster);
+
+            pairs.add(objectKey, object);
+            leafCluster.setKey(objectKey);
+            extendPivotBoxes(leafCluster, object, cluster);
+        }
+    }
+
+    @Override
+    public boolean insert(D object) {
+        final Map<D, Cluster<D>> objectsMapping = new HashMap<>();
+        final Deque<D> objectsDeque = new LinkedList<>();
+        objectsDeque.add(object);
+        final boolean changedLeafClusters = routeObjects(objectsDeque, objectsMapping, clusterRoot);
+
+        boolean extendedKeys = false;
+        for (Map.Entry<D, Cluster<D>> entry : objectsMapping.entrySet()) {
+            extendedKeys |= insertKey(entry.getKey(), entry.getValue());
+        }
+
+        return changedLeafClusters || extendedKeys;
     }
 
     @Override
-    public void build() {
+    public ClusterTreeRemoval remove(D object) {
         int maxLevel = clusterRoot.getMaxLevel();
-        final Map<D, Cluster<D>> objectsMapping = new HashMap<>(objects.size());
-        final Deque<D> objectsDeque = new LinkedList<>(objects);
+        Cluster<D> currentCluster = clusterRoot;
+        for (int currentLevel = 0; currentLevel <= maxLevel; ++currentLevel) {
+            final Cluster<D> subCluster = currentCluster.getSubCluster(
+                    pivotDistanceTable.pivotAt(object, currentLevel));
+            if (subCluster == null) {
+                return ClusterTreeRemoval.NOT_FOUND;
+            }
+
+            if (subCluster == LeafCluster.NO_SUBCLUSTERS) {
+                break;
+            }
+
+            currentCluster = subCluster;
+        }
+
+        final double objectKey = objectKey(object, currentCluster);
+        if (!btreemap.remove(objectKey, object)) {
+            return ClusterTreeRemoval.NOT_FOUND;
+        }
+
+        currentCluster.removeObject(object);
+        if (currentCluster.removeKey(objectKey)) {
+            if (currentCluster.getKeysCount() == 0) {
+                removeSubCluster(currentCluster, object);
+                return ClusterTreeRemoval.REMOVED_LEAF_CLUSTER;
+            }
+
+            currentCluster.clearKeys();
+            for (D clusterObject : currentCluster.getObjects()) {
+                currentCluster.setKey(objectKey(clusterObject, currentCluster));
+            }
+        }
+
+        return ClusterTreeRemoval.REMOVED;
+    }
+
+    /**
+     * Stores objects from {@code objectsDeque} into leaf clusters under {@code topCluster}. Objects of leaf cluster
+     * which is replaced by internal cluster are put back into the deque.
+     *
+     * @return {@code true} when a leaf cluster was created or replaced
+     */
+    private boolean routeObjects(Deque<D> objectsDeque, Map<D, Cluster<D>> objectsMapping, Cluster<D> topCluster) {
+        boolean changedLeafClusters = false;
+        int maxLevel = topCluster.getMaxLevel();
         while (!objectsDeque.isEmpty()) {
             final D object = objectsDeque.poll();
 
-            Cluster<D> currentCluster = clusterRoot;
-            for (int currentLevel = 0; currentLevel <= maxLevel; ++currentLevel) {
+            Cluster<D> currentCluster = topCluster;
+            for (int currentLevel = topCluster.getLevel(); currentLevel <= maxLevel; ++currentLevel) {
                 final Pivot<D> pivot = pivotDistanceTable.pivotAt(object, currentLevel);
 
                 Cluster<D> subCluster = currentCluster.getSubCluster(pivot);
@@ -71,12 +164,14 @@ public class DynamicClusterTreeBuilder<D extends Distanceable<D>> extends Abstra
                     subCluster = createAndStoreLeafSubCluster(currentCluster, pivot);
                     storeObject(objectsMapping, object, subCluster);
                     incrementCluster();
+                    changedLeafClusters = true;
                     break;
                 } else {
                     // Is current cluster leaf cluster?
                     if (subCluster == LeafCluster.NO_SUBCLUSTERS) {
                         if (currentCluster.getObjectsCount() == leafObjectsLimit && notAtLeafLevel(currentCluster)) {
                             replaceLeafClusterWithInternal(object, objectsDeque, currentCluster, currentLevel);
+                            changedLeafClusters = true;
                         } else {
                             storeObject(objectsMapping, object, currentCluster);
                         }
@@ -89,22 +184,31 @@ public class DynamicClusterTreeBuilder<D extends Distanceable<D>> extends Abstra
             }
         }
 
-        for (Map.Entry<D, Cluster<D>> entry : objectsMapping.entrySet()) {
-            final D object = entry.getKey();
-            final Cluster<D> currentCluster = entry.getValue();
-            final double distance = pivotDistanceTable.firstPivotDistance(object);
-            final double objectKey = currentCluster.getCalculatedIndex() + distance;
+        return changedLeafClusters;
+    }
 
+    /**
+     * @return {@code true} when key range of {@code cluster} was extended
+     */
+    private boolean insertKey(D object, Cluster<D> cluster) {
+        final double objectKey = objectKey(object, cluster);
 
-            if (logger.isDebugEnabled()) {
-                logger.debug("Inserting into B+Tree key: {}; obj: {}; cluster: {}", objectKey, object,
-                        currentCluster.getIndex());
-            }
 
-            btreemap.insert(objectKey, object);
-            currentCluster.setKey(objectKey);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Inserting into B+Tree key: {}; obj: {}; cluster: {}", objectKey, object,
+                    cluster.getIndex());
         }
 
+        btreemap.insert(objectKey, object);
+        final boolean extendedKeys = setKey(cluster, objectKey);
+        extendPivotBoxes(cluster, object);
+
+        return extendedKeys;
+    }
+
+    private double objectKey(D object, Cluster<D> cluster) {
+        final double distance = pivotDistanceTable.firstPivotDistance(object);
+        return cluster.getCalculatedIndex() + distance;
     }
 
     private Cluster<D> createAndStoreLeafSubCluster(Cluster<D> currentCluster, Pivot<D> pivot) {
@@ -132,12 +236,31 @@ public class DynamicClusterTreeBuilder<D extends Distanceable<D>> extends Abstra
             logger.debug("Replaced cluster: {} with internal cluster: {}", currentCluster, internalCluster);
         }
 
+        removeKeys(currentCluster);
         objectsDeque.addAll(currentCluster.getObjects());
         objectsDeque.add(object);
         parent.storeSubCluster(currentPivot, internalCluster);
+        getClusterStats().decrementCluster();
+    }
+
+    /**
+     * Removes keys of {@code cluster} objects which were already inserted into B+Tree
+     */
+    private void removeKeys(Cluster<D> cluster) {
+        if (cluster.getKeysCount() == 0) {
+            return;
+        }
+
+        for (D object : cluster.getObjects()) {
+            btreemap.remove(objectKey(object, cluster), object);
+        }
     }
 
     private boolean notAtLeafLevel(Cluster<D> cluster) {
-        return cluster.getLevel() != cluster.getMaxLevel();
+        return notAtLeafLevel(cluster.getLevel());
+    }
+
+    private boolean notAtLeafLevel(int level) {
+        return level != clusterRoot.getMaxLevel();
     }
 }
@@ -52,11 +52,12 @@ public class DynamicMIndex<D extends Distanceable<D>> extends MIndex<D> {
         calculateMaximumDistance();
         calculateDistances();
 
-        final ClusterTreeBuilder<D> builder = new DynamicClusterTreeBuilder<>(leafObjectsLimit, objects, clusterRoot,
-                                                                              pivotDistanceTable, btreemap);
+        clusterTreeBuilder = new DynamicClusterTreeBuilder<>(leafObjectsLimit, objects, clusterRoot,
+                                                             pivotDistanceTable, btreemap, btreeFillFactor);
 
-        builder.build();
-        clusterStats = builder.getClusterStats();
+        clusterTreeBuilder.build();
+        clusterStats = clusterTreeBuilder.getClusterStats();
+        finishBuild();
     }
 
 }
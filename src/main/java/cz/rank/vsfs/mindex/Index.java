@@ -96,6 +96,14 @@ public class Index {
         return indexes2LevelSet;
     }
 
+    /**
+     * @param level level of the cluster starting from 0
+     * @return index of the pivot used for {@code level}
+     */
+    public int pivotIndexAt(int level) {
+        return indexes.get(level);
+    }
+
     public int prevLevelIndex() {
         return indexes.get(level - 1);
     }
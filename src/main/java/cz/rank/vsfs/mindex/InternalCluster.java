@@ -31,9 +31,12 @@ import org.apache.commons.math3.util.FastMath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 @NotThreadSafe
@@ -42,9 +45,16 @@ public class InternalCluster<D extends Distanceable<D>> implements Cluster<D> {
     private final Index index;
     private final Cluster<D> parent;
     private final Map<Pivot<D>, Cluster<D>> subClustersMappedToPivots = new HashMap<>();
+    /**
+     * Same clusters as values of {@link #subClustersMappedToPivots}, so queries can iterate them by index
+     */
+    private final List<Cluster<D>> subClusters = new ArrayList<>();
     private final Collection<D> objects = new HashSet<>();
     private double keyMin = Double.MAX_VALUE;
     private double keyMax = Double.MIN_VALUE;
+    private int keysCount = 0;
+    private double[] pivotDistancesMin = null;
+    private double[] pivotDistancesMax = null;
 
     public InternalCluster(Cluster<D> parent, Index index) {
         this.parent = parent;
@@ -65,6 +75,21 @@ public class InternalCluster<D extends Distanceable<D>> implements Cluster<D> {
     public void setKey(double key) {
         setMinKey(key);
         setMaxKey(key);
+        keysCount++;
+    }
+
+    @Override
+    public boolean removeKey(double key) {
+        keysCount--;
+
+        return key <= keyMin || key >= keyMax;
+    }
+
+    @Override
+    public void clearKeys() {
+        keyMin = Double.MAX_VALUE;
+        keyMax = Double.MIN_VALUE;
+        keysCount = 0;
     }
 
     private void setMaxKey(double distance) {
@@ -82,7 +107,17 @@ public class InternalCluster<D extends Distanceable<D>> implements Cluster<D> {
 
     @Override
     public void storeSubCluster(Pivot<D> pivot, Cluster<D> cluster) {
-        subClustersMappedToPivots.put(pivot, cluster);
+        final Cluster<D> previousCluster = subClustersMappedToPivots.put(pivot, cluster);
+        if (previousCluster == null) {
+            subClusters.add(cluster);
+        } else {
+            subClusters.set(subClusters.indexOf(previousCluster), cluster);
+        }
+    }
+
+    @Override
+    public void removeSubCluster(Pivot<D> pivot) {
+        subClusters.remove(subClustersMappedToPivots.remove(pivot));
     }
 
     @Override
@@ -106,8 +141,8 @@ public class InternalCluster<D extends Distanceable<D>> implements Cluster<D> {
     }
 
     @Override
-    public Collection<Cluster<D>> getSubClusters() {
-        return subClustersMappedToPivots.values();
+    public List<Cluster<D>> getSubClusters() {
+        return subClusters;
     }
 
     @Override
@@ -125,6 +160,11 @@ public class InternalCluster<D extends Distanceable<D>> implements Cluster<D> {
         return keyMax;
     }
 
+    @Override
+    public int getKeysCount() {
+        return keysCount;
+    }
+
     @Override
     public void accept(ClusterVisitor<D> visitor) {
         visitor.enterInternalCluster(this);
@@ -145,6 +185,94 @@ public class InternalCluster<D extends Distanceable<D>> implements Cluster<D> {
         objects.add(object);
     }
 
+    @Override
+    public void removeObject(D object) {
+        objects.remove(object);
+    }
+
+    @Override
+    public void extendPivotBox(D object, PivotDistanceTable<D> pivotDistanceTable) {
+        final int pivotsSize = index.getMaxIndex();
+        createPivotBox(pivotsSize);
+
+        for (int i = 0; i < pivotsSize; i++) {
+            // Box covers exact distance even when the table returns distance with an error
+            final double distance = pivotDistanceTable.pivotDistance(object, i);
+            final double error = pivotDistanceTable.pivotDistanceError(i);
+            pivotDistancesMin[i] = FastMath.min(pivotDistancesMin[i], distance - error);
+            pivotDistancesMax[i] = FastMath.max(pivotDistancesMax[i], distance + error);
+        }
+    }
+
+    @Override
+    public void extendPivotBox(Cluster<D> cluster) {
+        final int pivotsSize = index.getMaxIndex();
+        // Cluster without objects has no pivot box
+        if (pivotsSize == 0 || Double.isInfinite(cluster.pivotBoxMax(0))) {
+            return;
+        }
+
+        createPivotBox(pivotsSize);
+
+        for (int i = 0; i < pivotsSize; i++) {
+            pivotDistancesMin[i] = FastMath.min(pivotDistancesMin[i], cluster.pivotBoxMin(i));
+            pivotDistancesMax[i] = FastMath.max(pivotDistancesMax[i], cluster.pivotBoxMax(i));
+        }
+    }
+
+    private void createPivotBox(int pivotsSize) {
+        if (pivotDistancesMin == null) {
+            pivotDistancesMin = new double[pivotsSize];
+            pivotDistancesMax = new double[pivotsSize];
+            Arrays.fill(pivotDistancesMin, Double.POSITIVE_INFINITY);
+            Arrays.fill(pivotDistancesMax, Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    /**
+     * Distance to any object differs from distance to pivot at most by distance of the object to the pivot, so
+     * the bound is the biggest gap between query pivot distance and the pivot box
+     */
+    @Override
+    public double pivotBoxLowerBound(double[] pivotDistances) {
+        if (pivotDistancesMin == null) {
+            return 0;
+        }
+
+        double lowerBound = 0;
+        for (int i = 0; i < pivotDistances.length; i++) {
+            final double distance = pivotDistances[i];
+            lowerBound = FastMath.max(lowerBound,
+                    FastMath.max(pivotDistancesMin[i] - distance, distance - pivotDistancesMax[i]));
+        }
+
+        return lowerBound;
+    }
+
+    @Override
+    public double pivotBoxUpperBound(double[] pivotDistances) {
+        if (pivotDistancesMax == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double upperBound = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < pivotDistances.length; i++) {
+            upperBound = FastMath.min(upperBound, pivotDistances[i] + pivotDistancesMax[i]);
+        }
+
+        return upperBound;
+    }
+
+    @Override
+    public double pivotBoxMin(int pivotIndex) {
+        return pivotDistancesMin == null ? 0 : pivotDistancesMin[pivotIndex];
+    }
+
+    @Override
+    public double pivotBoxMax(int pivotIndex) {
+        return pivotDistancesMax == null ? Double.POSITIVE_INFINITY : pivotDistancesMax[pivotIndex];
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
@@ -27,6 +27,8 @@
 package cz.rank.vsfs.mindex;
 
 import cz.rank.vsfs.btree.BPlusTreeMultiDoubleObjectMap;
+import gnu.trove.map.custom_hash.TObjectIntCustomHashMap;
+import gnu.trove.strategy.IdentityHashingStrategy;
 import org.apache.commons.math3.util.FastMath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,16 +36,20 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Queue;
 import java.util.Set;
 
 /**
  */
 public abstract class MIndex<D extends Distanceable<D>> {
     private static final Logger logger = LoggerFactory.getLogger(MIndex.class);
+    /**
+     * Maximum number of objects refined by single task of parallel query
+     */
+    static final int REFINEMENT_GRANULARITY = 1000;
     protected final int maxLevel;
     protected final List<Pivot<D>> pivots;
     protected final List<D> objects;
@@ -53,7 +59,35 @@ public abstract class MIndex<D extends Distanceable<D>> {
     protected double maximumDistance = Double.MIN_VALUE;
     protected PivotDistanceTable<D> pivotDistanceTable = null;
     protected ClusterStats clusterStats;
-    private QueryStats queryStats = new QueryStats();
+    /**
+     * Builder of the cluster tree which is kept for inserts after the index is built
+     */
+    protected ClusterTreeBuilder<D> clusterTreeBuilder = null;
+    protected double btreeFillFactor = BPlusTreeMultiDoubleObjectMap.DEFAULT_FILL_FACTOR;
+    private MaximumDistanceEstimator maximumDistanceEstimator = MaximumDistanceEstimator.EXACT;
+    private PivotDistanceStorage pivotDistanceStorage = PivotDistanceStorage.DENSE;
+    /**
+     * Errors of normalized distances of {@link #pivotDistanceTable} indexed by pivot index, which widen pivot
+     * filtering, so quantized distances don't filter out objects in range
+     */
+    private double[] pivotDistanceErrors;
+    private final ConcurrentQueryStats queryStats = new ConcurrentQueryStats();
+    /**
+     * Changed whenever objects are added or the index is built. Index is modified by single thread, so volatile is
+     * enough for readers.
+     */
+    private volatile long version = 0;
+    /**
+     * Leaf clusters whose key ranges overlap key ranges of other leaf clusters
+     */
+    private Set<Cluster<D>> leafClustersSharingKeys = Collections.emptySet();
+    /**
+     * Positions of objects in {@link #objects}, so deleted object is swapped with the last one instead of being
+     * searched. Created by the first delete and dropped when objects are added.
+     */
+    private TObjectIntCustomHashMap<D> objectPositions = null;
+    private QueryPlanner<D> queryPlanner;
+    private volatile QueryCostModel queryCostModel = null;
 
     protected MIndex(int maxLevel, int btreeLevel, List<Pivot<D>> pivots) {
         super();
@@ -114,14 +148,16 @@ public abstract class MIndex<D extends Distanceable<D>> {
 
     public void add(D object) {
         objects.add(object);
+        objectPositions = null;
+        incrementVersion();
     }
 
     public abstract void build();
 
     protected void calculateMaximumDistance() {
         if (maximumDistance == Double.MIN_VALUE) {
-            logger.info("Calculating maximum distance...");
-            maximumDistance = new MaximumDistance<>(objects).calculate();
+            logger.info("Calculating maximum distance by {}...", maximumDistanceEstimator);
+            maximumDistance = maximumDistanceEstimator.estimate(objects, pivots);
         }
 
         logger.info("Maximum distance is " + maximumDistance);
@@ -129,12 +165,58 @@ public abstract class MIndex<D extends Distanceable<D>> {
 
     protected void calculateDistances() {
         logger.info("Calculating pivots and objects distances...");
-        pivotDistanceTable = new ParallelPivotDistanceTable<>(maximumDistance, pivots, objects);
+        pivotDistanceTable = pivotDistanceStorage.create(maximumDistance, pivots, objects);
         pivotDistanceTable.calculate();
+        pivotDistanceErrors = new double[pivotsSize];
+        for (int i = 0; i < pivotsSize; i++) {
+            pivotDistanceErrors[i] = pivotDistanceTable.pivotDistanceError(i);
+        }
         logger.info("Finished calculation of pivots and objects distances...");
+        if (pivotDistanceTable instanceof QuantizedPivotDistanceTable) {
+            logger.info("Quantized pivot distances saved {} bytes",
+                    ((QuantizedPivotDistanceTable<D>) pivotDistanceTable).getSavedBytes());
+        }
+
+        queryPlanner = new QueryPlanner<>(new DistanceHistogram(objects, pivotsSize, pivotDistanceTable), clusterRoot,
+                objects, pivotsSize);
+        if (queryCostModel == null) {
+            queryCostModel = QueryCostModel.calibrate(objects, pivotsSize, pivotDistanceTable);
+        }
     }
 
+    /**
+     * Performs range query. Built index can be queried from multiple threads at once.
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @return found objects
+     */
     public Collection<D> rangeQuery(D queryObject, double range) {
+        return rangeQueryWithStats(queryObject, range).getObjects();
+    }
+
+    /**
+     * Performs range query and returns found objects together with statistics of the query. Statistics are also
+     * added to statistics of the index.
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @return found objects and statistics of the query
+     */
+    public QueryResult<D> rangeQueryWithStats(D queryObject, double range) {
+        return rangeQuery(queryObject, range, QueryDeadline.NONE);
+    }
+
+    /**
+     * Performs range query which is stopped when {@code deadline} expires. Stopped query returns objects found so
+     * far as incomplete result and its statistics show how many clusters and objects were processed.
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @param deadline    deadline of the query
+     * @return found objects and statistics of the query
+     */
+    public QueryResult<D> rangeQuery(D queryObject, double range, QueryDeadline deadline) {
         final double normalizedRange = range / maximumDistance;
 
         if (logger.isDebugEnabled()) {
@@ -142,7 +224,8 @@ public abstract class MIndex<D extends Distanceable<D>> {
                     "Querying objects which are in range: " + normalizedRange + " from object: " + queryObject);
         }
 
-        final ClusterRangeQuery clusterRangeQuery = new ClusterRangeQuery(queryObject, range, normalizedRange);
+        final ClusterRangeQuery<D> clusterRangeQuery = new ClusterRangeQuery<>(this, queryObject, range,
+                normalizedRange, deadline);
         Collection<D> foundObjects = clusterRangeQuery.performQuery();
         if (logger.isDebugEnabled()) {
             logger.debug(
@@ -150,197 +233,822 @@ public abstract class MIndex<D extends Distanceable<D>> {
                             .size());
         }
 
-        return foundObjects;
-    }
+        if (!clusterRangeQuery.complete) {
+            logger.info("Range query from object: {} stopped by deadline, found {} objects, {}", queryObject,
+                    foundObjects.size(), clusterRangeQuery.stats);
+        }
 
-    public void addAll(List<D> objects) {
-        this.objects.addAll(objects);
+        return new QueryResult<>(foundObjects, clusterRangeQuery.stats, clusterRangeQuery.complete);
     }
 
-    public String getTreeGraph() {
-        return btreemap.toGraph();
+    /**
+     * Performs range query which returns found objects with their distances from {@code queryObject}, so callers
+     * don't compute the distances again
+     */
+    List<ObjectDistance<D>> rangeQueryDistances(D queryObject, double range) {
+        return new ClusterRangeQuery<>(this, queryObject, range, range / maximumDistance, QueryDeadline.NONE)
+                .performDistanceQuery();
     }
 
-    public String getClusterGraph() {
-        final DotClusterVisitor<D> visitor = new DotClusterVisitor<>();
-        clusterRoot.accept(visitor);
-        return visitor.getGraphDefinition();
+    /**
+     * Estimates costs of range query strategies and chooses the cheapest one. Estimates are based on histogram of
+     * distances to pivots and sizes of clusters collected when the index was built.
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @return chosen strategy with estimates
+     */
+    public QueryPlan plan(D queryObject, double range) {
+        return queryPlanner.plan(pivotDistancesOf(queryObject, calculateDistanceFor(queryObject)),
+                range / maximumDistance, queryCostModel);
     }
 
-    public QueryStats getQueryStats() {
-        return queryStats;
+    /**
+     * Performs range query by strategy chosen by {@link #plan(Distanceable, double)}
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @return found objects and statistics of the query
+     */
+    public QueryResult<D> plannedRangeQuery(D queryObject, double range) {
+        return rangeQuery(queryObject, range, plan(queryObject, range).getStrategy());
     }
 
-    public ClusterStats getClusterStats() {
-        return clusterStats;
+    /**
+     * Performs range query by {@code strategy}
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @param strategy    strategy of the query
+     * @return found objects and statistics of the query
+     */
+    public QueryResult<D> rangeQuery(D queryObject, double range, QueryStrategy strategy) {
+        switch (strategy) {
+            case INDEX:
+                return rangeQueryWithStats(queryObject, range);
+            case PIVOT_FILTER_SCAN:
+                return pivotFilterScan(queryObject, range);
+            default:
+                return sequentialScan(queryObject, range);
+        }
     }
 
-    public List<D> getObjects() {
-        return objects;
+    /**
+     * Plans and performs range query, so estimated and actual costs of the query can be compared
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @return plan of the query with its actual cost
+     */
+    public QueryExplanation explain(D queryObject, double range) {
+        final QueryPlan plan = plan(queryObject, range);
+        final long start = System.nanoTime();
+        final QueryResult<D> result = rangeQuery(queryObject, range, plan.getStrategy());
+        final long elapsedNanos = System.nanoTime() - start;
+
+        final QueryExplanation explanation = new QueryExplanation(plan, result.getObjects().size(),
+                result.getQueryStats(), queryPlanner.actualCost(plan.getStrategy(), result.getQueryStats(),
+                queryCostModel), elapsedNanos);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Explained range query from object: {}, {}", queryObject, explanation);
+        }
+
+        return explanation;
     }
 
-    private class ClusterRangeQuery implements ClusterVisitor<D> {
-        private final Collection<D> foundObjects = new HashSet<>();
-        private final D queryObject;
-        private final double range;
-        private final double normalizedRange;
-        private final Queue<Cluster<D>> clusterQueue = new LinkedList<>();
-        private final PivotDistanceTable<D> queryObjectPivotDistance;
-        private final double firstPivotDistance;
+    /**
+     * Sets part of B+Tree nodes which is filled by keys of objects when the index is built. Lower fill factor
+     * leaves space for objects which are inserted later.
+     *
+     * @param btreeFillFactor fill factor from {@code (0, 1>}
+     */
+    public void setBtreeFillFactor(double btreeFillFactor) {
+        if (btreeFillFactor <= 0 || btreeFillFactor > 1) {
+            throw new IllegalArgumentException(
+                    "B+Tree fill factor must be greater than 0 and at most 1. Current: " + btreeFillFactor);
+        }
+
+        this.btreeFillFactor = btreeFillFactor;
+    }
 
-        private ClusterRangeQuery(D queryObject, double range, double normalizedRange) {
-            this.queryObject = queryObject;
-            this.range = range;
-            this.normalizedRange = normalizedRange;
-            queryObjectPivotDistance = calculateDistanceFor(queryObject);
-            firstPivotDistance = queryObjectPivotDistance.firstPivotDistance(queryObject);
+    public double getBtreeFillFactor() {
+        return btreeFillFactor;
+    }
 
+    /**
+     * Sets how maximum distance is obtained when the index is built without given maximum distance. Default is
+     * {@link MaximumDistanceEstimator#EXACT}, which computes distances of all pairs of objects.
+     */
+    public void setMaximumDistanceEstimator(MaximumDistanceEstimator maximumDistanceEstimator) {
+        if (maximumDistanceEstimator == null) {
+            throw new NullPointerException("Maximum distance estimator cannot be null");
         }
 
-        @Override
-        public void enterInternalCluster(InternalCluster<D> internalCluster) {
-            clusterQueue.addAll(internalCluster.getSubClusters());
+        this.maximumDistanceEstimator = maximumDistanceEstimator;
+    }
+
+    public MaximumDistanceEstimator getMaximumDistanceEstimator() {
+        return maximumDistanceEstimator;
+    }
+
+    /**
+     * Sets how distances of objects to pivots are stored when the index is built. Default is
+     * {@link PivotDistanceStorage#DENSE}, which keeps exact distances.
+     */
+    public void setPivotDistanceStorage(PivotDistanceStorage pivotDistanceStorage) {
+        if (pivotDistanceStorage == null) {
+            throw new NullPointerException("Pivot distance storage cannot be null");
         }
 
-        @Override
-        public void enterLeafCluster(LeafCluster<D> leafCluster) {
-            final double keyMin = leafCluster.getKeyMin();
-            final double keyMax = leafCluster.getKeyMax();
-            final double rMin = frac(keyMin);
-            final double rMax = frac(keyMax);
+        this.pivotDistanceStorage = pivotDistanceStorage;
+    }
 
-            if (rangePivotDistanceConstraint(normalizedRange, rMin, rMax, firstPivotDistance)) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Skipping cluster due rangePivotDistanceConstraint: {}", leafCluster);
-                }
+    public PivotDistanceStorage getPivotDistanceStorage() {
+        return pivotDistanceStorage;
+    }
+
+    /**
+     * Sets costs used by query planner instead of costs measured when the index is built
+     */
+    public void setQueryCostModel(QueryCostModel queryCostModel) {
+        this.queryCostModel = queryCostModel;
+    }
 
-                queryStats.incrementRangePivotDistanceFilter();
-                return;
+    public QueryCostModel getQueryCostModel() {
+        return queryCostModel;
+    }
+
+    private QueryResult<D> sequentialScan(D queryObject, double range) {
+        final QueryStats stats = new QueryStats();
+        final List<D> foundObjects = new ArrayList<>();
+        for (D object : objects) {
+            stats.incrementCandidates();
+            if (boundedDistance(queryObject, object, range) <= range) {
+                foundObjects.add(object);
+            } else {
+                stats.incrementObjectFilter();
             }
+        }
+        queryStats.add(stats);
+
+        return new QueryResult<D>(foundObjects, stats);
+    }
 
-            final List<D> objects = rangeSearchForObjects(keyMin);
-            filterObjectsFromRangeSearch(objects);
+    private QueryResult<D> pivotFilterScan(D queryObject, double range) {
+        final double normalizedRange = range / maximumDistance;
+        final double[] queryPivotDistances = pivotDistancesOf(queryObject, calculateDistanceFor(queryObject));
+        final int[] pivotFilterOrder = PivotPermutations.filterOrder(queryPivotDistances);
+        final QueryStats stats = new QueryStats();
+        final List<D> foundObjects = new ArrayList<>();
+        for (D object : objects) {
+            stats.incrementCandidates();
+            if (pivotShouldBeFiltered(object, queryPivotDistances, pivotFilterOrder, normalizedRange, stats)) {
+                stats.incrementPivotFilter();
+            } else if (boundedDistance(queryObject, object, range) <= range) {
+                foundObjects.add(object);
+            } else {
+                stats.incrementObjectFilter();
+            }
         }
+        queryStats.add(stats);
 
-        private void filterObjectsFromRangeSearch(List<D> objects) {
-            for (D object : objects) {
-                if (pivotShouldBeFiltered(object, queryObject, queryObjectPivotDistance, normalizedRange)) {
-                    queryStats.incrementPivotFilter();
+        return new QueryResult<D>(foundObjects, stats);
+    }
 
-                    continue;
-                }
+    /**
+     * Counts objects which are in {@code range} from {@code queryObject}. Objects of leaf clusters which are whole
+     * inside of the range and objects whose pivot distances prove they are in the range are counted without
+     * computing their distance to the query object.
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @return number of objects in range
+     */
+    public int rangeCount(D queryObject, double range) {
+        final double normalizedRange = range / maximumDistance;
 
-                if (isObjectInRange(object, queryObject, range)) {
-                    foundObjects.add(object);
-                } else {
-                    queryStats.incrementObjectFilter();
-                }
-            }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Counting objects which are in range: " + normalizedRange + " from object: " + queryObject);
         }
 
-        private List<D> rangeSearchForObjects(double keyMin) {
-            final double keyMinFloor = FastMath.floor(keyMin);
-            final List<D> objects = btreemap
-                    .rangeSearch(keyMinFloor + firstPivotDistance - normalizedRange,
-                            keyMinFloor + firstPivotDistance + normalizedRange);
+        return new ClusterRangeCountQuery<>(this, queryObject, range, normalizedRange).performQuery();
+    }
 
-            if (logger.isDebugEnabled()) {
-                logger.debug("Range search from {} to {} returned {} objects",
-                        keyMinFloor + firstPivotDistance - normalizedRange,
-                        keyMinFloor + firstPivotDistance + normalizedRange, objects.size());
-            }
+    /**
+     * Creates context for {@link #rangeQuery(Distanceable, double, QueryContext, Collection)}. Context should be
+     * created once per thread and reused for all its queries.
+     *
+     * @return new query context bound to this index
+     */
+    public QueryContext<D> createQueryContext() {
+        return new ReusableClusterRangeQuery<>(this);
+    }
 
-            return objects;
+    /**
+     * Performs range query using state of reusable {@code context}. Apart from growing {@code result} and the
+     * context on first queries, the query doesn't allocate any objects.
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @param context     context created by {@link #createQueryContext()} of this index
+     * @param result      collection where found objects are added
+     */
+    public void rangeQuery(D queryObject, double range, QueryContext<D> context, Collection<? super D> result) {
+        if (context.getIndex() != this) {
+            throw new IllegalArgumentException("Query context was created by another index: " + context.getIndex());
         }
 
-        public Collection<D> performQuery() {
-            clusterQueue.addAll(clusterRoot.getSubClusters());
-            while (!clusterQueue.isEmpty()) {
-                final Cluster<D> cluster = clusterQueue.poll();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Querying objects which are in range: {} from object: {} using context", range, queryObject);
+        }
 
-                if (doublePivotDistanceConstraint(cluster, queryObjectPivotDistance, queryObject, normalizedRange)) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Skipping cluster due doublePivotDistanceConstraint: {}", cluster);
-                    }
+        context.rangeQuery(queryObject, range, result);
+    }
 
-                    queryStats.incrementDoublePivotDistanceFilter();
-                    continue;
-                }
+    /**
+     * Performs range query lazily. Objects are returned as soon as leaf cluster which contains them is refined, so
+     * the query can be stopped by closing the iterator without traversing the whole cluster tree.
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @return iterator over found objects
+     */
+    public CloseableIterator<D> rangeQueryIterator(D queryObject, double range) {
+        final double normalizedRange = range / maximumDistance;
 
-                cluster.accept(this);
-            }
+        if (logger.isDebugEnabled()) {
+            logger.debug(
+                    "Lazily querying objects which are in range: " + normalizedRange + " from object: " + queryObject);
+        }
+
+        return new ClusterRangeQueryIterator<>(this, queryObject, range, normalizedRange);
+    }
+
+    /**
+     * Performs range query whose cluster tree traversal and refinement of candidates are split into fork/join tasks
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @return found objects
+     */
+    public Collection<D> parallelRangeQuery(D queryObject, double range) {
+        final double normalizedRange = range / maximumDistance;
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(
+                    "Querying in parallel objects which are in range: " + normalizedRange + " from object: " + queryObject);
+        }
+
+        return new ParallelClusterRangeQuery<>(this, queryObject, range, normalizedRange).performQuery();
+    }
 
-            return foundObjects;
+    /**
+     * Finds {@code k} nearest objects to {@code queryObject}
+     *
+     * @param queryObject query object
+     * @param k           number of nearest objects
+     * @return at most {@code k} objects with their distances sorted from the nearest one
+     */
+    public List<ObjectDistance<D>> kNearest(D queryObject, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Number of nearest objects must be greater than 0. Current: " + k);
         }
 
-        private PivotDistanceTable<D> calculateDistanceFor(D queryObject) {
-            final PivotDistanceTable<D> queryObjectPivotDistance = new SimplePivotDistanceTable<>(maximumDistance,
-                    pivots,
-                    Arrays.asList(
-                            queryObject));
-            queryObjectPivotDistance.calculate();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Querying {} nearest objects from object: {}", k, queryObject);
+        }
 
-            return queryObjectPivotDistance;
+        return new ClusterKNearestQuery<>(this, queryObject, k, QueryDeadline.NONE).performQuery();
+    }
 
+    /**
+     * Finds {@code k} nearest objects to {@code queryObject}. Query is stopped when {@code deadline} expires and
+     * nearest objects found so far are returned as incomplete result.
+     *
+     * @param queryObject query object
+     * @param k           number of nearest objects
+     * @param deadline    deadline of the query
+     * @return at most {@code k} objects with their distances sorted from the nearest one and statistics of the query
+     */
+    public QueryResult<ObjectDistance<D>> kNearest(D queryObject, int k, QueryDeadline deadline) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Number of nearest objects must be greater than 0. Current: " + k);
         }
 
-        private boolean isObjectInRange(D object, D queryObject, double range) {
-            return queryObject.distance(object) <= range;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Querying {} nearest objects from object: {}", k, queryObject);
         }
 
-        private boolean pivotShouldBeFiltered(D object, D queryObject, PivotDistanceTable<D> queryObjectPivotDistance, double normalizedRange) {
-            double maxDistance = 0;
-            boolean shouldBeFiltered = false;
-            for (int i = 0; i < pivotsSize && !shouldBeFiltered; ++i) {
-                maxDistance = FastMath.max(maxDistance, FastMath.abs(
-                        queryObjectPivotDistance.pivotDistance(queryObject, i) - pivotDistanceTable
-                                .pivotDistance(object, i)));
-                shouldBeFiltered = maxDistance > normalizedRange;
-            }
+        final ClusterKNearestQuery<D> kNearestQuery = new ClusterKNearestQuery<>(this, queryObject, k, deadline);
+        final List<ObjectDistance<D>> nearestObjects = kNearestQuery.performQuery();
+
+        return new QueryResult<>(nearestObjects, kNearestQuery.stats, kNearestQuery.complete);
+    }
+
+    /**
+     * Finds approximately {@code k} nearest objects to {@code queryObject}.
+     * <p/>
+     * Leaf clusters are visited in order of their promise, i.e. how long prefix of their index matches
+     * pivot permutation of the query object and then how close are their keys to the query object key. Search stops
+     * as soon as one of the limits is reached.
+     *
+     * @param queryObject            query object
+     * @param k                      number of nearest objects
+     * @param maxCandidates          maximum number of objects taken from B+Tree
+     * @param maxDistanceEvaluations maximum number of distances computed between query object and candidates
+     * @return at most {@code k} objects with their distances sorted from the nearest one
+     */
+    public List<ObjectDistance<D>> approximateKNearest(D queryObject, int k, int maxCandidates, int maxDistanceEvaluations) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Number of nearest objects must be greater than 0. Current: " + k);
+        }
+
+        if (maxCandidates < 1 || maxDistanceEvaluations < 1) {
+            throw new IllegalArgumentException(
+                    "Search limits must be greater than 0. Current candidates: " + maxCandidates + ", distance evaluations: " + maxDistanceEvaluations);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Querying approximately {} nearest objects from object: {}", k, queryObject);
+        }
+
+        return new ApproximateClusterKNearestQuery<>(this, queryObject, k, maxCandidates, maxDistanceEvaluations)
+                .performQuery();
+    }
+
+    /**
+     * Performs range query for all {@code queryObjects} at once. Each cluster is traversed only once for all query
+     * objects and B+Tree is searched once for all query objects whose key ranges overlap in a leaf cluster.
+     *
+     * @param queryObjects query objects
+     * @param range        range of the query
+     * @return found objects for each query object in the same order as {@code queryObjects}
+     */
+    public List<Collection<D>> rangeQueryBatch(List<D> queryObjects, double range) {
+        final double normalizedRange = range / maximumDistance;
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Querying objects which are in range: " + normalizedRange + " from " + queryObjects
+                    .size() + " objects");
+        }
+
+        return new ClusterBatchRangeQuery<>(this, queryObjects, range, normalizedRange).performQuery();
+    }
+
+    /**
+     * Finds all pairs of indexed objects which are in {@code range} from each other. Pairs of clusters are
+     * traversed in parallel and pairs whose pivot boxes are farther than {@code range} are skipped, so every pair is
+     * evaluated at most once.
+     *
+     * @param range maximal distance of objects in pair
+     * @return each pair of objects in range once
+     */
+    public List<ObjectPair<D>> similarityJoin(double range) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Joining objects which are in range: {}", range);
+        }
+
+        return new ClusterSimilarityJoin<>(this, this, range).performJoin();
+    }
+
+    /**
+     * Finds all pairs of objects of this and {@code index} which are in {@code range} from each other. Both indexes
+     * must be built with the same pivots, so their pivot boxes can be compared.
+     *
+     * @param index joined index
+     * @param range maximal distance of objects in pair
+     * @return pairs of objects in range with object of this index first
+     */
+    public List<ObjectPair<D>> similarityJoin(MIndex<D> index, double range) {
+        checkJoinedIndex(index);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Joining objects which are in range: {} with index: {}", range, index);
+        }
+
+        return new ClusterSimilarityJoin<>(this, index, range).performJoin();
+    }
+
+    /**
+     * Finds all pairs of indexed objects and {@code objects} which are in {@code range} from each other. Range query
+     * is performed in parallel for every object.
+     *
+     * @param objects joined objects
+     * @param range   maximal distance of objects in pair
+     * @return pairs of objects in range with indexed object first
+     */
+    public List<ObjectPair<D>> similarityJoin(List<D> objects, double range) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Joining objects which are in range: {} with {} objects", range, objects.size());
+        }
+
+        return SharedPool.get().invoke(new ObjectsJoinTask<>(this, objects, range));
+    }
+
+    private void checkJoinedIndex(MIndex<D> index) {
+        boolean samePivots = index.pivotsSize == pivotsSize;
+        for (int i = 0; samePivots && i < pivotsSize; i++) {
+            samePivots = pivots.get(i).getObject().equals(index.pivots.get(i).getObject());
+        }
+
+        if (!samePivots) {
+            throw new IllegalArgumentException(
+                    "Joined index must be built with the same pivots. Current pivots: " + index.pivots);
+        }
+    }
+
+    /**
+     * Inserts {@code object} into built index without rebuilding it. Distances to pivots are normalized by maximum
+     * distance of the built index, so the object has to be closer to its nearest pivot than maximum distance.
+     * Objects mustn't be inserted while the index is queried.
+     *
+     * @param object inserted object
+     * @throws IllegalStateException    when the index isn't built
+     * @throws IllegalArgumentException when the object isn't closer to its nearest pivot than maximum distance
+     */
+    public void insert(D object) {
+        doCheckBuilt();
+        addPivotDistances(object);
+        insertIntoClusterTree(object);
+    }
+
+    /**
+     * Deletes {@code object} from built index. Objects mustn't be deleted while the index is queried.
+     *
+     * @param object deleted object
+     * @return {@code true} when the object was indexed
+     * @throws IllegalStateException when the index isn't built
+     */
+    public boolean delete(D object) {
+        doCheckBuilt();
+        if (!pivotDistanceTable.contains(object)) {
+            return false;
+        }
+
+        deleteFromClusterTree(object);
+        return true;
+    }
+
+    /**
+     * Replaces {@code oldObject} with {@code newObject} in built index. Index isn't changed when {@code newObject}
+     * can't be inserted.
+     *
+     * @param oldObject deleted object
+     * @param newObject inserted object which has to be another instance than {@code oldObject}
+     * @return {@code true} when the old object was indexed and was replaced
+     * @throws IllegalStateException    when the index isn't built
+     * @throws IllegalArgumentException when the new object isn't closer to its nearest pivot than maximum distance
+     *                                  or it is the same instance as the old object
+     */
+    public boolean update(D oldObject, D newObject) {
+        doCheckBuilt();
+        if (oldObject == newObject) {
+            throw new IllegalArgumentException("New object must be another instance than the old object");
+        }
+        if (!pivotDistanceTable.contains(oldObject)) {
+            return false;
+        }
+
+        addPivotDistances(newObject);
+        deleteFromClusterTree(oldObject);
+        insertIntoClusterTree(newObject);
+        return true;
+    }
+
+    private void doCheckBuilt() {
+        if (clusterTreeBuilder == null) {
+            throw new IllegalStateException("Index has to be built before objects are inserted or deleted");
+        }
+    }
 
-            return shouldBeFiltered;
+    private void addPivotDistances(D object) {
+        pivotDistanceTable.add(object);
+        final double firstPivotDistance = pivotDistanceTable.firstPivotDistance(object);
+        if (firstPivotDistance >= 1) {
+            pivotDistanceTable.remove(object);
+            throw new IllegalArgumentException(
+                    "Distance to the nearest pivot must be lower than maximum distance: " + maximumDistance +
+                            ". Current: " + firstPivotDistance * maximumDistance);
         }
+    }
 
-        private boolean rangePivotDistanceConstraint(double range, double rMin, double rMax, double distance) {
-            return distance + range < rMin || distance - range > rMax;
+    private void insertIntoClusterTree(D object) {
+        if (objectPositions != null) {
+            objectPositions.put(object, objects.size());
         }
+        objects.add(object);
+        if (clusterTreeBuilder.insert(object)) {
+            updateLeafClustersSharingKeys();
+        }
+        incrementVersion();
+    }
 
-        private boolean doublePivotDistanceConstraint(Cluster<D> node, PivotDistanceTable<D> queryObjectPivotDistance, D queryObject, double range) {
-            final int currentLevel = node.getLevel();
+    /**
+     * @throws IllegalStateException when the object has pivot distances, but it isn't in the cluster tree
+     */
+    private void deleteFromClusterTree(D object) {
+        final ClusterTreeRemoval removal = clusterTreeBuilder.remove(object);
+        if (removal == ClusterTreeRemoval.NOT_FOUND) {
+            throw new IllegalStateException("Indexed object wasn't found in the cluster tree: " + object);
+        }
+        if (removal == ClusterTreeRemoval.REMOVED_LEAF_CLUSTER) {
+            updateLeafClustersSharingKeys();
+        }
+        removeObject(object);
+        pivotDistanceTable.remove(object);
+        incrementVersion();
+    }
+
+    /**
+     * Moves the last object to position of removed {@code object}, so the list isn't searched nor shifted
+     */
+    private void removeObject(D object) {
+        if (objectPositions == null) {
+            objectPositions = new TObjectIntCustomHashMap<>(IdentityHashingStrategy.INSTANCE, objects.size(),
+                    0.5f, -1);
+            for (int i = 0; i < objects.size(); i++) {
+                objectPositions.put(objects.get(i), i);
+            }
+        }
+
+        final int position = objectPositions.remove(object);
+        if (position < 0) {
+            throw new IllegalStateException("Indexed object wasn't found in objects of the index: " + object);
+        }
 
-            return currentLevel > 0 && doDoublePivotDistanceConstraint(node, queryObjectPivotDistance, queryObject,
-                    range);
+        final D lastObject = objects.remove(objects.size() - 1);
+        if (position < objects.size()) {
+            objects.set(position, lastObject);
+            objectPositions.put(lastObject, position);
         }
+    }
+
+    public void addAll(List<D> objects) {
+        this.objects.addAll(objects);
+        objectPositions = null;
+        incrementVersion();
+    }
+
+    /**
+     * @return version of the index which is changed whenever objects are added, inserted or deleted or the index is
+     *         built
+     */
+    public long getVersion() {
+        return version;
+    }
 
-        private boolean doDoublePivotDistanceConstraint(Cluster<D> node, PivotDistanceTable<D> queryObjectPivotDistance, D queryObject, double range) {
-            final int parentIndex = node.parentIndex();
-            final double currentLevelDistance = queryObjectPivotDistance
-                    .pivotDistance(queryObject, parentIndex);
-            final double smallestDistance = nearestNonConflictingPivot(queryObject, node, queryObjectPivotDistance);
-            return (currentLevelDistance - smallestDistance > 2 * range);
+    protected void incrementVersion() {
+        version++;
+    }
+
+    /**
+     * Has to be called by {@link #build()} when cluster tree is built
+     */
+    protected void finishBuild() {
+        updateLeafClustersSharingKeys();
+        incrementVersion();
+    }
+
+    /**
+     * Leaf clusters sharing keys can exist only when leaf clusters are on different levels, otherwise their
+     * calculated indexes differ and so do their keys
+     *
+     * @return {@code false} when leaf clusters of the index never share keys
+     */
+    protected boolean leafClustersMayShareKeys() {
+        return true;
+    }
+
+    private void updateLeafClustersSharingKeys() {
+        if (leafClustersMayShareKeys()) {
+            leafClustersSharingKeys = findLeafClustersSharingKeys();
         }
+    }
 
-        private double nearestNonConflictingPivot(D queryObject, Cluster<D> node, PivotDistanceTable<D> queryObjectPivotDistance) {
-            final int currentLevel = node.getLevel();
+    /**
+     * Sorts leaf clusters by their lowest key and collects groups of clusters whose key ranges overlap
+     */
+    private Set<Cluster<D>> findLeafClustersSharingKeys() {
+        final List<Cluster<D>> leafClusters = new ArrayList<>();
+        clusterRoot.accept(new ClusterVisitor<D>() {
+            @Override
+            public void enterInternalCluster(InternalCluster<D> internalCluster) {
+                for (Cluster<D> subCluster : internalCluster.getSubClusters()) {
+                    subCluster.accept(this);
+                }
+            }
 
-            if (currentLevel < 2) {
-                return queryObjectPivotDistance.firstPivotDistance(queryObject);
+            @Override
+            public void enterLeafCluster(LeafCluster<D> leafCluster) {
+                leafClusters.add(leafCluster);
             }
+        });
 
-            final Set<Integer> indexes2Level = node.getIndex().indexes2LevelAsSet();
-            for (int i = 0; i < pivotsSize; i++) {
-                Pivot<D> pivot = queryObjectPivotDistance.pivotAt(queryObject, i);
-                if (!indexes2Level.contains(pivot.getIndex())) {
-                    return queryObjectPivotDistance.distanceAt(queryObject, i);
+        Collections.sort(leafClusters, new Comparator<Cluster<D>>() {
+            @Override
+            public int compare(Cluster<D> cluster1, Cluster<D> cluster2) {
+                return Double.compare(cluster1.getKeyMin(), cluster2.getKeyMin());
+            }
+        });
+
+        final Set<Cluster<D>> clustersSharingKeys = Collections.newSetFromMap(
+                new IdentityHashMap<Cluster<D>, Boolean>());
+        int groupStart = 0;
+        double groupKeyMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i <= leafClusters.size(); i++) {
+            if (i == leafClusters.size() || leafClusters.get(i).getKeyMin() > groupKeyMax) {
+                if (i - groupStart > 1) {
+                    clustersSharingKeys.addAll(leafClusters.subList(groupStart, i));
                 }
+                groupStart = i;
+            }
+
+            if (i < leafClusters.size()) {
+                groupKeyMax = FastMath.max(groupKeyMax, leafClusters.get(i).getKeyMax());
             }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Found {} leaf clusters sharing keys out of {}", clustersSharingKeys.size(),
+                    leafClusters.size());
+        }
 
+        return clustersSharingKeys;
+    }
+
+    public String getTreeGraph() {
+        return btreemap.toGraph();
+    }
+
+    public String getClusterGraph() {
+        final DotClusterVisitor<D> visitor = new DotClusterVisitor<>();
+        clusterRoot.accept(visitor);
+        return visitor.getGraphDefinition();
+    }
+
+    /**
+     * @return statistics of all finished queries summed at the time of the call
+     */
+    public QueryStats getQueryStats() {
+        final QueryStats stats = queryStats.snapshot();
+        if (pivotDistanceTable instanceof QuantizedPivotDistanceTable) {
+            stats.setPivotDistanceSavedBytes(((QuantizedPivotDistanceTable<D>) pivotDistanceTable).getSavedBytes());
+        }
+
+        return stats;
+    }
+
+    /**
+     * Adds statistics of finished query to statistics of the index
+     */
+    void addQueryStats(QueryStats stats) {
+        queryStats.add(stats);
+    }
+
+    public ClusterStats getClusterStats() {
+        return clusterStats;
+    }
+
+    public List<D> getObjects() {
+        return objects;
+    }
+
+    PivotDistanceTable<D> calculateDistanceFor(D queryObject) {
+        return calculateDistanceFor(Arrays.asList(queryObject));
+    }
+
+    PivotDistanceTable<D> calculateDistanceFor(List<D> queryObjects) {
+        final PivotDistanceTable<D> queryObjectPivotDistance = new DensePivotDistanceTable<>(maximumDistance,
+                pivots,
+                queryObjects);
+        queryObjectPivotDistance.calculate();
+
+        return queryObjectPivotDistance;
+
+    }
+
+    /**
+     * @return normalized distances of {@code queryObject} to pivots indexed by pivot index
+     */
+    double[] pivotDistancesOf(D queryObject, PivotDistanceTable<D> queryObjectPivotDistance) {
+        final double[] pivotDistances = new double[pivotsSize];
+        for (int i = 0; i < pivotsSize; ++i) {
+            pivotDistances[i] = queryObjectPivotDistance.pivotDistance(queryObject, i);
+        }
+
+        return pivotDistances;
+    }
+
+    /**
+     * Checks pivots in {@code pivotFilterOrder} until one of them proves that {@code object} is out of range. Range
+     * is widened by error of pivot distances, so objects in range are never filtered out.
+     *
+     * @param queryPivotDistances normalized distances of query object to pivots indexed by pivot index
+     * @param pivotFilterOrder    pivot indexes in order they are checked
+     * @param stats               statistics where checked pivots are counted
+     */
+    boolean pivotShouldBeFiltered(D object, double[] queryPivotDistances, int[] pivotFilterOrder, double normalizedRange, QueryStats stats) {
+        stats.incrementPivotFilterObjects();
+        boolean keptByError = false;
+        for (int i = 0; i < pivotsSize; ++i) {
+            final int pivotIndex = pivotFilterOrder[i];
+            final double difference = FastMath.abs(queryPivotDistances[pivotIndex] - pivotDistanceTable
+                    .pivotDistance(object, pivotIndex));
+            if (difference > normalizedRange + pivotDistanceErrors[pivotIndex]) {
+                stats.addPivotFilterChecks(i + 1);
+                return true;
+            }
+            keptByError |= difference > normalizedRange;
+        }
+        stats.addPivotFilterChecks(pivotsSize);
+        if (keptByError) {
+            stats.incrementPivotFilterErrorMisses();
+        }
+
+        return false;
+    }
+
+    /**
+     * @return error of normalized distances to pivot with {@code pivotIndex} stored in pivot distance table
+     */
+    double pivotDistanceError(int pivotIndex) {
+        return pivotDistanceErrors[pivotIndex];
+    }
+
+    /**
+     * Uses {@link BoundedDistanceable} when query object implements it, so computation of distance of far objects
+     * can be stopped early
+     *
+     * @return exact distance when it isn't greater than {@code bound}, otherwise any distance greater than bound
+     */
+    @SuppressWarnings("unchecked")
+    double boundedDistance(D queryObject, D object, double bound) {
+        if (queryObject instanceof BoundedDistanceable) {
+            return ((BoundedDistanceable<D>) queryObject).distance(object, bound);
+        }
+
+        return queryObject.distance(object);
+    }
+
+    boolean rangePivotDistanceConstraint(double range, double rMin, double rMax, double distance) {
+        return distance + range < rMin || distance - range > rMax;
+    }
+
+    /**
+     * Lower bound of normalized distance between query object and any object in {@code node} which is derived
+     * from the double pivot distance constraint
+     */
+    double doublePivotLowerBound(Cluster<D> node, PivotDistanceTable<D> queryObjectPivotDistance, D queryObject) {
+        if (node.getLevel() == 0) {
             return 0;
         }
 
-        private double frac(double x) {
-            return x - FastMath.floor(x);
+        final int parentIndex = node.parentIndex();
+        final double currentLevelDistance = queryObjectPivotDistance
+                .pivotDistance(queryObject, parentIndex);
+        final double smallestDistance = nearestNonConflictingPivot(queryObject, node, queryObjectPivotDistance);
+        return (currentLevelDistance - smallestDistance) / 2;
+    }
+
+    private double nearestNonConflictingPivot(D queryObject, Cluster<D> node, PivotDistanceTable<D> queryObjectPivotDistance) {
+        final int currentLevel = node.getLevel();
+
+        if (currentLevel < 2) {
+            return queryObjectPivotDistance.firstPivotDistance(queryObject);
+        }
+
+        final Set<Integer> indexes2Level = node.getIndex().indexes2LevelAsSet();
+        for (int i = 0; i < pivotsSize; i++) {
+            Pivot<D> pivot = queryObjectPivotDistance.pivotAt(queryObject, i);
+            if (!indexes2Level.contains(pivot.getIndex())) {
+                return queryObjectPivotDistance.distanceAt(queryObject, i);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Leaf clusters of {@link DynamicMIndex} on different levels may share keys, so objects found by range search
+     * in keys of such cluster are checked against pivot permutation of the cluster
+     */
+    boolean belongsToCluster(D object, Cluster<D> cluster) {
+        if (leafClustersSharingKeys.isEmpty() || !leafClustersSharingKeys.contains(cluster)) {
+            return true;
         }
 
+        final Index index = cluster.getIndex();
+        final int level = index.getLevel();
+        for (int i = 0; i < level; i++) {
+            if (pivotDistanceTable.pivotAt(object, i).getIndex() != index.pivotIndexAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static double frac(double x) {
+        return x - FastMath.floor(x);
     }
 }
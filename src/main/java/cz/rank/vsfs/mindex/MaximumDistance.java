@@ -30,18 +30,21 @@ import org.apache.commons.math3.util.FastMath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Calculates maximum distance between distanceable objects
  * <p/>
- * Uses divide and conquer to split work between several cores
+ * Uses divide and conquer to split work between several cores. Besides exact calculation of all pairwise distances
+ * the maximum can be bounded or estimated from distances to pivots in linear time, see
+ * {@link MaximumDistanceEstimator}.
  *
  * @author Karel Rank
  */
@@ -50,98 +53,554 @@ public class MaximumDistance<D extends Distanceable<D>> {
      * Amount of computation done by each solver
      */
     public static final int SOLVER_GRANULARITY = 10000;
+    /**
+     * Count of objects sampled for the initial far pair
+     */
+    private static final int FAR_PAIR_SAMPLE_SIZE = 1000;
+    /**
+     * Maximal count of sweeps over all objects which refine the far pair
+     */
+    private static final int FAR_PAIR_SWEEPS = 4;
+    /**
+     * Sample is always the same, so the estimate doesn't change between builds of the same objects
+     */
+    private static final long FAR_PAIR_SAMPLE_SEED = 0x5DEECE66DL;
+    /**
+     * Maximal count of pivots whose distances are kept for pruning of pairs
+     */
+    private static final int PRUNING_PIVOTS_LIMIT = 16;
+    /**
+     * Pairs checked by pivots before pruning is turned off when it skips less than tenth of them
+     */
+    private static final int PAIR_BOUNDS_SAMPLE = 100000;
+    /**
+     * Count of objects in one side of a tile of compared pairs
+     */
+    private static final int TILE_SIZE = 256;
     private static final Logger logger = LoggerFactory.getLogger(MaximumDistance.class);
 
     private final List<D> objects;
 
+    private final ForkJoinPool pool;
+
     private final int parallelism;
 
-    /**
-     * Use all available cores.
-     */
     private final int objectsSize;
 
     private double maximum = 0d;
 
+    /**
+     * Uses {@link SharedPool}
+     */
     public MaximumDistance(List<D> objects) {
-        this.objects = objects;
-        objectsSize = objects.size();
-        parallelism = Runtime.getRuntime()
-                             .availableProcessors();
+        this(objects, SharedPool.get());
     }
 
-    public MaximumDistance(List<D> objects,
-                           int parallelism) {
+    /**
+     * @param pool pool which computes distances, its parallelism limits number of used cores
+     */
+    public MaximumDistance(List<D> objects, ForkJoinPool pool) {
         this.objects = objects;
+        this.pool = pool;
         objectsSize = objects.size();
-        this.parallelism = parallelism;
+        parallelism = pool.getParallelism();
     }
 
+    /**
+     * Calculates exact maximum distance. Upper triangle of all pairs is split into square tiles of
+     * {@link #TILE_SIZE} objects, so compared objects stay in cache. Tiles are compared by work stealing tasks.
+     */
     public double calculate() {
-        final ExecutorService ecsPool = Executors.newFixedThreadPool(parallelism);
-        final ExecutorCompletionService<Double> ecs = new ExecutorCompletionService<>(ecsPool);
-        int submittedSolvers = submitSolvers(ecs);
-        int takenSolvers = 0;
+        final int tiles = (objectsSize + TILE_SIZE - 1) / TILE_SIZE;
+        final TriangleTask task = new TriangleTask(0, tiles);
+        pool.invoke(task);
+
+        maximum = task.maximum;
+        return maximum;
+    }
 
-        logger.info("Submitted {} solvers", submittedSolvers);
+    /**
+     * Bounds maximum distance by triangle inequality. No pair of objects is farther than sum of the two biggest
+     * distances of objects to any pivot, which is at most twice the biggest distance to the pivot. Computes only
+     * distances of objects to pivots.
+     *
+     * @return upper bound of maximum distance which is greater than distance of any object to its nearest pivot
+     */
+    public double calculatePivotBound(final List<Pivot<D>> pivots) {
+        final int pivotsCount = pivots.size();
+        final List<double[]> chunkResults = solveInChunks(new RangeSolver<double[]>() {
+            /**
+             * @return two biggest distances to every pivot followed by the biggest distance to the nearest pivot
+             */
+            @Override
+            public double[] solve(int from, int to) {
+                final double[] result = new double[pivotsCount * 2 + 1];
+                for (int i = from; i < to; i++) {
+                    final D object = objects.get(i);
+                    double nearestPivotDistance = Double.POSITIVE_INFINITY;
+                    for (int p = 0; p < pivotsCount; p++) {
+                        final double distance = pivots.get(p).distance(object);
+                        addToTopTwo(result, p, distance);
+                        nearestPivotDistance = FastMath.min(nearestPivotDistance, distance);
+                    }
+                    result[pivotsCount * 2] = FastMath.max(result[pivotsCount * 2], nearestPivotDistance);
+                }
 
-        while (takenSolvers++ < submittedSolvers) {
-            try {
-                Future<Double> result = ecs.take();
-                maximum = FastMath.max(result.get(), maximum);
-            } catch (InterruptedException e) {
-                Thread.currentThread()
-                      .interrupt();
-            } catch (ExecutionException e) {
-                throw new RuntimeException("Error during calculation maximum distance!", e);
+                return result;
             }
+        });
 
-            if (takenSolvers % 10000 == 0) {
-                logger.info("{} solvers finished so far", takenSolvers);
+        final double[] merged = new double[pivotsCount * 2 + 1];
+        for (double[] chunkResult : chunkResults) {
+            for (int p = 0; p < pivotsCount; p++) {
+                addToTopTwo(merged, p, chunkResult[p * 2]);
+                addToTopTwo(merged, p, chunkResult[p * 2 + 1]);
             }
+            merged[pivotsCount * 2] = FastMath.max(merged[pivotsCount * 2], chunkResult[pivotsCount * 2]);
+        }
+
+        double bound = Double.POSITIVE_INFINITY;
+        for (int p = 0; p < pivotsCount; p++) {
+            bound = FastMath.min(bound, merged[p * 2] + merged[p * 2 + 1]);
         }
 
-        ecsPool.shutdown();
+        maximum = FastMath.max(bound, FastMath.nextUp(merged[pivotsCount * 2]));
+        return maximum;
+    }
+
+    /**
+     * Estimates maximum distance by a far pair of objects. The pair is found among sampled objects and then
+     * refined by sweeps over all objects, every sweep moves to the object farthest from the current one. The
+     * estimate is at least half of the maximum distance and usually very close to it, but it can be lower.
+     *
+     * @return estimate of maximum distance which is greater than distance of any object to its nearest pivot
+     */
+    public double estimateByFarPairs(List<Pivot<D>> pivots) {
+        // Every object is at most as far from its nearest pivot as from the first one
+        final double firstPivotDistance = farthestFrom(pivots.get(0)).getDistance();
 
+        maximum = FastMath.max(farPairDistance(), FastMath.nextUp(firstPivotDistance));
         return maximum;
     }
 
-    private int submitSolvers(ExecutorCompletionService<Double> ecs) {
-        int submittedSolvers = 0;
+    /**
+     * Calculates exact maximum distance, but skips pairs which can't be farther than the far pair found by
+     * {@link #estimateByFarPairs(List)}. Distance of a pair is bounded by sum of its distances to any pivot, so
+     * only objects which can still be part of a farther pair are compared with each other. Pruning is weaker for
+     * objects with many dimensions whose distances are concentrated.
+     */
+    public double calculatePrunedByPivots(List<Pivot<D>> pivots) {
+        if (objectsSize < 2) {
+            return maximum;
+        }
+
+        final int pivotsCount = FastMath.min(pivots.size(), PRUNING_PIVOTS_LIMIT);
+        final double[] pivotDistances = pivotDistances(pivots, pivotsCount);
+        final double[] pivotMaxima = new double[pivotsCount];
         for (int i = 0; i < objectsSize; i++) {
-            final D object = objects.get(i);
-            for (int j = i + 1; j < objectsSize; j += SOLVER_GRANULARITY) {
-                logger.debug("Submitting {} for object {} with granularity {}", j, i, SOLVER_GRANULARITY);
-                ecs.submit(new DistanceSolver(j, object));
-                submittedSolvers++;
+            for (int p = 0; p < pivotsCount; p++) {
+                pivotMaxima[p] = FastMath.max(pivotMaxima[p], pivotDistances[i * pivotsCount + p]);
+            }
+        }
+
+        // Candidates keep order of objects, which is usually also their order in memory. Distances of candidates
+        // are moved to the beginning of the arrays.
+        final double lowerBound = farPairDistance();
+        final List<D> candidates = new ArrayList<>();
+        final double[] upperBounds = new double[objectsSize];
+        for (int i = 0; i < objectsSize; i++) {
+            double upperBound = Double.POSITIVE_INFINITY;
+            for (int p = 0; p < pivotsCount; p++) {
+                upperBound = FastMath.min(upperBound, pivotDistances[i * pivotsCount + p] + pivotMaxima[p]);
+            }
+
+            if (upperBound > lowerBound) {
+                final int candidate = candidates.size();
+                upperBounds[candidate] = upperBound;
+                System.arraycopy(pivotDistances, i * pivotsCount, pivotDistances, candidate * pivotsCount,
+                        pivotsCount);
+                candidates.add(objects.get(i));
+            }
+        }
+
+        logger.info("Comparing {} candidates of {} objects farther than {}", candidates.size(), objectsSize,
+                lowerBound);
+
+        final AtomicLong maximumBits = new AtomicLong(Double.doubleToLongBits(lowerBound));
+        final int tasks = parallelism * 4;
+        final List<PrunedDistanceSolver> solvers = new ArrayList<>(tasks);
+        for (int task = 0; task < tasks; task++) {
+            final PrunedDistanceSolver solver = new PrunedDistanceSolver(task, tasks, candidates, upperBounds,
+                    pivotDistances, pivotsCount, maximumBits);
+            pool.execute(solver);
+            solvers.add(solver);
+        }
+        for (PrunedDistanceSolver solver : solvers) {
+            solver.join();
+        }
+
+        maximum = Double.longBitsToDouble(maximumBits.get());
+        return maximum;
+    }
+
+    private static void addToTopTwo(double[] topTwo, int pivot, double distance) {
+        if (distance > topTwo[pivot * 2]) {
+            topTwo[pivot * 2 + 1] = topTwo[pivot * 2];
+            topTwo[pivot * 2] = distance;
+        } else if (distance > topTwo[pivot * 2 + 1]) {
+            topTwo[pivot * 2 + 1] = distance;
+        }
+    }
+
+    /**
+     * @return distance of the farthest pair found among sampled objects and refined by sweeps over all objects
+     */
+    private double farPairDistance() {
+        if (objectsSize < 2) {
+            return 0d;
+        }
+
+        final List<D> sample = sample();
+        D farObject = sample.get(0);
+        double farDistance = 0d;
+        for (int i = 0; i < sample.size(); i++) {
+            for (int j = i + 1; j < sample.size(); j++) {
+                final double distance = sample.get(i).distance(sample.get(j));
+                if (distance > farDistance) {
+                    farDistance = distance;
+                    farObject = sample.get(j);
+                }
+            }
+        }
+
+        for (int sweep = 0; sweep < FAR_PAIR_SWEEPS; sweep++) {
+            final ObjectDistance<D> farthest = farthestFrom(farObject);
+            if (farthest.getDistance() <= farDistance) {
+                break;
+            }
+
+            farDistance = farthest.getDistance();
+            farObject = farthest.getObject();
+        }
+
+        logger.info("Far pair distance is {}", farDistance);
+        return farDistance;
+    }
+
+    private List<D> sample() {
+        if (objectsSize <= FAR_PAIR_SAMPLE_SIZE) {
+            return objects;
+        }
+
+        final Random random = new Random(FAR_PAIR_SAMPLE_SEED);
+        final List<D> sample = new ArrayList<>(FAR_PAIR_SAMPLE_SIZE);
+        for (int i = 0; i < FAR_PAIR_SAMPLE_SIZE; i++) {
+            sample.add(objects.get(random.nextInt(objectsSize)));
+        }
+
+        return sample;
+    }
+
+    private ObjectDistance<D> farthestFrom(final Distanceable<D> origin) {
+        ObjectDistance<D> farthest = null;
+        for (ObjectDistance<D> chunkFarthest : solveInChunks(new RangeSolver<ObjectDistance<D>>() {
+            @Override
+            public ObjectDistance<D> solve(int from, int to) {
+                D farthestObject = objects.get(from);
+                double farthestDistance = -1d;
+                for (int i = from; i < to; i++) {
+                    final double distance = origin.distance(objects.get(i));
+                    if (distance > farthestDistance) {
+                        farthestDistance = distance;
+                        farthestObject = objects.get(i);
+                    }
+                }
+
+                return new ObjectDistance<>(farthestObject, farthestDistance);
+            }
+        })) {
+            if (farthest == null || chunkFarthest.getDistance() > farthest.getDistance()) {
+                farthest = chunkFarthest;
             }
         }
-        return submittedSolvers;
+
+        return farthest;
+    }
+
+    /**
+     * @return distances of objects to first {@code pivotsCount} pivots, distances of object {@code i} start at
+     *         {@code i * pivotsCount}
+     */
+    private double[] pivotDistances(final List<Pivot<D>> pivots, final int pivotsCount) {
+        final double[] pivotDistances = new double[objectsSize * pivotsCount];
+        solveInChunks(new RangeSolver<Void>() {
+            @Override
+            public Void solve(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    for (int p = 0; p < pivotsCount; p++) {
+                        pivotDistances[i * pivotsCount + p] = pivots.get(p).distance(objects.get(i));
+                    }
+                }
+
+                return null;
+            }
+        });
+
+        return pivotDistances;
+    }
+
+    /**
+     * Solves consecutive chunks of {@link #SOLVER_GRANULARITY} objects in parallel
+     *
+     * @return results of chunks in order of objects
+     */
+    private <R> List<R> solveInChunks(RangeSolver<R> solver) {
+        final int chunks = (objectsSize + SOLVER_GRANULARITY - 1) / SOLVER_GRANULARITY;
+        if (chunks == 0) {
+            return Collections.emptyList();
+        }
+
+        return pool.invoke(new ChunksTask<>(solver, 0, chunks));
+    }
+
+    private interface RangeSolver<R> {
+        R solve(int from, int to);
     }
 
-    private class DistanceSolver
-            implements Callable<Double> {
-        private final int j;
+    /**
+     * Splits chunks from {@code fromChunk} to {@code toChunk} in halves until a single chunk is solved
+     */
+    private class ChunksTask<R> extends RecursiveTask<List<R>> {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeSolver<R> solver;
+        private final int fromChunk;
+        private final int toChunk;
+
+        private ChunksTask(RangeSolver<R> solver, int fromChunk, int toChunk) {
+            this.solver = solver;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected List<R> compute() {
+            if (toChunk - fromChunk == 1) {
+                return Collections.singletonList(solver.solve(fromChunk * SOLVER_GRANULARITY,
+                        FastMath.min(toChunk * SOLVER_GRANULARITY, objectsSize)));
+            }
+
+            final int middle = (fromChunk + toChunk) >>> 1;
+            final ChunksTask<R> first = new ChunksTask<>(solver, fromChunk, middle);
+            final ChunksTask<R> second = new ChunksTask<>(solver, middle, toChunk);
+            invokeAll(first, second);
 
-        private final int maxJ;
+            final List<R> results = new ArrayList<>(first.join());
+            results.addAll(second.join());
+
+            return results;
+        }
+    }
+
+    /**
+     * Compares every {@code tasks}-th candidate with the following candidates. Candidates which can't be farther
+     * than the current maximum from any object are skipped.
+     */
+    private class PrunedDistanceSolver extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-        private final D object;
+        private final int firstCandidate;
+        private final int tasks;
+        private final List<D> candidates;
+        private final double[] upperBounds;
+        private final double[] pivotDistances;
+        private final int pivotsCount;
+        private final AtomicLong maximumBits;
+        private boolean pairBoundsPrune = true;
+        private int checkedPairs = 0;
+        private int prunedPairs = 0;
 
-        public DistanceSolver(int j,
-                              D object) {
-            this.j = j;
-            maxJ = FastMath.min(j + SOLVER_GRANULARITY, objectsSize);
-            this.object = object;
+        private PrunedDistanceSolver(int firstCandidate, int tasks, List<D> candidates, double[] upperBounds,
+                                     double[] pivotDistances, int pivotsCount, AtomicLong maximumBits) {
+            this.firstCandidate = firstCandidate;
+            this.tasks = tasks;
+            this.candidates = candidates;
+            this.upperBounds = upperBounds;
+            this.pivotDistances = pivotDistances;
+            this.pivotsCount = pivotsCount;
+            this.maximumBits = maximumBits;
         }
 
         @Override
-        public Double call() throws Exception {
-            double tempMaximum = 0;
-            for (int jj = j; jj < maxJ; ++jj) {
-                tempMaximum = FastMath.max(object.distance(objects.get(jj)), tempMaximum);
+        protected void compute() {
+            final int candidatesSize = candidates.size();
+            for (int i = firstCandidate; i < candidatesSize; i += tasks) {
+                double currentMaximum = Double.longBitsToDouble(maximumBits.get());
+                if (upperBounds[i] <= currentMaximum) {
+                    continue;
+                }
+
+                final D first = candidates.get(i);
+                for (int j = i + 1; j < candidatesSize; j++) {
+                    if (upperBounds[j] <= currentMaximum) {
+                        continue;
+                    }
+
+                    if (pairBoundsPrune && !canBeFarther(i, j, currentMaximum)) {
+                        continue;
+                    }
+
+                    final double distance = first.distance(candidates.get(j));
+                    if (distance > currentMaximum) {
+                        currentMaximum = updateMaximum(distance);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return {@code false} when distance of candidates is bounded by {@code currentMaximum} through any pivot
+         */
+        private boolean canBeFarther(int first, int second, double currentMaximum) {
+            checkedPairs++;
+            final int firstOffset = first * pivotsCount;
+            final int secondOffset = second * pivotsCount;
+            for (int p = 0; p < pivotsCount; p++) {
+                if (pivotDistances[firstOffset + p] + pivotDistances[secondOffset + p] <= currentMaximum) {
+                    prunedPairs++;
+                    return false;
+                }
             }
-            logger.debug("Finished object {} with {} ", j - 1, maxJ);
-            return tempMaximum;
+
+            // Distances of objects with many dimensions are concentrated, so pivots can hardly prune any pair
+            if (checkedPairs == PAIR_BOUNDS_SAMPLE && prunedPairs * 10 < checkedPairs) {
+                pairBoundsPrune = false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Distances are not negative, so their bits are ordered the same way as the distances
+         *
+         * @return current maximum
+         */
+        private double updateMaximum(double distance) {
+            final long distanceBits = Double.doubleToLongBits(distance);
+            long currentBits;
+            do {
+                currentBits = maximumBits.get();
+                if (currentBits >= distanceBits) {
+                    return Double.longBitsToDouble(currentBits);
+                }
+            } while (!maximumBits.compareAndSet(currentBits, distanceBits));
+
+            return distance;
+        }
+    }
+
+    /**
+     * Keeps running maximum of compared tiles, so no distance is boxed or shared between threads
+     */
+    private abstract class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected double maximum = 0d;
+
+        protected void compareTiles(int rowTile, int columnTile) {
+            final int rowEnd = FastMath.min((rowTile + 1) * TILE_SIZE, objectsSize);
+            final int columnStart = columnTile * TILE_SIZE;
+            final int columnEnd = FastMath.min(columnStart + TILE_SIZE, objectsSize);
+            double tileMaximum = maximum;
+            for (int i = rowTile * TILE_SIZE; i < rowEnd; i++) {
+                final D object = objects.get(i);
+                for (int j = FastMath.max(columnStart, i + 1); j < columnEnd; j++) {
+                    final double distance = object.distance(objects.get(j));
+                    if (distance > tileMaximum) {
+                        tileMaximum = distance;
+                    }
+                }
+            }
+
+            maximum = tileMaximum;
+        }
+    }
+
+    /**
+     * Compares pairs of objects which are both in tiles from {@code from} to {@code to}. The triangle is split into
+     * two smaller triangles and a rectangle between them.
+     */
+    private class TriangleTask extends TileTask {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        private TriangleTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    compareTiles(from, from);
+                }
+                return;
+            }
+
+            final int middle = (from + to) >>> 1;
+            final TriangleTask first = new TriangleTask(from, middle);
+            final TriangleTask second = new TriangleTask(middle, to);
+            final RectangleTask between = new RectangleTask(from, middle, middle, to);
+            invokeAll(first, second, between);
+
+            maximum = FastMath.max(FastMath.max(first.maximum, second.maximum), between.maximum);
+        }
+    }
+
+    /**
+     * Compares objects of row tiles with objects of column tiles. Longer side is split until a single tile is left.
+     */
+    private class RectangleTask extends TileTask {
+        private static final long serialVersionUID = 1L;
+
+        private final int rowFrom;
+        private final int rowTo;
+        private final int columnFrom;
+        private final int columnTo;
+
+        private RectangleTask(int rowFrom, int rowTo, int columnFrom, int columnTo) {
+            this.rowFrom = rowFrom;
+            this.rowTo = rowTo;
+            this.columnFrom = columnFrom;
+            this.columnTo = columnTo;
+        }
+
+        @Override
+        protected void compute() {
+            final int rows = rowTo - rowFrom;
+            final int columns = columnTo - columnFrom;
+            if (rows == 1 && columns == 1) {
+                compareTiles(rowFrom, columnFrom);
+                return;
+            }
+
+            final RectangleTask first;
+            final RectangleTask second;
+            if (rows >= columns) {
+                final int middle = (rowFrom + rowTo) >>> 1;
+                first = new RectangleTask(rowFrom, middle, columnFrom, columnTo);
+                second = new RectangleTask(middle, rowTo, columnFrom, columnTo);
+            } else {
+                final int middle = (columnFrom + columnTo) >>> 1;
+                first = new RectangleTask(rowFrom, rowTo, columnFrom, middle);
+                second = new RectangleTask(rowFrom, rowTo, middle, columnTo);
+            }
+            invokeAll(first, second);
+
+            maximum = FastMath.max(first.maximum, second.maximum);
         }
     }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import java.util.List;
+
+/**
+ * Ways how {@link MIndex} obtains maximum distance which normalizes all distances of the index. Any value works
+ * for queries, but distance of every object to its nearest pivot has to be lower than the maximum distance, so keys
+ * of different clusters don't overlap.
+ *
+ * @author Karel Rank
+ */
+public enum MaximumDistanceEstimator {
+    /**
+     * Computes distances of all pairs of objects
+     */
+    EXACT {
+        @Override
+        public <D extends Distanceable<D>> double estimate(List<D> objects, List<Pivot<D>> pivots) {
+            return new MaximumDistance<>(objects).calculate();
+        }
+    },
+    /**
+     * Computes exact maximum distance, but skips pairs which can't be farther than already found pair according
+     * to their distances to pivots
+     */
+    PIVOT_PRUNED_EXACT {
+        @Override
+        public <D extends Distanceable<D>> double estimate(List<D> objects, List<Pivot<D>> pivots) {
+            return new MaximumDistance<>(objects).calculatePrunedByPivots(pivots);
+        }
+    },
+    /**
+     * Upper bound from distances of objects to pivots by triangle inequality. Computes only distances to pivots.
+     */
+    PIVOT_BOUND {
+        @Override
+        public <D extends Distanceable<D>> double estimate(List<D> objects, List<Pivot<D>> pivots) {
+            return new MaximumDistance<>(objects).calculatePivotBound(pivots);
+        }
+    },
+    /**
+     * Distance of a far pair found in a sample and refined by few sweeps over all objects. Computes linear count
+     * of distances, but can be lower than the exact maximum distance.
+     */
+    SAMPLED_FAR_PAIRS {
+        @Override
+        public <D extends Distanceable<D>> double estimate(List<D> objects, List<Pivot<D>> pivots) {
+            return new MaximumDistance<>(objects).estimateByFarPairs(pivots);
+        }
+    };
+
+    public abstract <D extends Distanceable<D>> double estimate(List<D> objects, List<Pivot<D>> pivots);
+}
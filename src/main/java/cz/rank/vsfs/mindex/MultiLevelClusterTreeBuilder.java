@@ -27,6 +27,8 @@
 package cz.rank.vsfs.mindex;
 
 import cz.rank.vsfs.btree.BPlusTreeMultiDoubleObjectMap;
+import cz.rank.vsfs.btree.DoubleObjectPairs;
+import org.apache.commons.math3.util.FastMath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,47 +38,129 @@ import java.util.List;
  */
 public class MultiLevelClusterTreeBuilder<D extends Distanceable<D>> extends AbstractClusterTreeBuilder<D> {
     private static final Logger logger = LoggerFactory.getLogger(MultiLevelClusterTreeBuilder.class);
-    private final List<D> objects;
-    private final Cluster<D> clusterRoot;
-    private final PivotDistanceTable<D> pivotDistanceTable;
-    private final BPlusTreeMultiDoubleObjectMap<D> btreemap;
 
-    public MultiLevelClusterTreeBuilder(List objects, Cluster clusterRoot, PivotDistanceTable pivotDistanceTable, BPlusTreeMultiDoubleObjectMap<D> btreemap) {
+    public MultiLevelClusterTreeBuilder(List<D> objects, Cluster<D> clusterRoot, PivotDistanceTable<D> pivotDistanceTable, BPlusTreeMultiDoubleObjectMap<D> btreemap) {
+        this(objects, clusterRoot, pivotDistanceTable, btreemap, BPlusTreeMultiDoubleObjectMap.DEFAULT_FILL_FACTOR);
+    }
 
-        this.objects = objects;
-        this.clusterRoot = clusterRoot;
-        this.pivotDistanceTable = pivotDistanceTable;
-        this.btreemap = btreemap;
+    public MultiLevelClusterTreeBuilder(List<D> objects, Cluster<D> clusterRoot, PivotDistanceTable<D> pivotDistanceTable, BPlusTreeMultiDoubleObjectMap<D> btreemap, double btreeFillFactor) {
+        super(objects, clusterRoot, pivotDistanceTable, btreemap, btreeFillFactor);
     }
 
     @Override
-    public void build() {
-        int maxLevel = clusterRoot.getIndex().getMaxLevel();
-        for (D object : objects) {
-            Cluster<D> currentCluster = clusterRoot;
-            for (int currentLevel = 0; currentLevel < maxLevel; ++currentLevel) {
-                final Pivot<D> pivot = pivotDistanceTable.pivotAt(object, currentLevel);
-
-                Cluster<D> subCluster = currentCluster.getSubCluster(pivot);
-                if (subCluster == null) {
-                    subCluster = createAndStoreSubCluster(currentCluster, pivot);
-                    incrementCluster();
-                }
-
-                currentCluster = subCluster;
+    protected Cluster<D> createFirstLevelCluster(Pivot<D> pivot, int objectsCount) {
+        final Cluster<D> cluster = createAndStoreSubCluster(clusterRoot, pivot);
+        incrementCluster();
+
+        return cluster;
+    }
+
+    @Override
+    protected void buildSubtree(Cluster<D> cluster, List<D> clusterObjects, DoubleObjectPairs<D> pairs) {
+        for (D object : clusterObjects) {
+            final Cluster<D> leafCluster = leafClusterOf(object, cluster);
+            final double objectKey = objectKey(object, leafCluster);
+
+            pairs.add(objectKey, object);
+            leafCluster.setKey(objectKey);
+            extendPivotBoxes(leafCluster, object, cluster);
+        }
+    }
+
+    @Override
+    public boolean insert(D object) {
+        final Cluster<D> leafCluster = leafClusterOf(object, clusterRoot);
+        // Leaf clusters without keys are removed, so this one was just created
+        final boolean createdLeafCluster = leafCluster.getKeysCount() == 0;
+        final double objectKey = objectKey(object, leafCluster);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Inserting into B+Tree key: {}; obj: {}; cluster: {}", objectKey, object,
+                    leafCluster.getIndex());
+        }
+
+        btreemap.insert(objectKey, object);
+        final boolean extendedKeys = setKey(leafCluster, objectKey);
+        extendPivotBoxes(leafCluster, object);
+
+        return createdLeafCluster || extendedKeys;
+    }
+
+    /**
+     * @return leaf cluster of {@code object} under {@code cluster} which is created together with missing
+     *         ancestors
+     */
+    private Cluster<D> leafClusterOf(D object, Cluster<D> cluster) {
+        int maxLevel = cluster.getIndex().getMaxLevel();
+        Cluster<D> currentCluster = cluster;
+        for (int currentLevel = cluster.getLevel(); currentLevel < maxLevel; ++currentLevel) {
+            final Pivot<D> pivot = pivotDistanceTable.pivotAt(object, currentLevel);
+
+            Cluster<D> subCluster = currentCluster.getSubCluster(pivot);
+            if (subCluster == null) {
+                subCluster = createAndStoreSubCluster(currentCluster, pivot);
+                incrementCluster();
             }
 
-            final double distance = pivotDistanceTable.firstPivotDistance(object);
-            final double objectKey = currentCluster.getCalculatedIndex() + distance;
+            currentCluster = subCluster;
+        }
 
+        return currentCluster;
+    }
+
+    private double objectKey(D object, Cluster<D> cluster) {
+        return cluster.getCalculatedIndex() + pivotDistanceTable.firstPivotDistance(object);
+    }
+
+    @Override
+    public ClusterTreeRemoval remove(D object) {
+        int maxLevel = clusterRoot.getIndex().getMaxLevel();
+        Cluster<D> currentCluster = clusterRoot;
+        for (int currentLevel = 0; currentLevel < maxLevel && currentCluster != null; ++currentLevel) {
+            currentCluster = currentCluster.getSubCluster(pivotDistanceTable.pivotAt(object, currentLevel));
+        }
+
+        if (currentCluster == null) {
+            return ClusterTreeRemoval.NOT_FOUND;
+        }
 
-            if (logger.isDebugEnabled()) {
-                logger.debug("Inserting into B+Tree key: {}; obj: {}; cluster: {}", objectKey, object,
-                        currentCluster.getIndex());
+        final double objectKey = objectKey(object, currentCluster);
+        if (!btreemap.remove(objectKey, object)) {
+            return ClusterTreeRemoval.NOT_FOUND;
+        }
+
+        if (currentCluster.removeKey(objectKey)) {
+            if (currentCluster.getKeysCount() == 0) {
+                removeEmptyClusters(currentCluster, object);
+                return ClusterTreeRemoval.REMOVED_LEAF_CLUSTER;
             }
 
-            btreemap.insert(objectKey, object);
-            currentCluster.setKey(objectKey);
+            recalculateKeys(currentCluster);
+        }
+
+        return ClusterTreeRemoval.REMOVED;
+    }
+
+    /**
+     * Removes {@code leafCluster} and its ancestors which are left without sub clusters
+     */
+    private void removeEmptyClusters(Cluster<D> leafCluster, D object) {
+        Cluster<D> cluster = leafCluster;
+        do {
+            removeSubCluster(cluster, object);
+            cluster = cluster.getParent();
+        } while (cluster.getParent() != null && cluster.getSubClusters().isEmpty());
+    }
+
+    /**
+     * Leaf clusters don't keep their objects, so keys are recalculated from objects found in B+Tree
+     */
+    private void recalculateKeys(Cluster<D> cluster) {
+        final List<D> clusterObjects = btreemap.rangeSearch(cluster.getKeyMin(),
+                FastMath.nextUp(cluster.getKeyMax()));
+        cluster.clearKeys();
+        for (D clusterObject : clusterObjects) {
+            cluster.setKey(objectKey(clusterObject, cluster));
         }
     }
 
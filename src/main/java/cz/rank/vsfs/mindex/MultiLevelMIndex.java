@@ -48,11 +48,20 @@ public class MultiLevelMIndex<D extends Distanceable<D>> extends MIndex<D> {
         calculateMaximumDistance();
         calculateDistances();
 
-        final ClusterTreeBuilder builder = new MultiLevelClusterTreeBuilder<>(objects, clusterRoot, pivotDistanceTable,
-                                                                              btreemap);
+        clusterTreeBuilder = new MultiLevelClusterTreeBuilder<>(objects, clusterRoot, pivotDistanceTable, btreemap,
+                                                              btreeFillFactor);
 
-        builder.build();
-        clusterStats = builder.getClusterStats();
+        clusterTreeBuilder.build();
+        clusterStats = clusterTreeBuilder.getClusterStats();
+        finishBuild();
     }
 
+    /**
+     * All leaf clusters are on the maximum level, so no leaf clusters share keys and inserts and deletes don't
+     * have to look for them
+     */
+    @Override
+    protected boolean leafClustersMayShareKeys() {
+        return false;
+    }
 }
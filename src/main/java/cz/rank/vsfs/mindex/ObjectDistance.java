@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Object found by a query together with its distance from the query object
+ *
+ * @author Karel Rank
+ */
+@Immutable
+public class ObjectDistance<D extends Distanceable<D>> implements Comparable<ObjectDistance<D>> {
+    private final D object;
+    private final double distance;
+
+    public ObjectDistance(D object, double distance) {
+        this.object = object;
+        this.distance = distance;
+    }
+
+    public D getObject() {
+        return object;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    @Override
+    public int compareTo(ObjectDistance<D> objectDistance) {
+        if (objectDistance == null) {
+            throw new NullPointerException("ObjectDistance for comparison is null");
+        }
+
+        return Double.compare(distance, objectDistance.getDistance());
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectDistance{" +
+                "object=" + object +
+                ", distance=" + distance +
+                '}';
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Joins list of objects with the index by range query of every object
+ *
+ * @author Karel Rank
+ */
+class ObjectsJoinTask<D extends Distanceable<D>> extends RecursiveTask<List<ObjectPair<D>>> {
+    private static final long serialVersionUID = 1L;
+    /**
+     * Maximum number of objects joined with the index by single task of similarity join
+     */
+    private static final int JOIN_GRANULARITY = 64;
+
+    private final MIndex<D> index;
+    private final List<D> objects;
+    private final double range;
+
+    ObjectsJoinTask(MIndex<D> index, List<D> objects, double range) {
+        this.index = index;
+        this.objects = objects;
+        this.range = range;
+    }
+
+    @Override
+    protected List<ObjectPair<D>> compute() {
+        if (objects.size() > JOIN_GRANULARITY) {
+            final int middle = objects.size() / 2;
+            final ObjectsJoinTask<D> firstHalf = new ObjectsJoinTask<>(index, objects.subList(0, middle), range);
+            final ObjectsJoinTask<D> secondHalf = new ObjectsJoinTask<>(index,
+                    objects.subList(middle, objects.size()), range);
+            invokeAll(firstHalf, secondHalf);
+
+            final List<ObjectPair<D>> pairs = new ArrayList<>(firstHalf.join());
+            pairs.addAll(secondHalf.join());
+
+            return pairs;
+        }
+
+        final double normalizedRange = range / index.maximumDistance;
+        final List<ObjectPair<D>> pairs = new ArrayList<>();
+        for (D object : objects) {
+            for (D foundObject : new ClusterRangeQuery<>(index, object, range, normalizedRange, QueryDeadline.NONE)
+                    .performQuery()) {
+                pairs.add(new ObjectPair<>(foundObject, object, foundObject.distance(object)));
+            }
+        }
+
+        return pairs;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Range query split into fork/join tasks. Each task collects its own found objects and statistics which are
+ * merged by the parent task.
+ *
+ * @author Karel Rank
+ */
+class ParallelClusterRangeQuery<D extends Distanceable<D>> extends ClusterQuery<D> {
+    private final double range;
+    private final double normalizedRange;
+
+    ParallelClusterRangeQuery(MIndex<D> index, D queryObject, double range, double normalizedRange) {
+        super(index, queryObject);
+        this.range = range;
+        this.normalizedRange = normalizedRange;
+    }
+
+    public Collection<D> performQuery() {
+        final ClusterRangeTask task = new ClusterRangeTask(index.clusterRoot);
+        final List<D> foundObjects = SharedPool.get().invoke(task);
+        stats.add(task.taskStats);
+        index.addQueryStats(stats);
+
+        return foundObjects;
+    }
+
+    private abstract class StatsRecursiveTask extends RecursiveTask<List<D>> {
+        private static final long serialVersionUID = 1L;
+
+        protected final QueryStats taskStats = new QueryStats();
+
+        protected List<D> joinAll(List<? extends StatsRecursiveTask> tasks) {
+            invokeAll(tasks);
+
+            final List<D> foundObjects = new ArrayList<>();
+            for (StatsRecursiveTask task : tasks) {
+                foundObjects.addAll(task.join());
+                taskStats.add(task.taskStats);
+            }
+
+            return foundObjects;
+        }
+    }
+
+    private class ClusterRangeTask extends StatsRecursiveTask implements ClusterVisitor<D> {
+        private static final long serialVersionUID = 1L;
+
+        private final Cluster<D> cluster;
+        private List<D> foundObjects = Collections.emptyList();
+
+        private ClusterRangeTask(Cluster<D> cluster) {
+            this.cluster = cluster;
+        }
+
+        @Override
+        protected List<D> compute() {
+            if (cluster == index.clusterRoot) {
+                forkSubClusters(cluster);
+            } else if (!isPruned(cluster, normalizedRange, taskStats)) {
+                cluster.accept(this);
+            }
+
+            return foundObjects;
+        }
+
+        @Override
+        public void enterInternalCluster(InternalCluster<D> internalCluster) {
+            forkSubClusters(internalCluster);
+        }
+
+        private void forkSubClusters(Cluster<D> cluster) {
+            final List<ClusterRangeTask> tasks = new ArrayList<>();
+            for (Cluster<D> subCluster : cluster.getSubClusters()) {
+                tasks.add(new ClusterRangeTask(subCluster));
+            }
+
+            foundObjects = joinAll(tasks);
+        }
+
+        @Override
+        public void enterLeafCluster(LeafCluster<D> leafCluster) {
+            if (isLeafPruned(leafCluster, normalizedRange, taskStats)) {
+                return;
+            }
+
+            final List<D> objects = leafRangeSearch(leafCluster, normalizedRange);
+            final List<RefinementTask> tasks = new ArrayList<>();
+            for (int i = 0; i < objects.size(); i += MIndex.REFINEMENT_GRANULARITY) {
+                tasks.add(new RefinementTask(leafCluster, objects.subList(i,
+                        FastMath.min(i + MIndex.REFINEMENT_GRANULARITY, objects.size()))));
+            }
+
+            foundObjects = joinAll(tasks);
+        }
+    }
+
+    private class RefinementTask extends StatsRecursiveTask {
+        private static final long serialVersionUID = 1L;
+
+        private final Cluster<D> leafCluster;
+        private final List<D> objects;
+
+        private RefinementTask(Cluster<D> leafCluster, List<D> objects) {
+            this.leafCluster = leafCluster;
+            this.objects = objects;
+        }
+
+        @Override
+        protected List<D> compute() {
+            final List<D> foundObjects = new ArrayList<>();
+            for (D object : objects) {
+                if (isCandidate(object, leafCluster, normalizedRange, taskStats)
+                        && isInRange(object, range, taskStats)) {
+                    foundObjects.add(object);
+                }
+            }
+
+            return foundObjects;
+        }
+    }
+}
@@ -26,27 +26,15 @@
 
 package cz.rank.vsfs.mindex;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Future;
 
 /**
  * @author Karel Rank
  */
 public class ParallelPivotDistanceTable<D extends Distanceable<D>> extends AbstractPivotDistanceTable<D> {
-    private static final Logger logger = LoggerFactory.getLogger(ParallelPivotDistanceTable.class);
-    private final AtomicInteger submittedSolvers = new AtomicInteger();
-    private final int parallelism = Runtime.getRuntime().availableProcessors();
-    private volatile boolean submittedAllSolvers = false;
-
     public ParallelPivotDistanceTable(double maximumDistance, List<Pivot<D>> pivots, List<D> objects) {
         super(maximumDistance, pivots, objects);
     }
@@ -55,64 +43,26 @@ public class ParallelPivotDistanceTable<D extends Distanceable<D>> extends Abstr
         super(pivots, objects);
     }
 
+    /**
+     * Solvers run in {@link SharedPool} and their results are stored by the calling thread
+     */
     @Override
+    @SuppressWarnings("unchecked")
     public void calculate() {
-        final ExecutorService es = Executors.newSingleThreadExecutor();
-        final ExecutorService ecsPool = Executors.newFixedThreadPool(parallelism);
-        final ExecutorCompletionService<PivotDistanceResult> ecs = new ExecutorCompletionService<>(
-                ecsPool);
-
-        final CyclicBarrier cyclicBarrier = new CyclicBarrier(2);
-
-        es.execute(new Runnable() {
-            @Override
-            public void run() {
-                int takenSolvers = 0;
-                while (notAllSolversTaken(takenSolvers)) {
-                    try {
-                        final PivotDistanceResult result = ecs.take().get();
-                        storeResult(result);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    } catch (ExecutionException e) {
-                        logger.error("Error during calculation pivot distance table!", e);
-                    }
-                    takenSolvers++;
-                }
-
-                waitForCalculation(cyclicBarrier);
-            }
-
-            private boolean notAllSolversTaken(int solvers) {
-                return !submittedAllSolvers || solvers < submittedSolvers.get();
-            }
-        });
-
-        submitSolvers(ecs);
-
-        waitForCalculation(cyclicBarrier);
-
-        es.shutdown();
-        ecsPool.shutdown();
-    }
-
-    private void submitSolvers(ExecutorCompletionService<PivotDistanceResult> ecs) {
+        final List<PivotDistanceSolver> solvers = new ArrayList<>();
         for (int i = 0; i < objectsSize; i += SOLVER_GRANULARITY) {
-            ecs.submit(new PivotDistanceSolver(i));
-            submittedSolvers.incrementAndGet();
+            solvers.add(new PivotDistanceSolver(i));
         }
 
-        submittedAllSolvers = true;
-    }
-
-    private void waitForCalculation(CyclicBarrier cyclicBarrier) {
         try {
-            cyclicBarrier.await();
+            for (Future<PivotDistanceResult> future : SharedPool.get().invokeAll(solvers)) {
+                storeResult(future.get());
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-        } catch (BrokenBarrierException e) {
-            logger.error("Error during calculation maximum distance!", e);
+            throw new IllegalStateException("Calculation of pivot distance table was interrupted!", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error during calculation pivot distance table!", e.getCause());
         }
     }
-
 }
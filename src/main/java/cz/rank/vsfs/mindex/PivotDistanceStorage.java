@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cz.rank.vsfs.mindex;
+
+import java.util.List;
+
+/**
+ * Ways how {@link MIndex} stores distances of indexed objects to pivots. Quantized distances take less memory, but
+ * they are less precise, so pivot filtering discards fewer objects.
+ *
+ * @author Karel Rank
+ */
+public enum PivotDistanceStorage {
+    /**
+     * Exact distances in doubles
+     */
+    DENSE {
+        @Override
+        public <D extends Distanceable<D>> PivotDistanceTable<D> create(double maximumDistance,
+                                                                        List<Pivot<D>> pivots, List<D> objects) {
+            return new DensePivotDistanceTable<>(maximumDistance, pivots, objects);
+        }
+    },
+    /**
+     * Distances quantized to 16 bits
+     */
+    QUANTIZED_16 {
+        @Override
+        public <D extends Distanceable<D>> PivotDistanceTable<D> create(double maximumDistance,
+                                                                        List<Pivot<D>> pivots, List<D> objects) {
+            return new QuantizedPivotDistanceTable<>(maximumDistance, pivots, objects, 16);
+        }
+    },
+    /**
+     * Distances quantized to 8 bits
+     */
+    QUANTIZED_8 {
+        @Override
+        public <D extends Distanceable<D>> PivotDistanceTable<D> create(double maximumDistance,
+                                                                        List<Pivot<D>> pivots, List<D> objects) {
+            return new QuantizedPivotDistanceTable<>(maximumDistance, pivots, objects, 8);
+        }
+    };
+
+    public abstract <D extends Distanceable<D>> PivotDistanceTable<D> create(double maximumDistance,
+                                                                             List<Pivot<D>> pivots, List<D> objects);
+}
@@ -32,6 +32,21 @@ package cz.rank.vsfs.mindex;
 public interface PivotDistanceTable<D extends Distanceable<D>> {
     void calculate();
 
+    /**
+     * Calculates distances of {@code object} which wasn't among objects of the table when it was calculated
+     */
+    void add(D object);
+
+    /**
+     * Removes distances of {@code object}
+     */
+    void remove(D object);
+
+    /**
+     * @return {@code true} when distances of {@code object} are calculated
+     */
+    boolean contains(D object);
+
     Pivot<D> pivotAt(D object, int index);
 
     double firstPivotDistance(D object);
@@ -39,4 +54,10 @@ public interface PivotDistanceTable<D extends Distanceable<D>> {
     double distanceAt(D object, int index);
 
     double pivotDistance(D object, int pivotIndex);
+
+    /**
+     * @return maximum difference between normalized distance to pivot with {@code pivotIndex} returned by the table
+     *         and the exact one. Zero when the table keeps exact distances.
+     */
+    double pivotDistanceError(int pivotIndex);
 }
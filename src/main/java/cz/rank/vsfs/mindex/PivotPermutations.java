@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+/**
+ * Orderings of pivots by their distance to query object
+ *
+ * @author Karel Rank
+ */
+final class PivotPermutations {
+    private PivotPermutations() {
+    }
+
+    /**
+     * Sorts {@code permutation} of pivot indexes by distance. Insertion sort is used because pivots are few and
+     * primitive array cannot be sorted by values of another array.
+     *
+     * @param pivotDistances distances indexed by pivot index
+     * @param permutation    pivot indexes which are sorted in place
+     */
+    static void sortByDistance(double[] pivotDistances, int[] permutation) {
+        for (int i = 1; i < permutation.length; ++i) {
+            final int pivotIndex = permutation[i];
+            final double distance = pivotDistances[pivotIndex];
+            int j = i - 1;
+            while (j >= 0 && pivotDistances[permutation[j]] > distance) {
+                permutation[j + 1] = permutation[j];
+                --j;
+            }
+            permutation[j + 1] = pivotIndex;
+        }
+    }
+
+    /**
+     * Takes pivots alternately from the nearest and the farthest end of {@code permutation}. Such pivots give the
+     * tightest triangle inequality bounds, so the pivot filter rejects objects sooner when it checks them first.
+     *
+     * @param permutation pivot indexes sorted by distance
+     * @param filterOrder array of the same length where the order is stored
+     */
+    static void interleaveNearestAndFarthest(int[] permutation, int[] filterOrder) {
+        int nearest = 0;
+        int farthest = permutation.length - 1;
+        int i = 0;
+        while (nearest <= farthest) {
+            filterOrder[i++] = permutation[nearest++];
+            if (nearest <= farthest) {
+                filterOrder[i++] = permutation[farthest--];
+            }
+        }
+    }
+
+    /**
+     * @param pivotDistances distances indexed by pivot index
+     * @return order of pivots for pivot filter
+     */
+    static int[] filterOrder(double[] pivotDistances) {
+        final int[] permutation = new int[pivotDistances.length];
+        for (int i = 0; i < permutation.length; ++i) {
+            permutation[i] = i;
+        }
+        sortByDistance(pivotDistances, permutation);
+
+        final int[] filterOrder = new int[permutation.length];
+        interleaveNearestAndFarthest(permutation, filterOrder);
+
+        return filterOrder;
+    }
+}
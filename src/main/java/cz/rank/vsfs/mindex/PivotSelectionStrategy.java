@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cz.rank.vsfs.mindex;
+
+import java.util.List;
+
+/**
+ * Ways how pivots are selected among objects by {@link PivotSelector}
+ *
+ * @author Karel Rank
+ */
+public enum PivotSelectionStrategy {
+    /**
+     * First objects, which is fast but may give unbalanced clusters and weak pruning
+     */
+    FIRST {
+        @Override
+        public <D extends Distanceable<D>> List<Pivot<D>> select(List<D> objects, int pivotsCount) {
+            return new PivotSelector<>(objects).selectFirst(pivotsCount);
+        }
+    },
+    /**
+     * Pivots maximizing mean distance of sampled pairs in the space of distances to pivots, each chosen among
+     * sampled candidates
+     */
+    SAMPLED_INCREMENTAL {
+        @Override
+        public <D extends Distanceable<D>> List<Pivot<D>> select(List<D> objects, int pivotsCount) {
+            return new PivotSelector<>(objects).selectIncrementally(pivotsCount);
+        }
+    },
+    /**
+     * Farthest-first traversal of all objects
+     */
+    FARTHEST_FIRST {
+        @Override
+        public <D extends Distanceable<D>> List<Pivot<D>> select(List<D> objects, int pivotsCount) {
+            return new PivotSelector<>(objects).selectFarthestFirst(pivotsCount);
+        }
+    },
+    /**
+     * Medoids of k-medoids clustering of a sample of objects
+     */
+    SAMPLED_K_MEDOIDS {
+        @Override
+        public <D extends Distanceable<D>> List<Pivot<D>> select(List<D> objects, int pivotsCount) {
+            return new PivotSelector<>(objects).selectKMedoids(pivotsCount);
+        }
+    };
+
+    public abstract <D extends Distanceable<D>> List<Pivot<D>> select(List<D> objects, int pivotsCount);
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Selects pivots among objects. Pivots which are far from each other and from most of objects divide objects into
+ * balanced clusters and filter more objects by triangle inequality than pivots taken blindly.
+ * <p/>
+ * Candidates, objects and clusters are evaluated in parallel. Samples are drawn from random generator with given
+ * seed, so the same objects always get the same pivots.
+ *
+ * @author Karel Rank
+ */
+@NotThreadSafe
+public class PivotSelector<D extends Distanceable<D>> {
+    /**
+     * Count of objects evaluated by single task
+     */
+    private static final int SOLVER_GRANULARITY = 1000;
+    /**
+     * Count of candidates sampled for each pivot of incremental selection
+     */
+    private static final int INCREMENTAL_CANDIDATES = 50;
+    /**
+     * Count of pairs of objects sampled for evaluation of candidates of incremental selection
+     */
+    private static final int INCREMENTAL_PAIRS = 1000;
+    /**
+     * Minimal count of objects sampled for k-medoids
+     */
+    private static final int K_MEDOIDS_SAMPLE_SIZE = 2000;
+    /**
+     * Count of objects sampled for k-medoids per pivot when it is more than {@link #K_MEDOIDS_SAMPLE_SIZE}
+     */
+    private static final int K_MEDOIDS_SAMPLE_PER_PIVOT = 5;
+    /**
+     * Maximal count of iterations of k-medoids, which usually converges much sooner
+     */
+    private static final int K_MEDOIDS_ITERATIONS = 20;
+    private static final long DEFAULT_SEED = 0x5DEECE66DL;
+    private final List<D> objects;
+    private final int objectsSize;
+    private final Random random;
+
+    public PivotSelector(List<D> objects) {
+        this(objects, DEFAULT_SEED);
+    }
+
+    public PivotSelector(List<D> objects, long seed) {
+        this.objects = objects;
+        objectsSize = objects.size();
+        random = new Random(seed);
+    }
+
+    /**
+     * @return first {@code pivotsCount} objects
+     */
+    public List<Pivot<D>> selectFirst(int pivotsCount) {
+        checkPivotsCount(pivotsCount);
+
+        return pivotsOf(objects.subList(0, pivotsCount));
+    }
+
+    /**
+     * Sampled incremental selection. Every pivot is the best of sampled candidates, where the best candidate
+     * maximizes mean distance of sampled pairs of objects in the space of distances to pivots, i.e. mean of the
+     * greatest difference of distances of the pair to the selected pivots and the candidate. The mean is the
+     * average lower bound of distance of pair, which pivot filtering can use.
+     */
+    public List<Pivot<D>> selectIncrementally(int pivotsCount) {
+        checkPivotsCount(pivotsCount);
+
+        final List<D> pairObjects = new ArrayList<>(INCREMENTAL_PAIRS * 2);
+        for (int i = 0; i < INCREMENTAL_PAIRS * 2; i++) {
+            pairObjects.add(objects.get(random.nextInt(objectsSize)));
+        }
+
+        // Pivot space distances of pairs to already selected pivots
+        final double[] pairDistances = new double[INCREMENTAL_PAIRS];
+        final int[] remaining = indexes(objectsSize);
+        int remainingSize = objectsSize;
+        final List<D> pivotObjects = new ArrayList<>(pivotsCount);
+        while (pivotObjects.size() < pivotsCount) {
+            final int candidatesCount = FastMath.min(INCREMENTAL_CANDIDATES, remainingSize);
+            final List<CandidateEvaluator> evaluators = new ArrayList<>(candidatesCount);
+            for (int i = 0; i < candidatesCount; i++) {
+                swap(remaining, i, i + random.nextInt(remainingSize - i));
+                evaluators.add(new CandidateEvaluator(objects.get(remaining[i]), pairObjects));
+            }
+
+            final List<double[]> differences = waitFor(SharedPool.get().invokeAll(evaluators));
+            int best = 0;
+            double bestMean = -1;
+            for (int i = 0; i < candidatesCount; i++) {
+                double sum = 0;
+                for (int j = 0; j < INCREMENTAL_PAIRS; j++) {
+                    sum += FastMath.max(pairDistances[j], differences.get(i)[j]);
+                }
+                if (sum / INCREMENTAL_PAIRS > bestMean) {
+                    bestMean = sum / INCREMENTAL_PAIRS;
+                    best = i;
+                }
+            }
+
+            for (int j = 0; j < INCREMENTAL_PAIRS; j++) {
+                pairDistances[j] = FastMath.max(pairDistances[j], differences.get(best)[j]);
+            }
+            pivotObjects.add(objects.get(remaining[best]));
+            swap(remaining, best, --remainingSize);
+        }
+
+        return pivotsOf(pivotObjects);
+    }
+
+    /**
+     * Farthest-first traversal of all objects. First pivot is the object farthest from a random object, every next
+     * pivot is the object whose distance to the nearest selected pivot is the greatest.
+     */
+    public List<Pivot<D>> selectFarthestFirst(int pivotsCount) {
+        checkPivotsCount(pivotsCount);
+
+        final double[] nearestDistances = new double[objectsSize];
+        Arrays.fill(nearestDistances, Double.POSITIVE_INFINITY);
+        int farthest = updateNearestDistances(objects, nearestDistances,
+                objects.get(random.nextInt(objectsSize)));
+        Arrays.fill(nearestDistances, Double.POSITIVE_INFINITY);
+
+        final List<D> pivotObjects = new ArrayList<>(pivotsCount);
+        while (pivotObjects.size() < pivotsCount) {
+            final D pivotObject = objects.get(farthest);
+            pivotObjects.add(pivotObject);
+            // Selected objects are never selected again, even when there are duplicate objects
+            nearestDistances[farthest] = -1;
+            farthest = updateNearestDistances(objects, nearestDistances, pivotObject);
+        }
+
+        return pivotsOf(pivotObjects);
+    }
+
+    /**
+     * K-medoids clustering of a sample of objects, whose medoids are pivots. Medoids are initialized like centers of
+     * k-means++, i.e. every next medoid is sampled with probability proportional to square of distance to the
+     * nearest medoid. Then objects are assigned to the nearest medoid and every medoid is replaced by object of its
+     * cluster with the least sum of distances to the other objects of the cluster until medoids don't change.
+     */
+    public List<Pivot<D>> selectKMedoids(int pivotsCount) {
+        checkPivotsCount(pivotsCount);
+
+        final List<D> sample = sample(FastMath.min(objectsSize,
+                FastMath.max(K_MEDOIDS_SAMPLE_SIZE, pivotsCount * K_MEDOIDS_SAMPLE_PER_PIVOT)));
+        final int[] medoids = initialMedoids(sample, pivotsCount);
+        for (int iteration = 0; iteration < K_MEDOIDS_ITERATIONS; iteration++) {
+            final int[] assignment = new int[sample.size()];
+            waitFor(SharedPool.get().invokeAll(assigners(sample, medoids, assignment)));
+            final List<List<Integer>> clusters = new ArrayList<>(pivotsCount);
+            for (int i = 0; i < pivotsCount; i++) {
+                clusters.add(new ArrayList<Integer>());
+            }
+            for (int i = 0; i < sample.size(); i++) {
+                clusters.get(assignment[i]).add(i);
+            }
+
+            final List<MedoidSolver> solvers = new ArrayList<>(pivotsCount);
+            for (int i = 0; i < pivotsCount; i++) {
+                solvers.add(new MedoidSolver(sample, clusters.get(i), medoids[i]));
+            }
+
+            boolean changed = false;
+            final List<Integer> newMedoids = waitFor(SharedPool.get().invokeAll(solvers));
+            for (int i = 0; i < pivotsCount; i++) {
+                changed |= medoids[i] != newMedoids.get(i);
+                medoids[i] = newMedoids.get(i);
+            }
+
+            if (!changed) {
+                break;
+            }
+        }
+
+        final List<D> pivotObjects = new ArrayList<>(pivotsCount);
+        for (int medoid : medoids) {
+            pivotObjects.add(sample.get(medoid));
+        }
+
+        return pivotsOf(pivotObjects);
+    }
+
+    private int[] initialMedoids(List<D> sample, int pivotsCount) {
+        final int sampleSize = sample.size();
+        final double[] nearestDistances = new double[sampleSize];
+        Arrays.fill(nearestDistances, Double.POSITIVE_INFINITY);
+        final int[] medoids = new int[pivotsCount];
+        medoids[0] = random.nextInt(sampleSize);
+        for (int i = 1; i < pivotsCount; i++) {
+            nearestDistances[medoids[i - 1]] = -1;
+            updateNearestDistances(sample, nearestDistances, sample.get(medoids[i - 1]));
+
+            double sum = 0;
+            for (double distance : nearestDistances) {
+                if (distance > 0) {
+                    sum += distance * distance;
+                }
+            }
+
+            medoids[i] = sum > 0 ? sampleBySquaredDistance(nearestDistances, random.nextDouble() * sum)
+                    : unselected(nearestDistances);
+        }
+
+        return medoids;
+    }
+
+    private static int sampleBySquaredDistance(double[] nearestDistances, double threshold) {
+        double sum = 0;
+        int last = 0;
+        for (int i = 0; i < nearestDistances.length; i++) {
+            final double distance = nearestDistances[i];
+            if (distance > 0) {
+                sum += distance * distance;
+                last = i;
+                if (sum >= threshold) {
+                    return i;
+                }
+            }
+        }
+
+        // Rounding of the sum
+        return last;
+    }
+
+    /**
+     * @return first object which wasn't selected, used when all objects are duplicates of selected ones
+     */
+    private static int unselected(double[] nearestDistances) {
+        for (int i = 0; i < nearestDistances.length; i++) {
+            if (nearestDistances[i] >= 0) {
+                return i;
+            }
+        }
+
+        throw new IllegalStateException("All objects are selected");
+    }
+
+    private List<NearestMedoidAssigner> assigners(List<D> sample, int[] medoids, int[] assignment) {
+        final List<NearestMedoidAssigner> assigners = new ArrayList<>();
+        for (int i = 0; i < sample.size(); i += SOLVER_GRANULARITY) {
+            assigners.add(new NearestMedoidAssigner(sample, medoids, assignment, i,
+                    FastMath.min(i + SOLVER_GRANULARITY, sample.size())));
+        }
+
+        return assigners;
+    }
+
+    /**
+     * Updates distances of {@code objects} to their nearest pivot by distances to {@code pivotObject}. Negative
+     * distances mark selected objects and aren't updated.
+     *
+     * @return index of object farthest from its nearest pivot
+     */
+    private int updateNearestDistances(List<D> objects, double[] nearestDistances, D pivotObject) {
+        final List<NearestDistanceSolver> solvers = new ArrayList<>();
+        for (int i = 0; i < objects.size(); i += SOLVER_GRANULARITY) {
+            solvers.add(new NearestDistanceSolver(objects, nearestDistances, pivotObject, i,
+                    FastMath.min(i + SOLVER_GRANULARITY, objects.size())));
+        }
+
+        int farthest = 0;
+        for (int index : waitFor(SharedPool.get().invokeAll(solvers))) {
+            if (nearestDistances[index] > nearestDistances[farthest]) {
+                farthest = index;
+            }
+        }
+
+        return farthest;
+    }
+
+    private List<D> sample(int sampleSize) {
+        final int[] indexes = indexes(objectsSize);
+        final List<D> sample = new ArrayList<>(sampleSize);
+        for (int i = 0; i < sampleSize; i++) {
+            swap(indexes, i, i + random.nextInt(objectsSize - i));
+            sample.add(objects.get(indexes[i]));
+        }
+
+        return sample;
+    }
+
+    private void checkPivotsCount(int pivotsCount) {
+        if (pivotsCount < 1 || pivotsCount > objectsSize) {
+            throw new IllegalArgumentException(
+                    "Pivots count must be greater than 0 and not greater than objects count " + objectsSize
+                            + ". Current: " + pivotsCount);
+        }
+    }
+
+    private static <D extends Distanceable<D>> List<Pivot<D>> pivotsOf(List<D> pivotObjects) {
+        final List<Pivot<D>> pivots = new ArrayList<>(pivotObjects.size());
+        for (int i = 0; i < pivotObjects.size(); i++) {
+            pivots.add(new Pivot<>(i, pivotObjects.get(i)));
+        }
+
+        return pivots;
+    }
+
+    private static int[] indexes(int size) {
+        final int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = i;
+        }
+
+        return indexes;
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        final int value = array[i];
+        array[i] = array[j];
+        array[j] = value;
+    }
+
+    private static <R> List<R> waitFor(List<Future<R>> futures) {
+        final List<R> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Selection of pivots was interrupted!", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error during selection of pivots!", e.getCause());
+        }
+
+        return results;
+    }
+
+    /**
+     * Calculates differences of distances of sampled pairs to the candidate
+     */
+    private class CandidateEvaluator implements Callable<double[]> {
+        private final D candidate;
+        private final List<D> pairObjects;
+
+        private CandidateEvaluator(D candidate, List<D> pairObjects) {
+            this.candidate = candidate;
+            this.pairObjects = pairObjects;
+        }
+
+        @Override
+        public double[] call() {
+            final double[] differences = new double[pairObjects.size() / 2];
+            for (int i = 0; i < differences.length; i++) {
+                differences[i] = FastMath.abs(candidate.distance(pairObjects.get(2 * i))
+                        - candidate.distance(pairObjects.get(2 * i + 1)));
+            }
+
+            return differences;
+        }
+    }
+
+    private class NearestDistanceSolver implements Callable<Integer> {
+        private final List<D> objects;
+        private final double[] nearestDistances;
+        private final D pivotObject;
+        private final int from;
+        private final int to;
+
+        private NearestDistanceSolver(List<D> objects, double[] nearestDistances, D pivotObject, int from, int to) {
+            this.objects = objects;
+            this.nearestDistances = nearestDistances;
+            this.pivotObject = pivotObject;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Integer call() {
+            int farthest = from;
+            for (int i = from; i < to; i++) {
+                if (nearestDistances[i] >= 0) {
+                    nearestDistances[i] = FastMath.min(nearestDistances[i], pivotObject.distance(objects.get(i)));
+                }
+                if (nearestDistances[i] > nearestDistances[farthest]) {
+                    farthest = i;
+                }
+            }
+
+            return farthest;
+        }
+    }
+
+    /**
+     * Assigns objects of sample from {@code from} to {@code to} to their nearest medoid
+     */
+    private class NearestMedoidAssigner implements Callable<Void> {
+        private final List<D> sample;
+        private final int[] medoids;
+        private final int[] assignment;
+        private final int from;
+        private final int to;
+
+        private NearestMedoidAssigner(List<D> sample, int[] medoids, int[] assignment, int from, int to) {
+            this.sample = sample;
+            this.medoids = medoids;
+            this.assignment = assignment;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Void call() {
+            for (int i = from; i < to; i++) {
+                final D object = sample.get(i);
+                double nearestDistance = Double.POSITIVE_INFINITY;
+                for (int j = 0; j < medoids.length; j++) {
+                    final double distance = object.distance(sample.get(medoids[j]));
+                    if (distance < nearestDistance) {
+                        nearestDistance = distance;
+                        assignment[i] = j;
+                    }
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Finds object of cluster with the least sum of distances to the other objects of the cluster. Current medoid
+     * is kept when no object is strictly better, so iterations stop.
+     */
+    private class MedoidSolver implements Callable<Integer> {
+        private final List<D> sample;
+        private final List<Integer> cluster;
+        private final int medoid;
+
+        private MedoidSolver(List<D> sample, List<Integer> cluster, int medoid) {
+            this.sample = sample;
+            this.cluster = cluster;
+            this.medoid = medoid;
+        }
+
+        @Override
+        public Integer call() {
+            int bestMedoid = medoid;
+            double bestSum = sumOfDistances(medoid, Double.POSITIVE_INFINITY);
+            for (int candidate : cluster) {
+                final double sum = sumOfDistances(candidate, bestSum);
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    bestMedoid = candidate;
+                }
+            }
+
+            return bestMedoid;
+        }
+
+        /**
+         * @return sum of distances of {@code candidate} to objects of cluster, or any sum greater than {@code bound}
+         */
+        private double sumOfDistances(int candidate, double bound) {
+            final D candidateObject = sample.get(candidate);
+            double sum = 0;
+            for (int object : cluster) {
+                sum += candidateObject.distance(sample.get(object));
+                if (sum > bound) {
+                    break;
+                }
+            }
+
+            return sum;
+        }
+    }
+}
@@ -29,7 +29,7 @@ package cz.rank.vsfs.mindex;
 import net.jcip.annotations.Immutable;
 
 @Immutable
-public class Point implements Distanceable<Point> {
+public class Point implements BoundedDistanceable<Point> {
     private final double x;
     private final double y;
 
@@ -45,6 +45,22 @@ public class Point implements Distanceable<Point> {
         return Math.sqrt(distX * distX + distY * distY);
     }
 
+    @Override
+    public double distance(final Point point, double bound) {
+        final double distX = x - point.x;
+        final double distXPow2 = distX * distX;
+        if (distXPow2 > bound * bound) {
+            // Distance is at least |distX|, which is returned only when it is greater than bound after rounding
+            final double distance = Math.abs(distX);
+            if (distance > bound) {
+                return distance;
+            }
+        }
+
+        final double distY = y - point.y;
+        return Math.sqrt(distXPow2 + distY * distY);
+    }
+
     @Override
     public String toString() {
         return "Point [x=" + x + ", y=" + y + "]";
@@ -0,0 +1,249 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cz.rank.vsfs.mindex;
+
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pivot distance table which keeps distances quantized to 8 or 16 bit codes, so it takes a fraction of memory of
+ * {@link DensePivotDistanceTable}. Every pivot has its own scale, which divides range from zero to the maximum
+ * distance of a sample of objects to the pivot into equal steps. Code of distance is its step and the table
+ * returns middle of the step, so returned distance differs from the exact one by at most half of the step, see
+ * {@link #pivotDistanceError(int)}. Distances which don't fit into the range are kept exactly aside of codes.
+ * <p/>
+ * Distance to the first pivot of permutation is kept exactly too, because keys of objects are computed from it.
+ * <p/>
+ * Built table can be read from multiple threads, but objects can't be added or removed concurrently.
+ *
+ * @author Karel Rank
+ */
+public class QuantizedPivotDistanceTable<D extends Distanceable<D>> extends AbstractDensePivotDistanceTable<D> {
+    /**
+     * Maximum number of objects whose distances to pivots set scales of pivots
+     */
+    private static final int SCALE_SAMPLE_SIZE = 1000;
+    /**
+     * Bytes taken by an entry of exactly kept distances, i.e. key, value and state of hash map slot
+     */
+    private static final int EXACT_ENTRY_BYTES = 13;
+    private final int bits;
+    /**
+     * Code of distances which are kept exactly
+     */
+    private final int exactCode;
+    private final double[] steps;
+    private final double[] errors;
+    private final TIntDoubleHashMap exactDistances = new TIntDoubleHashMap();
+    private byte[] byteCodes = null;
+    private short[] shortCodes = null;
+    private double[] firstDistances = new double[0];
+
+    /**
+     * @param bits bits of quantized distances, either 8 or 16
+     */
+    public QuantizedPivotDistanceTable(double maximumDistance, List<Pivot<D>> pivots, List<D> objects, int bits) {
+        super(maximumDistance, pivots, objects);
+        if (bits != 8 && bits != 16) {
+            throw new IllegalArgumentException("Quantized distances must have 8 or 16 bits. Current: " + bits);
+        }
+
+        this.bits = bits;
+        exactCode = (1 << bits) - 1;
+        if (bits == 8) {
+            byteCodes = new byte[0];
+        } else {
+            shortCodes = new short[0];
+        }
+
+        steps = new double[pivotsSize];
+        errors = new double[pivotsSize];
+        // Objects added to table which wasn't calculated are scaled to normalized maximum distance
+        Arrays.fill(steps, 1d / exactCode);
+        Arrays.fill(errors, 0.5d / exactCode);
+    }
+
+    public QuantizedPivotDistanceTable(List<Pivot<D>> pivots, List<D> objects, int bits) {
+        this(1d, pivots, objects, bits);
+    }
+
+    /**
+     * Derives scales of pivots from a sample of objects and calculates distances
+     */
+    @Override
+    public void calculate() {
+        calculateScales();
+        super.calculate();
+    }
+
+    private void calculateScales() {
+        final int objectsSize = objects.size();
+        if (objectsSize == 0) {
+            return;
+        }
+
+        final double[] maximums = new double[pivotsSize];
+        final int stride = FastMath.max(1, objectsSize / SCALE_SAMPLE_SIZE);
+        for (int i = 0; i < objectsSize; i += stride) {
+            final D object = objects.get(i);
+            for (int j = 0; j < pivotsSize; j++) {
+                maximums[j] = FastMath.max(maximums[j], pivots[j].distance(object) / maximumDistance);
+            }
+        }
+
+        for (int i = 0; i < pivotsSize; i++) {
+            if (maximums[i] > 0) {
+                steps[i] = maximums[i] / exactCode;
+                errors[i] = steps[i] / 2;
+            }
+        }
+    }
+
+    @Override
+    public double firstPivotDistance(D object) {
+        return firstDistances[ordinalOf(object)];
+    }
+
+    @Override
+    public double distanceAt(D object, int index) {
+        final int ordinal = ordinalOf(object);
+        if (index == 0) {
+            return firstDistances[ordinal];
+        }
+
+        final int offset = ordinal * pivotsSize;
+        final int pivotIndex = pivotIndexAt(offset + index);
+        return distance(offset + pivotIndex, pivotIndex);
+    }
+
+    @Override
+    public double pivotDistance(D object, int pivotIndex) {
+        final int ordinal = ordinalOf(object);
+        final int offset = ordinal * pivotsSize;
+        if (pivotIndexAt(offset) == pivotIndex) {
+            return firstDistances[ordinal];
+        }
+
+        return distance(offset + pivotIndex, pivotIndex);
+    }
+
+    @Override
+    public double pivotDistanceError(int pivotIndex) {
+        return errors[pivotIndex];
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * @return number of distances which don't fit into scales of their pivots, so they are kept exactly
+     */
+    public int getExactDistancesCount() {
+        return exactDistances.size();
+    }
+
+    /**
+     * @return bytes of memory saved compared to {@link DensePivotDistanceTable} of the same objects. Both tables
+     *         keep the same permutations, so only storage of distances is compared.
+     */
+    public long getSavedBytes() {
+        final long ordinalsCapacity = getOrdinalsCapacity();
+        final long denseBytes = ordinalsCapacity * pivotsSize * 8;
+        final long quantizedBytes = ordinalsCapacity * pivotsSize * (bits / 8) + ordinalsCapacity * 8
+                + (long) exactDistances.capacity() * EXACT_ENTRY_BYTES;
+
+        return denseBytes - quantizedBytes;
+    }
+
+    private double distance(int position, int pivotIndex) {
+        final int code = codeAt(position);
+        if (code == exactCode) {
+            return exactDistances.get(position);
+        }
+
+        return (code + 0.5d) * steps[pivotIndex];
+    }
+
+    private int codeAt(int position) {
+        if (byteCodes != null) {
+            return byteCodes[position] & 0xFF;
+        }
+
+        return shortCodes[position] & 0xFFFF;
+    }
+
+    @Override
+    protected void growDistances(int ordinalsCapacity) {
+        firstDistances = Arrays.copyOf(firstDistances, ordinalsCapacity);
+        if (byteCodes != null) {
+            byteCodes = Arrays.copyOf(byteCodes, ordinalsCapacity * pivotsSize);
+        } else {
+            shortCodes = Arrays.copyOf(shortCodes, ordinalsCapacity * pivotsSize);
+        }
+    }
+
+    /**
+     * Code is floor of distance divided by step of the pivot. Distances out of the range of codes, or whose middle
+     * of step isn't within error because of rounding, get code of exactly kept distances.
+     */
+    @Override
+    protected void storeDistances(int ordinal, double[] distances, int[] permutation) {
+        final int offset = ordinal * pivotsSize;
+        firstDistances[ordinal] = distances[permutation[0]];
+        for (int i = 0; i < pivotsSize; i++) {
+            final double distance = distances[i];
+            int code = (int) (distance / steps[i]);
+            if (code >= exactCode || FastMath.abs((code + 0.5d) * steps[i] - distance) > errors[i]) {
+                code = exactCode;
+                synchronized (exactDistances) {
+                    exactDistances.put(offset + i, distance);
+                }
+            }
+
+            if (byteCodes != null) {
+                byteCodes[offset + i] = (byte) code;
+            } else {
+                shortCodes[offset + i] = (short) code;
+            }
+        }
+    }
+
+    @Override
+    protected void releaseOrdinal(int ordinal) {
+        if (exactDistances.isEmpty()) {
+            return;
+        }
+
+        final int offset = ordinal * pivotsSize;
+        for (int i = 0; i < pivotsSize; i++) {
+            exactDistances.remove(offset + i);
+        }
+    }
+}
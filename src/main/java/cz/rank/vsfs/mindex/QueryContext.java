@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reusable state of range query. Distances of query object to pivots are kept in primitive arrays, clusters waiting
+ * for traversal in array backed stack and candidates from B+Tree in one list, so repeated queries through the same
+ * context don't allocate anything except of found objects.
+ * <p/>
+ * Context is created by {@link MIndex#createQueryContext()} and can be used only with the index which created it.
+ * Every thread needs its own context.
+ *
+ * @author Karel Rank
+ */
+@NotThreadSafe
+public abstract class QueryContext<D extends Distanceable<D>> extends ClusterTraversal<D> {
+    /**
+     * Pivot indexes sorted by distance to query object
+     */
+    final int[] pivotPermutation;
+    final List<D> candidates = new ArrayList<>();
+    private Cluster<D>[] clusterStack;
+    private int clusterStackSize = 0;
+
+    @SuppressWarnings("unchecked")
+    QueryContext(MIndex<D> index, int initialStackSize) {
+        super(index, new double[index.pivotsSize], new int[index.pivotsSize]);
+        pivotPermutation = new int[index.pivotsSize];
+        clusterStack = (Cluster<D>[]) new Cluster<?>[initialStackSize];
+    }
+
+    /**
+     * @return statistics of the last query performed with this context, they are reset by the next query
+     */
+    public QueryStats getQueryStats() {
+        return stats;
+    }
+
+    MIndex<D> getIndex() {
+        return index;
+    }
+
+    abstract void rangeQuery(D queryObject, double range, Collection<? super D> result);
+
+    void calculatePivotDistances(D queryObject) {
+        final List<Pivot<D>> pivots = index.pivots;
+        final int size = pivots.size();
+        for (int i = 0; i < size; ++i) {
+            final Pivot<D> pivot = pivots.get(i);
+            queryPivotDistances[pivot.getIndex()] = pivot.distance(queryObject) / index.maximumDistance;
+            pivotPermutation[i] = pivot.getIndex();
+        }
+
+        PivotPermutations.sortByDistance(queryPivotDistances, pivotPermutation);
+        PivotPermutations.interleaveNearestAndFarthest(pivotPermutation, pivotFilterOrder);
+    }
+
+    double firstPivotDistance() {
+        return distanceAt(0);
+    }
+
+    /**
+     * @param index position in pivot permutation of query object
+     * @return normalized distance to pivot at {@code index}
+     */
+    double distanceAt(int index) {
+        return queryPivotDistances[pivotPermutation[index]];
+    }
+
+    void pushSubClusters(Cluster<D> cluster) {
+        final List<Cluster<D>> subClusters = cluster.getSubClusters();
+        final int size = subClusters.size();
+        if (clusterStackSize + size > clusterStack.length) {
+            final int newLength = FastMath.max(clusterStack.length * 2, clusterStackSize + size);
+            clusterStack = Arrays.copyOf(clusterStack, newLength);
+        }
+
+        for (int i = 0; i < size; ++i) {
+            clusterStack[clusterStackSize++] = subClusters.get(i);
+        }
+    }
+
+    boolean hasClusters() {
+        return clusterStackSize > 0;
+    }
+
+    Cluster<D> popCluster() {
+        final Cluster<D> cluster = clusterStack[--clusterStackSize];
+        clusterStack[clusterStackSize] = null;
+
+        return cluster;
+    }
+
+    /**
+     * Releases clusters and candidates of interrupted query
+     */
+    void clear() {
+        while (hasClusters()) {
+            popCluster();
+        }
+        candidates.clear();
+    }
+}
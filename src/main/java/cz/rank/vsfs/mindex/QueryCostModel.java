@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.Immutable;
+import org.apache.commons.math3.util.FastMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Costs of basic operations of range query in nanoseconds used by query planner
+ *
+ * @author Karel Rank
+ */
+@Immutable
+public class QueryCostModel {
+    /**
+     * Cost of visiting a cluster, i.e. checking its pruning constraints, relative to a pivot check
+     */
+    static final double CLUSTER_COST_RATIO = 5;
+    /**
+     * Cost of taking a candidate from B+Tree relative to a pivot check
+     */
+    static final double CANDIDATE_COST_RATIO = 1;
+    private static final Logger logger = LoggerFactory.getLogger(QueryCostModel.class);
+    private static final int CALIBRATION_OPERATIONS = 5000;
+    private static final int CALIBRATION_ROUNDS = 20;
+    private final double distanceCost;
+    private final double pivotCheckCost;
+    private final double candidateCost;
+    private final double clusterCost;
+
+    /**
+     * @param distanceCost   cost of distance computation
+     * @param pivotCheckCost cost of comparing distances of query object and object to single pivot
+     * @param candidateCost  cost of taking single candidate from B+Tree
+     * @param clusterCost    cost of visiting single cluster
+     */
+    public QueryCostModel(double distanceCost, double pivotCheckCost, double candidateCost, double clusterCost) {
+        if (distanceCost <= 0 || pivotCheckCost <= 0 || candidateCost <= 0 || clusterCost <= 0) {
+            throw new IllegalArgumentException(
+                    "Costs must be greater than 0. Current distance: " + distanceCost + ", pivot check: " + pivotCheckCost + ", candidate: " + candidateCost + ", cluster: " + clusterCost);
+        }
+
+        this.distanceCost = distanceCost;
+        this.pivotCheckCost = pivotCheckCost;
+        this.candidateCost = candidateCost;
+        this.clusterCost = clusterCost;
+    }
+
+    /**
+     * Measures costs of distance computation and pivot check on {@code objects}. The fastest of several rounds is
+     * taken, so the first round warms up the code.
+     */
+    static <D extends Distanceable<D>> QueryCostModel calibrate(List<D> objects, int pivotsSize,
+                                                                PivotDistanceTable<D> pivotDistanceTable) {
+        if (objects.isEmpty()) {
+            return new QueryCostModel(1, 1, CANDIDATE_COST_RATIO, CLUSTER_COST_RATIO);
+        }
+
+        double distanceCost = Double.POSITIVE_INFINITY;
+        double pivotCheckCost = Double.POSITIVE_INFINITY;
+        double checksum = 0;
+        for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < CALIBRATION_OPERATIONS; i++) {
+                checksum += objects.get(i % objects.size()).distance(objects.get((i * 7 + 1) % objects.size()));
+            }
+            final long distancesEnd = System.nanoTime();
+            for (int i = 0; i < CALIBRATION_OPERATIONS; i++) {
+                checksum += pivotDistanceTable.pivotDistance(objects.get(i % objects.size()), i % pivotsSize);
+            }
+            final long end = System.nanoTime();
+
+            distanceCost = FastMath.min(distanceCost, (double) (distancesEnd - start) / CALIBRATION_OPERATIONS);
+            pivotCheckCost = FastMath.min(pivotCheckCost, (double) (end - distancesEnd) / CALIBRATION_OPERATIONS);
+        }
+
+        // Costs can't be zero even when timer is too coarse
+        distanceCost = FastMath.max(distanceCost, 1);
+        pivotCheckCost = FastMath.max(pivotCheckCost, 1);
+
+        final QueryCostModel queryCostModel = new QueryCostModel(distanceCost, pivotCheckCost,
+                pivotCheckCost * CANDIDATE_COST_RATIO, pivotCheckCost * CLUSTER_COST_RATIO);
+        // Checksum is logged, so measured computations can't be eliminated
+        logger.info("Calibrated query costs: {}, checksum: {}", queryCostModel, checksum);
+
+        return queryCostModel;
+    }
+
+    public double getDistanceCost() {
+        return distanceCost;
+    }
+
+    public double getPivotCheckCost() {
+        return pivotCheckCost;
+    }
+
+    public double getCandidateCost() {
+        return candidateCost;
+    }
+
+    public double getClusterCost() {
+        return clusterCost;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("QueryCostModel");
+        sb.append("{distanceCost=").append(distanceCost);
+        sb.append(", pivotCheckCost=").append(pivotCheckCost);
+        sb.append(", candidateCost=").append(candidateCost);
+        sb.append(", clusterCost=").append(clusterCost);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline and cancellation token of a query. Queries check it while traversing clusters and refining objects and
+ * when it expires they stop and return objects found so far as incomplete result.
+ * <p/>
+ * Query can be cancelled from any thread by {@link #cancel()}.
+ *
+ * @author Karel Rank
+ */
+@ThreadSafe
+public class QueryDeadline {
+    /**
+     * Deadline which never expires and cannot be cancelled
+     */
+    public static final QueryDeadline NONE = new QueryDeadline(false, 0) {
+        @Override
+        public void cancel() {
+            throw new UnsupportedOperationException("Query without deadline cannot be cancelled");
+        }
+    };
+    private final boolean timed;
+    private final long deadlineNanos;
+    private volatile boolean cancelled = false;
+
+    private QueryDeadline(boolean timed, long deadlineNanos) {
+        this.timed = timed;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @param timeout time after which the query is stopped
+     * @param unit    unit of {@code timeout}
+     * @return deadline expiring after {@code timeout}, it can be also cancelled
+     */
+    public static QueryDeadline after(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must be greater or equal to 0. Current: " + timeout);
+        }
+
+        return new QueryDeadline(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * @return deadline which expires only when it is cancelled
+     */
+    public static QueryDeadline cancellable() {
+        return new QueryDeadline(false, 0);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isExpired() {
+        return cancelled || (timed && System.nanoTime() - deadlineNanos >= 0);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("QueryDeadline");
+        sb.append("{timed=").append(timed);
+        sb.append(", cancelled=").append(cancelled);
+        sb.append('}');
+        return sb.toString();
+    }
+}
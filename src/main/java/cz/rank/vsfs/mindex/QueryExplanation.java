@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Query plan compared with the query it was executed by. Actual cost is computed by the same cost model as
+ * estimated one from statistics of the query, so estimates can be checked independently of time measurement.
+ *
+ * @author Karel Rank
+ */
+@Immutable
+public class QueryExplanation {
+    private final QueryPlan plan;
+    private final int foundObjects;
+    private final QueryStats queryStats;
+    private final double actualCost;
+    private final long elapsedNanos;
+
+    QueryExplanation(QueryPlan plan, int foundObjects, QueryStats queryStats, double actualCost,
+                     long elapsedNanos) {
+        this.plan = plan;
+        this.foundObjects = foundObjects;
+        this.queryStats = queryStats;
+        this.actualCost = actualCost;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public QueryPlan getPlan() {
+        return plan;
+    }
+
+    public int getFoundObjects() {
+        return foundObjects;
+    }
+
+    public QueryStats getQueryStats() {
+        return queryStats;
+    }
+
+    /**
+     * @return cost of executed query in nanoseconds computed from its statistics
+     */
+    public double getActualCost() {
+        return actualCost;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("QueryExplanation");
+        sb.append("{strategy=").append(plan.getStrategy());
+        sb.append(", estimatedCost=").append(plan.getEstimatedCost());
+        sb.append(", actualCost=").append(actualCost);
+        sb.append(", elapsedNanos=").append(elapsedNanos);
+        sb.append(", foundObjects=").append(foundObjects);
+        sb.append(", plan=").append(plan);
+        sb.append(", queryStats=").append(queryStats);
+        sb.append('}');
+        return sb.toString();
+    }
+}
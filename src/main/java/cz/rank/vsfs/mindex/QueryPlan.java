@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Strategy chosen by query planner for range query together with estimates it is based on. Costs are estimated in
+ * nanoseconds according to {@link QueryCostModel}.
+ *
+ * @author Karel Rank
+ */
+@Immutable
+public class QueryPlan {
+    private final QueryStrategy strategy;
+    private final double estimatedSelectivity;
+    private final double estimatedCandidates;
+    private final double estimatedRefinements;
+    private final double indexCost;
+    private final double pivotFilterScanCost;
+    private final double sequentialScanCost;
+
+    /**
+     * @param estimatedSelectivity estimated fraction of objects in range
+     * @param estimatedCandidates  estimated number of objects taken from B+Tree by index traversal
+     * @param estimatedRefinements estimated number of objects which pass pivot filter
+     */
+    QueryPlan(double estimatedSelectivity, double estimatedCandidates, double estimatedRefinements,
+              double indexCost, double pivotFilterScanCost, double sequentialScanCost) {
+        this.estimatedSelectivity = estimatedSelectivity;
+        this.estimatedCandidates = estimatedCandidates;
+        this.estimatedRefinements = estimatedRefinements;
+        this.indexCost = indexCost;
+        this.pivotFilterScanCost = pivotFilterScanCost;
+        this.sequentialScanCost = sequentialScanCost;
+
+        if (indexCost <= pivotFilterScanCost && indexCost <= sequentialScanCost) {
+            strategy = QueryStrategy.INDEX;
+        } else if (pivotFilterScanCost <= sequentialScanCost) {
+            strategy = QueryStrategy.PIVOT_FILTER_SCAN;
+        } else {
+            strategy = QueryStrategy.SEQUENTIAL_SCAN;
+        }
+    }
+
+    public QueryStrategy getStrategy() {
+        return strategy;
+    }
+
+    public double getEstimatedSelectivity() {
+        return estimatedSelectivity;
+    }
+
+    public double getEstimatedCandidates() {
+        return estimatedCandidates;
+    }
+
+    public double getEstimatedRefinements() {
+        return estimatedRefinements;
+    }
+
+    /**
+     * @return estimated cost of {@code strategy} in nanoseconds
+     */
+    public double getEstimatedCost(QueryStrategy strategy) {
+        switch (strategy) {
+            case INDEX:
+                return indexCost;
+            case PIVOT_FILTER_SCAN:
+                return pivotFilterScanCost;
+            default:
+                return sequentialScanCost;
+        }
+    }
+
+    /**
+     * @return estimated cost of chosen strategy in nanoseconds
+     */
+    public double getEstimatedCost() {
+        return getEstimatedCost(strategy);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("QueryPlan");
+        sb.append("{strategy=").append(strategy);
+        sb.append(", estimatedSelectivity=").append(estimatedSelectivity);
+        sb.append(", estimatedCandidates=").append(estimatedCandidates);
+        sb.append(", estimatedRefinements=").append(estimatedRefinements);
+        sb.append(", indexCost=").append(indexCost);
+        sb.append(", pivotFilterScanCost=").append(pivotFilterScanCost);
+        sb.append(", sequentialScanCost=").append(sequentialScanCost);
+        sb.append('}');
+        return sb.toString();
+    }
+}
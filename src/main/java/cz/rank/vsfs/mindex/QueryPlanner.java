@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * Estimates costs of range query strategies. Selectivity of pivot filter is estimated from histogram of distances
+ * to pivots, number of candidates of index traversal is estimated from sizes of leaf clusters which can't be pruned
+ * and part of their keys which is in the range.
+ *
+ * @author Karel Rank
+ */
+@ThreadSafe
+class QueryPlanner<D extends Distanceable<D>> {
+    private final DistanceHistogram distanceHistogram;
+    private final Cluster<D> clusterRoot;
+    private final Collection<D> objects;
+    private final int pivotsSize;
+
+    /**
+     * @param objects indexed objects which are counted at every plan, so objects inserted later are included
+     */
+    QueryPlanner(DistanceHistogram distanceHistogram, Cluster<D> clusterRoot, Collection<D> objects, int pivotsSize) {
+        this.distanceHistogram = distanceHistogram;
+        this.clusterRoot = clusterRoot;
+        this.objects = objects;
+        this.pivotsSize = pivotsSize;
+    }
+
+    /**
+     * @param queryPivotDistances normalized distances of query object to pivots indexed by pivot index
+     * @param normalizedRange     normalized range of the query
+     */
+    QueryPlan plan(double[] queryPivotDistances, double normalizedRange, QueryCostModel costModel) {
+        final int objectsCount = objects.size();
+        final double selectivity = distanceHistogram.fractionWithin(normalizedRange);
+        double pivotFilterFraction = 1;
+        double firstPivotDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < pivotsSize; i++) {
+            final double distance = queryPivotDistances[i];
+            pivotFilterFraction = FastMath.min(pivotFilterFraction,
+                    distanceHistogram.fraction(i, distance - normalizedRange, distance + normalizedRange));
+            firstPivotDistance = FastMath.min(firstPivotDistance, distance);
+        }
+        final double refinements = FastMath.max(pivotFilterFraction, selectivity) * objectsCount;
+
+        final TraversalEstimate traversal = new TraversalEstimate(queryPivotDistances, firstPivotDistance,
+                normalizedRange);
+        traversal.estimate();
+        final double indexRefinements = FastMath.min(traversal.candidates, refinements);
+
+        final double pivotDistancesCost = pivotsSize * costModel.getDistanceCost();
+        final double indexCost = pivotDistancesCost + traversal.visitedClusters * costModel.getClusterCost() +
+                traversal.candidates * costModel.getCandidateCost() +
+                pivotChecks(traversal.candidates, indexRefinements) * costModel.getPivotCheckCost() +
+                indexRefinements * costModel.getDistanceCost();
+        final double pivotFilterScanCost = pivotDistancesCost +
+                pivotChecks(objectsCount, refinements) * costModel.getPivotCheckCost() +
+                refinements * costModel.getDistanceCost();
+        final double sequentialScanCost = objectsCount * costModel.getDistanceCost();
+
+        return new QueryPlan(selectivity, traversal.candidates, refinements, indexCost, pivotFilterScanCost,
+                sequentialScanCost);
+    }
+
+    /**
+     * Filtered objects are mostly rejected by the first checked pivot, objects passing the filter are checked
+     * against all pivots
+     */
+    private double pivotChecks(double objects, double refinements) {
+        return objects + refinements * (pivotsSize - 1);
+    }
+
+    /**
+     * Computes cost of executed query from its statistics
+     */
+    double actualCost(QueryStrategy strategy, QueryStats stats, QueryCostModel costModel) {
+        final double refinements = stats.getCandidates() - stats.getPivotFilter();
+        final double pivotDistancesCost = pivotsSize * costModel.getDistanceCost();
+        switch (strategy) {
+            case INDEX:
+                return pivotDistancesCost + stats.getVisitedClusters() * costModel.getClusterCost() +
+                        stats.getCandidates() * costModel.getCandidateCost() +
+                        stats.getPivotFilterChecks() * costModel.getPivotCheckCost() +
+                        refinements * costModel.getDistanceCost();
+            case PIVOT_FILTER_SCAN:
+                return pivotDistancesCost + stats.getPivotFilterChecks() * costModel.getPivotCheckCost() +
+                        refinements * costModel.getDistanceCost();
+            default:
+                return refinements * costModel.getDistanceCost();
+        }
+    }
+
+    /**
+     * Walks cluster tree like range query, but only sums sizes of leaf clusters
+     */
+    private class TraversalEstimate implements ClusterVisitor<D> {
+        private final double[] queryPivotDistances;
+        private final double firstPivotDistance;
+        private final double normalizedRange;
+        private final Deque<Cluster<D>> clusters = new ArrayDeque<>();
+        private double candidates = 0;
+        private long visitedClusters = 0;
+
+        private TraversalEstimate(double[] queryPivotDistances, double firstPivotDistance, double normalizedRange) {
+            this.queryPivotDistances = queryPivotDistances;
+            this.firstPivotDistance = firstPivotDistance;
+            this.normalizedRange = normalizedRange;
+        }
+
+        private void estimate() {
+            clusters.addAll(clusterRoot.getSubClusters());
+            while (!clusters.isEmpty()) {
+                final Cluster<D> cluster = clusters.pop();
+                visitedClusters++;
+                if (cluster.pivotBoxLowerBound(queryPivotDistances) <= normalizedRange) {
+                    cluster.accept(this);
+                }
+            }
+        }
+
+        @Override
+        public void enterInternalCluster(InternalCluster<D> internalCluster) {
+            clusters.addAll(internalCluster.getSubClusters());
+        }
+
+        /**
+         * Keys of the leaf cluster are expected to be spread uniformly between its minimal and maximal key
+         */
+        @Override
+        public void enterLeafCluster(LeafCluster<D> leafCluster) {
+            final double rMin = frac(leafCluster.getKeyMin());
+            final double rMax = frac(leafCluster.getKeyMax());
+            final double from = FastMath.max(rMin, firstPivotDistance - normalizedRange);
+            final double to = FastMath.min(rMax, firstPivotDistance + normalizedRange);
+
+            if (from > to) {
+                return;
+            }
+
+            final double keysFraction = rMax > rMin ? (to - from) / (rMax - rMin) : 1;
+            candidates += leafCluster.getKeysCount() * keysFraction;
+        }
+
+        private double frac(double x) {
+            return x - FastMath.floor(x);
+        }
+    }
+}
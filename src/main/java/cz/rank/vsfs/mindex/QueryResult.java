@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import java.util.Collection;
+
+/**
+ * Objects found by query together with statistics of the query and flag whether the query finished
+ *
+ * @author Karel Rank
+ */
+public class QueryResult<D> {
+    private final Collection<D> objects;
+    private final QueryStats queryStats;
+    private final boolean complete;
+
+    public QueryResult(Collection<D> objects, QueryStats queryStats) {
+        this(objects, queryStats, true);
+    }
+
+    public QueryResult(Collection<D> objects, QueryStats queryStats, boolean complete) {
+        this.objects = objects;
+        this.queryStats = queryStats;
+        this.complete = complete;
+    }
+
+    public Collection<D> getObjects() {
+        return objects;
+    }
+
+    public QueryStats getQueryStats() {
+        return queryStats;
+    }
+
+    /**
+     * @return {@code false} when the query was stopped by its deadline, so only part of objects was found
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("QueryResult");
+        sb.append("{objects=").append(objects.size());
+        sb.append(", queryStats=").append(queryStats);
+        sb.append(", complete=").append(complete);
+        sb.append('}');
+        return sb.toString();
+    }
+}
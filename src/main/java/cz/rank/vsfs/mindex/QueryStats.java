@@ -26,55 +26,273 @@
 
 package cz.rank.vsfs.mindex;
 
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+
 /**
+ * Statistics of queries. Every query collects its own statistics, so instances aren't thread safe.
+ *
  * @author Karel Rank
  */
+@NotThreadSafe
 public class QueryStats {
-    private int rangePivotDistanceFilter = 0;
-    private int objectFilter = 0;
-    private int pivotFilter = 0;
-    private int doublePivotDistanceFilter = 0;
+    /**
+     * Counters of query statistics, their ordinals are indexes to arrays of counters
+     */
+    enum Counter {
+        RANGE_PIVOT_DISTANCE_FILTER,
+        OBJECT_FILTER,
+        PIVOT_FILTER,
+        DOUBLE_PIVOT_DISTANCE_FILTER,
+        INCLUDED_CLUSTERS,
+        PIVOT_INCLUSION,
+        VISITED_CLUSTERS,
+        CANDIDATES,
+        PIVOT_BOX_FILTER,
+        PIVOT_FILTER_OBJECTS,
+        PIVOT_FILTER_CHECKS,
+        BTREE_NODE_VISITS,
+        SAVED_BTREE_NODE_VISITS,
+        PIVOT_FILTER_ERROR_MISSES
+    }
+
+    /**
+     * Number of {@link Counter counters}
+     */
+    static final int COUNTERS = Counter.values().length;
+    private final long[] counters;
+    /**
+     * Property of the index rather than of queries, so it isn't summed
+     */
+    private long pivotDistanceSavedBytes = 0;
+
+    public QueryStats() {
+        counters = new long[COUNTERS];
+    }
+
+    /**
+     * @param counters values of counters indexed by {@link Counter#ordinal()}
+     */
+    QueryStats(long[] counters) {
+        this.counters = counters.clone();
+    }
+
+    public long getRangePivotDistanceFilter() {
+        return counter(Counter.RANGE_PIVOT_DISTANCE_FILTER);
+    }
+
+    public long getObjectFilter() {
+        return counter(Counter.OBJECT_FILTER);
+    }
+
+    public long getPivotFilter() {
+        return counter(Counter.PIVOT_FILTER);
+    }
+
+    public long getDoublePivotDistanceFilter() {
+        return counter(Counter.DOUBLE_PIVOT_DISTANCE_FILTER);
+    }
+
+    /**
+     * @return number of leaf clusters which were whole inside of query range, so their objects weren't refined
+     */
+    public long getIncludedClusters() {
+        return counter(Counter.INCLUDED_CLUSTERS);
+    }
+
+    /**
+     * @return number of objects which were proved to be in range by their distance to a pivot
+     */
+    public long getPivotInclusion() {
+        return counter(Counter.PIVOT_INCLUSION);
+    }
+
+    /**
+     * @return number of clusters taken from queue of range or k nearest neighbours query
+     */
+    public long getVisitedClusters() {
+        return counter(Counter.VISITED_CLUSTERS);
+    }
+
+    /**
+     * @return number of objects from B+Tree refined by range or k nearest neighbours query
+     */
+    public long getCandidates() {
+        return counter(Counter.CANDIDATES);
+    }
+
+    /**
+     * @return number of clusters filtered by pivot distances of their objects
+     */
+    public long getPivotBoxFilter() {
+        return counter(Counter.PIVOT_BOX_FILTER);
+    }
+
+    /**
+     * @return number of objects checked by pivot filter
+     */
+    public long getPivotFilterObjects() {
+        return counter(Counter.PIVOT_FILTER_OBJECTS);
+    }
+
+    /**
+     * @return number of pivots compared by pivot filter
+     */
+    public long getPivotFilterChecks() {
+        return counter(Counter.PIVOT_FILTER_CHECKS);
+    }
 
-    public int getRangePivotDistanceFilter() {
-        return rangePivotDistanceFilter;
+    /**
+     * @return average number of pivots compared by pivot filter per checked object
+     */
+    public double getAveragePivotFilterChecks() {
+        return getPivotFilterObjects() == 0 ? 0 : (double) getPivotFilterChecks() / getPivotFilterObjects();
     }
 
-    public int getObjectFilter() {
-        return objectFilter;
+    /**
+     * @return number of B+Tree nodes visited by range searches
+     */
+    public long getBtreeNodeVisits() {
+        return counter(Counter.BTREE_NODE_VISITS);
     }
 
-    public int getPivotFilter() {
-        return pivotFilter;
+    /**
+     * @return number of B+Tree node visits saved by continuing range searches from the previous leaf instead of descending from the root
+     */
+    public long getSavedBtreeNodeVisits() {
+        return counter(Counter.SAVED_BTREE_NODE_VISITS);
     }
 
-    public int getDoublePivotDistanceFilter() {
-        return doublePivotDistanceFilter;
+    /**
+     * @return number of objects checked by pivot filter which would be filtered out if pivot distances had no
+     *         error, i.e. decrease of pivot filter count caused by quantized pivot distances
+     */
+    public long getPivotFilterErrorMisses() {
+        return counter(Counter.PIVOT_FILTER_ERROR_MISSES);
+    }
+
+    /**
+     * @return ratio of objects filtered out by pivot filter to objects checked by it
+     */
+    public double getPivotFilterRate() {
+        return getPivotFilterObjects() == 0 ? 0 : (double) getPivotFilter() / getPivotFilterObjects();
+    }
+
+    /**
+     * @return bytes of memory saved by quantized pivot distances of the index compared to exact distances, zero
+     *         for statistics of single query
+     */
+    public long getPivotDistanceSavedBytes() {
+        return pivotDistanceSavedBytes;
+    }
+
+    void setPivotDistanceSavedBytes(long pivotDistanceSavedBytes) {
+        this.pivotDistanceSavedBytes = pivotDistanceSavedBytes;
     }
 
     public void incrementRangePivotDistanceFilter() {
-        rangePivotDistanceFilter++;
+        counters[Counter.RANGE_PIVOT_DISTANCE_FILTER.ordinal()]++;
     }
 
     public void incrementObjectFilter() {
-        objectFilter++;
+        counters[Counter.OBJECT_FILTER.ordinal()]++;
     }
 
     public void incrementPivotFilter() {
-        pivotFilter++;
+        counters[Counter.PIVOT_FILTER.ordinal()]++;
     }
 
     public void incrementDoublePivotDistanceFilter() {
-        doublePivotDistanceFilter++;
+        counters[Counter.DOUBLE_PIVOT_DISTANCE_FILTER.ordinal()]++;
+    }
+
+    public void incrementIncludedClusters() {
+        counters[Counter.INCLUDED_CLUSTERS.ordinal()]++;
+    }
+
+    public void incrementPivotInclusion() {
+        counters[Counter.PIVOT_INCLUSION.ordinal()]++;
+    }
+
+    public void incrementVisitedClusters() {
+        counters[Counter.VISITED_CLUSTERS.ordinal()]++;
+    }
+
+    public void incrementCandidates() {
+        counters[Counter.CANDIDATES.ordinal()]++;
+    }
+
+    public void incrementPivotBoxFilter() {
+        counters[Counter.PIVOT_BOX_FILTER.ordinal()]++;
+    }
+
+    public void incrementPivotFilterObjects() {
+        counters[Counter.PIVOT_FILTER_OBJECTS.ordinal()]++;
+    }
+
+    public void incrementPivotFilterErrorMisses() {
+        counters[Counter.PIVOT_FILTER_ERROR_MISSES.ordinal()]++;
+    }
+
+    public void addBtreeNodeVisits(long nodeVisits) {
+        counters[Counter.BTREE_NODE_VISITS.ordinal()] += nodeVisits;
+    }
+
+    public void addSavedBtreeNodeVisits(long nodeVisits) {
+        counters[Counter.SAVED_BTREE_NODE_VISITS.ordinal()] += nodeVisits;
+    }
+
+    public void addPivotFilterChecks(int checks) {
+        counters[Counter.PIVOT_FILTER_CHECKS.ordinal()] += checks;
+    }
+
+    /**
+     * Adds counters of {@code queryStats} to this statistics
+     *
+     * @param queryStats statistics to add
+     */
+    public void add(QueryStats queryStats) {
+        for (int i = 0; i < COUNTERS; i++) {
+            counters[i] += queryStats.counters[i];
+        }
+    }
+
+    /**
+     * Sets all counters to zero
+     */
+    public void reset() {
+        Arrays.fill(counters, 0);
+    }
+
+    /**
+     * @param counter counter to return
+     * @return value of the {@code counter}
+     */
+    long counter(Counter counter) {
+        return counters[counter.ordinal()];
     }
 
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
         sb.append("QueryStats");
-        sb.append("{rangePivotDistanceFilter=").append(rangePivotDistanceFilter);
-        sb.append(", objectFilter=").append(objectFilter);
-        sb.append(", pivotFilter=").append(pivotFilter);
-        sb.append(", doublePivotDistanceFilter=").append(doublePivotDistanceFilter);
+        sb.append("{rangePivotDistanceFilter=").append(counter(Counter.RANGE_PIVOT_DISTANCE_FILTER));
+        sb.append(", objectFilter=").append(counter(Counter.OBJECT_FILTER));
+        sb.append(", pivotFilter=").append(counter(Counter.PIVOT_FILTER));
+        sb.append(", doublePivotDistanceFilter=").append(counter(Counter.DOUBLE_PIVOT_DISTANCE_FILTER));
+        sb.append(", includedClusters=").append(counter(Counter.INCLUDED_CLUSTERS));
+        sb.append(", pivotInclusion=").append(counter(Counter.PIVOT_INCLUSION));
+        sb.append(", visitedClusters=").append(counter(Counter.VISITED_CLUSTERS));
+        sb.append(", candidates=").append(counter(Counter.CANDIDATES));
+        sb.append(", pivotBoxFilter=").append(counter(Counter.PIVOT_BOX_FILTER));
+        sb.append(", pivotFilterObjects=").append(counter(Counter.PIVOT_FILTER_OBJECTS));
+        sb.append(", pivotFilterChecks=").append(counter(Counter.PIVOT_FILTER_CHECKS));
+        sb.append(", btreeNodeVisits=").append(counter(Counter.BTREE_NODE_VISITS));
+        sb.append(", savedBtreeNodeVisits=").append(counter(Counter.SAVED_BTREE_NODE_VISITS));
+        sb.append(", pivotFilterErrorMisses=").append(counter(Counter.PIVOT_FILTER_ERROR_MISSES));
+        sb.append(", pivotDistanceSavedBytes=").append(pivotDistanceSavedBytes);
+        sb.append(", averagePivotFilterChecks=").append(getAveragePivotFilterChecks());
         sb.append('}');
         return sb.toString();
     }
@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded LRU cache of range query results in front of {@link MIndex}.
+ * <p/>
+ * Results are cached per query object with their distances sorted, so a query with the same or smaller range is
+ * answered from the cached result of the largest range queried so far. Query objects are compared by
+ * {@link Object#equals(Object)}. Whole cache is invalidated when version of the index changes, i.e. objects are
+ * added or the index is rebuilt.
+ * <p/>
+ * Size of the cache is limited by estimated memory of cached results. Entries which alone exceed the limit
+ * aren't cached.
+ *
+ * @author Karel Rank
+ */
+@ThreadSafe
+public class RangeQueryCache<D extends Distanceable<D>> {
+    /**
+     * Estimated bytes of cache entry without results, i.e. map entry, key reference and result array
+     */
+    static final long ENTRY_WEIGHT = 96;
+    /**
+     * Estimated bytes of single cached result, i.e. {@link ObjectDistance} and its reference
+     */
+    static final long RESULT_WEIGHT = 40;
+    private static final Logger logger = LoggerFactory.getLogger(RangeQueryCache.class);
+    private final MIndex<D> index;
+    private final long maximumWeight;
+    private final LinkedHashMap<D, CachedResult<D>> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+    private long indexVersion;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param index         queried index
+     * @param maximumWeight maximum estimated bytes of cached results
+     */
+    public RangeQueryCache(MIndex<D> index, long maximumWeight) {
+        if (maximumWeight < 1) {
+            throw new IllegalArgumentException("Maximum weight must be greater than 0. Current: " + maximumWeight);
+        }
+
+        this.index = index;
+        this.maximumWeight = maximumWeight;
+        indexVersion = index.getVersion();
+    }
+
+    /**
+     * Returns cached result when the same query object was queried with the same or larger range since the last
+     * change of the index, otherwise queries the index and caches its result
+     *
+     * @param queryObject query object
+     * @param range       range of the query
+     * @return found objects
+     */
+    public Collection<D> rangeQuery(D queryObject, double range) {
+        final CachedResult<D> cachedResult = cachedResult(queryObject, range);
+        if (cachedResult != null) {
+            return cachedResult.objectsInRange(range);
+        }
+
+        final List<ObjectDistance<D>> objectDistances = index.rangeQueryDistances(queryObject, range);
+        store(queryObject, range, objectDistances);
+
+        final List<D> objects = new ArrayList<>(objectDistances.size());
+        for (ObjectDistance<D> objectDistance : objectDistances) {
+            objects.add(objectDistance.getObject());
+        }
+
+        return objects;
+    }
+
+    private synchronized CachedResult<D> cachedResult(D queryObject, double range) {
+        invalidateIfIndexChanged();
+
+        final CachedResult<D> cachedResult = results.get(queryObject);
+        if (cachedResult != null && cachedResult.range >= range) {
+            hits++;
+            return cachedResult;
+        }
+
+        misses++;
+        return null;
+    }
+
+    private void store(D queryObject, double range, List<ObjectDistance<D>> objectDistances) {
+        final long resultWeight = ENTRY_WEIGHT + objectDistances.size() * RESULT_WEIGHT;
+        if (resultWeight > maximumWeight) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Result of query from object: {} is too big for cache: {}", queryObject, resultWeight);
+            }
+            return;
+        }
+
+        final long version = index.getVersion();
+        final CachedResult<D> cachedResult = new CachedResult<>(range, objectDistances, resultWeight);
+        synchronized (this) {
+            invalidateIfIndexChanged();
+            if (version != indexVersion) {
+                return;
+            }
+
+            final CachedResult<D> previousResult = results.get(queryObject);
+            if (previousResult != null && previousResult.range >= range) {
+                return;
+            }
+
+            results.put(queryObject, cachedResult);
+            weight += resultWeight - (previousResult == null ? 0 : previousResult.weight);
+            evict();
+        }
+    }
+
+    private void invalidateIfIndexChanged() {
+        final long version = index.getVersion();
+        if (version != indexVersion) {
+            logger.debug("Index changed, invalidating cached results");
+            clear();
+            indexVersion = version;
+        }
+    }
+
+    private void evict() {
+        final Iterator<CachedResult<D>> iterator = results.values().iterator();
+        while (weight > maximumWeight && iterator.hasNext()) {
+            weight -= iterator.next().weight;
+            iterator.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        results.clear();
+        weight = 0;
+    }
+
+    /**
+     * @return estimated bytes of cached results
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("RangeQueryCache");
+        sb.append("{size=").append(results.size());
+        sb.append(", weight=").append(weight);
+        sb.append(", maximumWeight=").append(maximumWeight);
+        sb.append(", hits=").append(hits);
+        sb.append(", misses=").append(misses);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Result of range query sorted by distance from the query object. Distances are recorded by the query, so they
+     * aren't computed again.
+     */
+    private static class CachedResult<D extends Distanceable<D>> {
+        private final double range;
+        private final long weight;
+        private final ObjectDistance<D>[] objectDistances;
+
+        @SuppressWarnings("unchecked")
+        private CachedResult(double range, List<ObjectDistance<D>> objectDistances, long weight) {
+            this.range = range;
+            this.weight = weight;
+            this.objectDistances = objectDistances.toArray((ObjectDistance<D>[]) new ObjectDistance<?>[objectDistances
+                    .size()]);
+            Arrays.sort(this.objectDistances);
+        }
+
+        private List<D> objectsInRange(double range) {
+            final List<D> objects = new ArrayList<>();
+            for (ObjectDistance<D> objectDistance : objectDistances) {
+                if (objectDistance.getDistance() > range) {
+                    break;
+                }
+                objects.add(objectDistance.getObject());
+            }
+
+            return objects;
+        }
+    }
+}
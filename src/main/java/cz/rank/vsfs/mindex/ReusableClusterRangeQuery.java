@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import java.util.Collection;
+
+/**
+ * Range query whose state is kept between queries. Clusters are traversed depth first, B+Tree is searched only
+ * in keys of the leaf cluster, so found objects don't need to be deduplicated.
+ *
+ * @author Karel Rank
+ */
+class ReusableClusterRangeQuery<D extends Distanceable<D>> extends QueryContext<D> implements ClusterVisitor<D> {
+    private double range;
+    private double normalizedRange;
+    private Collection<? super D> result = null;
+
+    ReusableClusterRangeQuery(MIndex<D> index) {
+        super(index, index.maxLevel * index.pivotsSize);
+    }
+
+    @Override
+    void rangeQuery(D queryObject, double range, Collection<? super D> result) {
+        this.queryObject = queryObject;
+        this.range = range;
+        this.result = result;
+        normalizedRange = range / index.maximumDistance;
+        calculatePivotDistances(queryObject);
+        firstPivotDistance = firstPivotDistance();
+        stats.reset();
+
+        try {
+            pushSubClusters(index.clusterRoot);
+            while (hasClusters()) {
+                final Cluster<D> cluster = popCluster();
+                if (!isPruned(cluster, normalizedRange, stats)) {
+                    cluster.accept(this);
+                }
+            }
+        } finally {
+            clear();
+            index.addQueryStats(stats);
+            this.queryObject = null;
+            this.result = null;
+        }
+    }
+
+    @Override
+    public void enterInternalCluster(InternalCluster<D> internalCluster) {
+        pushSubClusters(internalCluster);
+    }
+
+    @Override
+    public void enterLeafCluster(LeafCluster<D> leafCluster) {
+        if (isLeafPruned(leafCluster, normalizedRange, stats)) {
+            return;
+        }
+
+        final double from = leafKeysFrom(leafCluster, normalizedRange);
+        final double to = leafKeysTo(leafCluster, normalizedRange);
+        if (from > to) {
+            return;
+        }
+
+        index.btreemap.rangeSearch(from, to, candidates);
+        final int size = candidates.size();
+        for (int i = 0; i < size; ++i) {
+            final D object = candidates.get(i);
+            if (isCandidate(object, leafCluster, normalizedRange, stats) && isInRange(object, range, stats)) {
+                result.add(object);
+            }
+        }
+        candidates.clear();
+    }
+
+    /**
+     * Same bound as {@link MIndex#doublePivotLowerBound(Cluster, PivotDistanceTable, Distanceable)} computed
+     * from distances of the context
+     */
+    @Override
+    protected double doublePivotLowerBound(Cluster<D> cluster) {
+        final int level = cluster.getLevel();
+        if (level == 0) {
+            return 0;
+        }
+
+        final double currentLevelDistance = queryPivotDistances[cluster.parentIndex()];
+        return (currentLevelDistance - nearestNonConflictingPivot(cluster.getIndex())) / 2;
+    }
+
+    /**
+     * @return distance to the nearest pivot which isn't used by upper levels of {@code index}
+     */
+    private double nearestNonConflictingPivot(Index index) {
+        final int conflictingLevels = index.getLevel() - 1;
+        for (int i = 0; i < pivotPermutation.length; ++i) {
+            if (!isUsedByLevels(index, conflictingLevels, pivotPermutation[i])) {
+                return distanceAt(i);
+            }
+        }
+
+        return 0;
+    }
+
+    private boolean isUsedByLevels(Index index, int levels, int pivotIndex) {
+        for (int level = 0; level < levels; ++level) {
+            if (index.pivotIndexAt(level) == pivotIndex) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
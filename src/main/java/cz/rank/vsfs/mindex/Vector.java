@@ -34,7 +34,7 @@ import java.util.List;
 /**
  * @author Karel Rank
  */
-public class Vector implements Distanceable<Vector> {
+public class Vector implements BoundedDistanceable<Vector> {
     private final double[] values;
 
     public Vector(List<Double> values) {
@@ -56,6 +56,30 @@ public class Vector implements Distanceable<Vector> {
         return FastMath.sqrt(sumVector);
     }
 
+    /**
+     * Sums dimensions in the same order as {@link #distance(Vector)} and stops when square root of the partial sum
+     * exceeds {@code bound}. Partial sum greater than square of bound isn't enough, because its square root can
+     * be rounded to the bound.
+     */
+    @Override
+    public double distance(Vector object, double bound) {
+        final double boundPow2 = pow2(bound);
+        final double[] values2 = object.values;
+        final int size = values.length;
+        double result = 0;
+        for (int i = 0; i < size; ++i) {
+            result += pow2(subtract(values, values2, i));
+            if (result > boundPow2) {
+                final double distance = FastMath.sqrt(result);
+                if (distance > bound) {
+                    return distance;
+                }
+            }
+        }
+
+        return FastMath.sqrt(result);
+    }
+
     private double subtractAndPow2AndSum(double[] values1, double[] values2) {
         final int size = values1.length;
         double result = 0;
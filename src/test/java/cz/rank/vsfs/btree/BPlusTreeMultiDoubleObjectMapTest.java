@@ -29,11 +29,18 @@
  */
 package cz.rank.vsfs.btree;
 
+import gnu.trove.list.TDoubleList;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
@@ -41,6 +48,7 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
 /**
  * @author rank
@@ -297,4 +305,332 @@ public class BPlusTreeMultiDoubleObjectMapTest {
 
         assertThat(fullNode.isFull(), is(false));
     }
+
+    @Test(groups = {"unit"})
+    public void testCursorRangeSearchesEqualRangeSearch() {
+        BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(3);
+        for (int d = 0; d < 1000; d++) {
+            tree.insert(d, d);
+            tree.insert(d, -d);
+        }
+
+        final BPlusTreeCursor<Integer> cursor = tree.cursor();
+        for (int from = -10; from < 1010; from += 37) {
+            final List<Integer> result = new ArrayList<>();
+            cursor.rangeSearch(from + 0.5, from + 20, result);
+
+            assertThat(result, is(tree.rangeSearch(from + 0.5, from + 20)));
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testCursorSavesNodeVisitsOfNeighbouringRanges() {
+        BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(2);
+        for (int d = 0; d < 1000; d++) {
+            tree.insert(d, d);
+        }
+
+        final BPlusTreeCursor<Integer> cursor = tree.cursor();
+        final List<Integer> result = new ArrayList<>();
+        for (int from = 0; from < 1000; from += 2) {
+            cursor.rangeSearch(from, from + 1, result);
+        }
+
+        assertThat(result.size(), is(500));
+        assertThat(cursor.getNodeVisits() < cursor.getRangeSearchNodeVisits() / 4, is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testCursorSearchesLowerRangeFromRoot() {
+        BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(2);
+        for (int d = 0; d < 100; d++) {
+            tree.insert(d, d);
+        }
+
+        final BPlusTreeCursor<Integer> cursor = tree.cursor();
+        final List<Integer> result = new ArrayList<>();
+        cursor.rangeSearch(90, 92, result);
+        cursor.rangeSearch(10, 12, result);
+        cursor.rangeSearch(200, 300, result);
+
+        assertThat(result, contains(90, 91, 10, 11));
+    }
+
+    @Test(groups = {"unit"})
+    public void testCursorOnEmptyTree() {
+        BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(2);
+
+        final List<Integer> result = new ArrayList<>();
+        tree.cursor().rangeSearch(0, 10, result);
+
+        assertThat(result, is(empty()));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRemove() {
+        BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(2);
+        tree.insert(1, 1);
+        tree.insert(1, -1);
+        tree.insert(2, 2);
+
+        assertThat(tree.remove(1, -1), is(true));
+        assertThat(tree.remove(1, -1), is(false));
+        assertThat(tree.remove(3, 3), is(false));
+        assertThat(tree.rangeSearch(0, 10), contains(1, 2));
+
+        assertThat(tree.remove(1, 1), is(true));
+        assertThat(tree.search(1), is(nullValue()));
+        assertThat(tree.rangeSearch(0, 10), contains(2));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRemoveByIdentity() {
+        BPlusTreeMultiDoubleObjectMap<String> tree = new BPlusTreeMultiDoubleObjectMap<>(2);
+        final String first = new String("a");
+        final String second = new String("a");
+        tree.insert(1, first);
+        tree.insert(1, second);
+
+        assertThat(tree.remove(1, new String("a")), is(false));
+        assertThat(tree.remove(1, second), is(true));
+        assertThat(tree.rangeSearch(0, 10).size(), is(1));
+        assertThat(tree.rangeSearch(0, 10).get(0), is(sameInstance(first)));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeSearchOverEmptiedLeaves() {
+        BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(2);
+        for (int d = 0; d < 100; d++) {
+            tree.insert(d, d);
+        }
+        for (int d = 10; d < 90; d++) {
+            tree.remove(d, d);
+        }
+
+        final List<Integer> result = new ArrayList<>();
+        tree.cursor().rangeSearch(5, 95, result);
+
+        assertThat(tree.rangeSearch(5, 95), contains(5, 6, 7, 8, 9, 90, 91, 92, 93, 94));
+        assertThat(tree.rangeSearch(8.5, 92), contains(9, 90, 91));
+        assertThat(tree.rangeSearch(50, 60), is(empty()));
+        assertThat(result, is(tree.rangeSearch(5, 95)));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRemoveKeepsTreeBalanced() {
+        for (int degree = 2; degree <= 5; degree++) {
+            final BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(degree);
+            final TreeMap<Double, List<Integer>> expected = new TreeMap<>();
+            final Random random = new Random(degree);
+            final List<Integer> values = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                // Values are removed by identity, so the same instance is kept for removal
+                final Integer value = i;
+                final double key = random.nextInt(500);
+                tree.insert(key, value);
+                if (!expected.containsKey(key)) {
+                    expected.put(key, new ArrayList<Integer>());
+                }
+                expected.get(key).add(value);
+                values.add(value);
+            }
+
+            Collections.shuffle(values, random);
+            for (int i = 0; i < values.size(); i++) {
+                final Integer value = values.get(i);
+                final double key = keyOf(expected, value);
+                assertThat(tree.remove(key, value), is(true));
+                assertThat(tree.remove(key, value), is(false));
+                expected.get(key).remove(value);
+                if (expected.get(key).isEmpty()) {
+                    expected.remove(key);
+                }
+
+                if (i % 97 == 0) {
+                    assertThat(tree.rangeSearch(0, 500), is(valuesOf(expected)));
+                    tree.accept(new BalanceCheckingVisitor<Integer>(degree));
+                }
+            }
+
+            assertThat(tree.rangeSearch(0, 500), is(empty()));
+            tree.insert(1, 1);
+            assertThat(tree.search(1), is(1));
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testBulkLoadEqualsInsert() {
+        for (int degree = 2; degree <= 5; degree++) {
+            for (double fillFactor : new double[]{0.1, 0.5, 0.75, 1}) {
+                final BPlusTreeMultiDoubleObjectMap<Integer> insertedTree = new BPlusTreeMultiDoubleObjectMap<>(
+                        degree);
+                final BPlusTreeMultiDoubleObjectMap<Integer> loadedTree = new BPlusTreeMultiDoubleObjectMap<>(degree);
+                final DoubleObjectPairs<Integer> pairs = new DoubleObjectPairs<>();
+                final Random random = new Random(degree);
+                for (int value = 0; value < 20000; value++) {
+                    final double key = random.nextInt(5000);
+                    insertedTree.insert(key, value);
+                    pairs.add(key, value);
+                }
+
+                loadedTree.bulkLoad(pairs, fillFactor);
+
+                loadedTree.accept(new BalanceCheckingVisitor<Integer>(degree));
+                assertThat(loadedTree.rangeSearch(-1, 5000), is(insertedTree.rangeSearch(-1, 5000)));
+                assertThat(loadedTree.rangeSearch(100.5, 200), is(insertedTree.rangeSearch(100.5, 200)));
+                assertThat(loadedTree.search(77), is(insertedTree.search(77)));
+
+                final List<Integer> result = new ArrayList<>();
+                loadedTree.cursor().rangeSearch(10, 4000, result);
+                assertThat(result, is(insertedTree.rangeSearch(10, 4000)));
+            }
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testBulkLoadInPoolEqualsBulkLoad() {
+        final BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(4);
+        final BPlusTreeMultiDoubleObjectMap<Integer> poolTree = new BPlusTreeMultiDoubleObjectMap<>(4);
+        final DoubleObjectPairs<Integer> pairs = new DoubleObjectPairs<>();
+        final DoubleObjectPairs<Integer> poolPairs = new DoubleObjectPairs<>();
+        final Random random = new Random(4);
+        for (int value = 0; value < 50000; value++) {
+            final double key = random.nextInt(5000);
+            pairs.add(key, value);
+            poolPairs.add(key, value);
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            tree.bulkLoad(pairs, 0.75);
+            poolTree.bulkLoad(poolPairs, 0.75, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        poolTree.accept(new BalanceCheckingVisitor<Integer>(4));
+        assertThat(poolTree.rangeSearch(-1, 5000), is(tree.rangeSearch(-1, 5000)));
+    }
+
+    @Test(groups = {"unit"})
+    public void testInsertAndRemoveAfterBulkLoad() {
+        final BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(3);
+        final DoubleObjectPairs<Integer> pairs = new DoubleObjectPairs<>();
+        final List<Integer> values = new ArrayList<>();
+        for (int d = 0; d < 1000; d += 2) {
+            final Integer value = d;
+            pairs.add(d, value);
+            values.add(value);
+        }
+
+        tree.bulkLoad(pairs, 1);
+        for (int d = 1; d < 1000; d += 2) {
+            tree.insert(d, d);
+        }
+        for (int i = 0; i < values.size(); i += 2) {
+            final Integer value = values.get(i);
+            assertThat(tree.remove(value, value), is(true));
+        }
+
+        tree.accept(new BalanceCheckingVisitor<Integer>(3));
+        final List<Integer> result = tree.rangeSearch(0, 1000);
+        assertThat(result.size(), is(750));
+        assertThat(result.get(0), is(1));
+        assertThat(result.get(1), is(2));
+        assertThat(result.get(2), is(3));
+        assertThat(result.get(3), is(5));
+    }
+
+    @Test(groups = {"unit"})
+    public void testBulkLoadWithoutPairs() {
+        final BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(2);
+
+        tree.bulkLoad(new DoubleObjectPairs<Integer>(), 1);
+        tree.insert(1, 1);
+
+        assertThat(tree.rangeSearch(0, 10), contains(1));
+    }
+
+    @Test(groups = {"unit"})
+    public void testBulkLoadReplacesContent() {
+        final BPlusTreeMultiDoubleObjectMap<Integer> tree = new BPlusTreeMultiDoubleObjectMap<>(2);
+        for (int d = 0; d < 100; d++) {
+            tree.insert(d, d);
+        }
+        final DoubleObjectPairs<Integer> pairs = new DoubleObjectPairs<>();
+        pairs.add(200, 200);
+
+        tree.bulkLoad(pairs, 1);
+
+        assertThat(tree.rangeSearch(0, 1000), contains(200));
+    }
+
+    @Test(groups = {"unit"}, expectedExceptions = IllegalArgumentException.class,
+          expectedExceptionsMessageRegExp = ".*Fill factor must be greater than 0.*")
+    public void testBulkLoadFillFactorMustBeGreaterThanZero() {
+        new BPlusTreeMultiDoubleObjectMap<Integer>(2).bulkLoad(new DoubleObjectPairs<Integer>(), 0);
+    }
+
+    private double keyOf(TreeMap<Double, List<Integer>> expected, int value) {
+        for (Map.Entry<Double, List<Integer>> entry : expected.entrySet()) {
+            if (entry.getValue().contains(value)) {
+                return entry.getKey();
+            }
+        }
+
+        throw new IllegalStateException("Value not found: " + value);
+    }
+
+    private List<Integer> valuesOf(TreeMap<Double, List<Integer>> expected) {
+        final List<Integer> values = new ArrayList<>();
+        for (List<Integer> keyValues : expected.values()) {
+            values.addAll(keyValues);
+        }
+
+        return values;
+    }
+
+    /**
+     * Checks that nodes except root are at least half full, internal nodes have one child more than keys and all
+     * leaves are at the same depth
+     */
+    private static class BalanceCheckingVisitor<V> implements DoubleObjectNodeVisitor<V> {
+        private final int degree;
+        private int depth = 0;
+        private int leafDepth = -1;
+
+        private BalanceCheckingVisitor(int degree) {
+            this.degree = degree;
+        }
+
+        @Override
+        public void enterInternalNode(List<DoubleObjectNode<V>> children, TDoubleList keys, int maxKeys) {
+            checkKeys(keys, maxKeys);
+            assertThat(children.size(), is(keys.size() + 1));
+
+            depth++;
+            for (DoubleObjectNode<V> child : children) {
+                child.accept(this);
+            }
+            depth--;
+        }
+
+        @Override
+        public void enterLeafNode(TDoubleList keys, List<List<V>> values, int maxKeys) {
+            checkKeys(keys, maxKeys);
+            assertThat(values.size(), is(keys.size()));
+
+            if (leafDepth == -1) {
+                leafDepth = depth;
+            }
+            assertThat(depth, is(leafDepth));
+        }
+
+        private void checkKeys(TDoubleList keys, int maxKeys) {
+            if (depth > 0) {
+                assertThat(keys.size() >= degree - 1, is(true));
+            }
+            assertThat(keys.size() <= maxKeys, is(true));
+        }
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author Karel Rank
+ */
+public class DistanceHistogramTest {
+
+    @Test(groups = {"unit"})
+    public void testFraction() {
+        final DistanceHistogram histogram = createHistogram(1000);
+
+        assertThat(histogram.fraction(0, 0, 1), is(closeTo(1, 1e-9)));
+        assertThat(histogram.fraction(0, 0.25, 0.75), is(closeTo(0.5, 0.01)));
+        assertThat(histogram.fraction(0, -1, 0.1), is(closeTo(0.1, 0.01)));
+        assertThat(histogram.fraction(0, 0.5, 0.5), is(closeTo(0, 1e-9)));
+    }
+
+    @Test(groups = {"unit"})
+    public void testFractionWithin() {
+        final DistanceHistogram histogram = createHistogram(1000);
+
+        assertThat(histogram.fractionWithin(0.3), is(closeTo(0.3, 0.01)));
+        assertThat(histogram.fractionWithin(2), is(closeTo(1, 1e-9)));
+        assertThat(histogram.fractionWithin(0), is(closeTo(0, 1e-9)));
+    }
+
+    /**
+     * Objects are uniformly distributed on line starting at the pivot
+     */
+    private DistanceHistogram createHistogram(int objectsCount) {
+        final List<Point> objects = new ArrayList<>(objectsCount);
+        for (int i = 0; i < objectsCount; i++) {
+            objects.add(new Point((i + 0.5) / objectsCount, 0));
+        }
+        final List<Pivot<Point>> pivots = Arrays.asList(new Pivot<>(0, new Point(0, 0)));
+        final PivotDistanceTable<Point> pivotDistanceTable = new SimplePivotDistanceTable<>(1, pivots, objects);
+        pivotDistanceTable.calculate();
+
+        return new DistanceHistogram(objects, pivots.size(), pivotDistanceTable);
+    }
+}
@@ -26,7 +26,6 @@
 
 package cz.rank.vsfs.mindex;
 
-import cz.rank.vsfs.mindex.util.Generators;
 import cz.rank.vsfs.mindex.util.PerfLogger;
 import org.perf4j.GroupedTimingStatistics;
 import org.perf4j.StopWatch;
@@ -50,6 +49,10 @@ import java.util.concurrent.TimeUnit;
  */
 public abstract class MIndexPerfTest {
     public static final String MINDEX_REFERENCE_FILE = "mindex.reference.file";
+    /**
+     * Name of {@link PivotSelectionStrategy} which selects pivots, first objects are pivots by default
+     */
+    public static final String MINDEX_PIVOT_SELECTION = "mindex.pivot.selection";
     public static final int DEFAULT_TEST_INVOCATIONS = 20;
     protected static final int[] PIVOTS_COUNT = {
             10,
@@ -160,7 +163,10 @@ public abstract class MIndexPerfTest {
     }
 
     protected List<Pivot<Vector>> createPivots(TestParams params) {
-        return Generators.createPivots(objects.subList(0, params.pivotsCount));
+        final PivotSelectionStrategy strategy = PivotSelectionStrategy.valueOf(
+                System.getProperty(MINDEX_PIVOT_SELECTION, PivotSelectionStrategy.FIRST.name()));
+
+        return strategy.select(objects, params.pivotsCount);
     }
 
     protected void performTest(TestParams params,
@@ -183,6 +189,13 @@ public abstract class MIndexPerfTest {
         testsStatistics.addStopWatch(stopWatch);
 
         logger.info("{}", mIndex.getQueryStats());
+        logger.info("B+Tree node visits: {}, saved by cursor: {}", mIndex.getQueryStats().getBtreeNodeVisits(),
+                mIndex.getQueryStats().getSavedBtreeNodeVisits());
         logger.info("{}", mIndex.getClusterStats());
+
+        stopWatch.start(prefix + ".rangeQueryBatch");
+        final List<Collection<Vector>> foundObjectsBatch = mIndex.rangeQueryBatch(queryObjects, params.range);
+        stopWatch.stop(prefix + ".rangeQueryBatch");
+        testsStatistics.addStopWatch(stopWatch);
     }
 }
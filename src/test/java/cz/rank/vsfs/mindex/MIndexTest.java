@@ -28,26 +28,42 @@ package cz.rank.vsfs.mindex;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.testng.SkipException;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import static cz.rank.vsfs.mindex.util.Generators.createPivots;
 import static cz.rank.vsfs.mindex.util.Generators.createVectors;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.testng.Assert.fail;
 
 /**
  * @author Karel Rank
@@ -171,6 +187,1012 @@ public class MIndexTest {
         assertThat(points, contains(point));
     }
 
+    @Test(groups = {"unit"})
+    public void testKNearest2ndLevel() {
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, threePivots());
+        final Point point1 = new Point(1, 1);
+        final Point point2 = new Point(1, 2);
+        final Point point3 = new Point(0, 0);
+        tree.add(point1);
+        tree.add(point2);
+        tree.add(point3);
+        tree.add(new Point(1, 5));
+
+        tree.build();
+
+        final List<ObjectDistance<Point>> nearestObjects = tree.kNearest(new Point(1, 1.2d), 3);
+
+        assertThat(objectsOf(nearestObjects), contains(point1, point2, point3));
+    }
+
+    @Test(groups = {"unit"})
+    public void testKNearestMoreThanObjects() {
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, twoPivots());
+        final Point point1 = new Point(1, 1);
+        final Point point2 = new Point(0, 0);
+        tree.add(point1);
+        tree.add(point2);
+
+        tree.build();
+
+        final List<ObjectDistance<Point>> nearestObjects = tree.kNearest(new Point(0.1d, 0), 5);
+
+        assertThat(objectsOf(nearestObjects), contains(point2, point1));
+        assertThat(nearestObjects.get(0).getDistance(), is(equalTo(0.1d)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+          expectedExceptionsMessageRegExp = ".*must be greater than 0.*", groups = {"unit"})
+    public void testKNearestKMustBeGreaterThanZero() {
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, twoPivots());
+        tree.add(new Point(0, 0));
+        tree.build();
+
+        tree.kNearest(new Point(0, 0), 0);
+    }
+
+    @Test(groups = {"unit"})
+    public void testApproximateKNearestWithoutLimits() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final Point queryObject = new Point(2, 1);
+        final List<ObjectDistance<Point>> nearestObjects = tree.approximateKNearest(queryObject, 5, Integer.MAX_VALUE,
+                                                                                    Integer.MAX_VALUE);
+
+        assertThat(distancesOf(nearestObjects),
+                   is(equalTo(distancesOf(new KNearestSeqScanner<>(queryObject, 5, tree.getObjects()).calculate()))));
+    }
+
+    @Test(groups = {"unit"})
+    public void testApproximateKNearestDistanceEvaluationsLimit() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final List<ObjectDistance<Point>> nearestObjects = tree.approximateKNearest(new Point(2, 1), 5,
+                                                                                    Integer.MAX_VALUE, 3);
+
+        assertThat(nearestObjects.size(), is(3));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryBatch() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        final List<Point> queryPoints = createPoints(20, 100);
+        tree.addAll(pivotPoints);
+        tree.addAll(queryPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final List<Collection<Point>> foundPoints = tree.rangeQueryBatch(queryPoints, 20d);
+
+        assertThat(foundPoints.size(), is(queryPoints.size()));
+        for (int i = 0; i < queryPoints.size(); i++) {
+            assertThat(new HashSet<>(foundPoints.get(i)),
+                       is(equalTo(new HashSet<>(tree.rangeQuery(queryPoints.get(i), 20d)))));
+            assertThat(foundPoints.get(i).size(), is(new HashSet<>(foundPoints.get(i)).size()));
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testParallelRangeQuery2ndLevelDuplicatedPoints() {
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, twoPivots());
+        final Point point1 = new Point(1, 1);
+        final Point point2 = new Point(1, 1);
+        tree.add(point1);
+        tree.add(point2);
+        tree.add(new Point(0, 0));
+
+        tree.build();
+
+        final Collection<Point> points = tree.parallelRangeQuery(new Point(1, 1), 0.5d);
+
+        assertThat(points, containsInAnyOrder(point1, point2));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryIterator() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final Point queryObject = new Point(2, 1);
+        final List<Point> points = new ArrayList<>();
+        try (CloseableIterator<Point> iterator = tree.rangeQueryIterator(queryObject, 30d)) {
+            while (iterator.hasNext()) {
+                points.add(iterator.next());
+            }
+        }
+
+        assertThat(points.size(), is(new HashSet<>(points).size()));
+        assertThat(new HashSet<>(points),
+                   is(equalTo(new HashSet<>(new RangeQuerySeqScanner<>(queryObject, 30d, tree.getObjects())
+                                                    .calculate()))));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryIteratorClose() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final CloseableIterator<Point> iterator = tree.rangeQueryIterator(new Point(0, 0), 300d);
+        iterator.next();
+        iterator.close();
+
+        assertThat(iterator.hasNext(), is(false));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryWithContext() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final QueryContext<Point> context = tree.createQueryContext();
+        final List<Point> points = new ArrayList<>();
+        for (Point queryObject : createPoints(20, 100)) {
+            points.clear();
+            tree.rangeQuery(queryObject, 30d, context, points);
+
+            assertThat(points.size(), is(new HashSet<>(points).size()));
+            assertThat(new HashSet<>(points),
+                       is(equalTo(new HashSet<>(new RangeQuerySeqScanner<>(queryObject, 30d, tree.getObjects())
+                                                        .calculate()))));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+          expectedExceptionsMessageRegExp = ".*created by another index.*", groups = {"unit"})
+    public void testRangeQueryWithContextOfAnotherIndex() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        final MIndex<Point> anotherTree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+
+        tree.rangeQuery(new Point(0, 0), 30d, anotherTree.createQueryContext(), new ArrayList<Point>());
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryWithContextDoesNotAllocate() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean) ||
+                !((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Measuring of allocated memory isn't supported");
+        }
+        final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new DynamicMIndex<>(4, 5, createPivots(pivotPoints), 20);
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(5000, 100));
+
+        tree.build();
+
+        final List<Point> queryObjects = createPoints(100, 100);
+        final QueryContext<Point> context = tree.createQueryContext();
+        final List<Point> points = new ArrayList<>(tree.getObjects().size());
+        // Warm up, so context and its buffers reach their final size
+        for (Point queryObject : queryObjects) {
+            points.clear();
+            tree.rangeQuery(queryObject, 20d, context, points);
+        }
+
+        final int queries = queryObjects.size();
+        final long threadId = Thread.currentThread().getId();
+        final long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < queries; ++i) {
+            points.clear();
+            tree.rangeQuery(queryObjects.get(i), 20d, context, points);
+        }
+        final long allocatedPerQuery = (allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / queries;
+
+        logger.info("Allocated bytes per query: {}", allocatedPerQuery);
+        assertThat(allocatedPerQuery < 64, is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryWithStats() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final QueryResult<Point> first = tree.rangeQueryWithStats(new Point(2, 1), 30d);
+        final QueryResult<Point> second = tree.rangeQueryWithStats(new Point(50, 50), 10d);
+
+        final QueryStats expectedStats = new QueryStats();
+        expectedStats.add(first.getQueryStats());
+        expectedStats.add(second.getQueryStats());
+        assertThat(tree.getQueryStats().toString(), is(expectedStats.toString()));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryVariantsCountVisitedClustersAndCandidates() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new DynamicMIndex<>(3, 5, createPivots(pivotPoints), 20);
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(2000, 100));
+
+        tree.build();
+
+        final Point queryObject = new Point(50, 50);
+        final QueryStats expectedStats = tree.rangeQueryWithStats(queryObject, 20d).getQueryStats();
+        assertThat(expectedStats.getVisitedClusters() > 0, is(true));
+        assertThat(expectedStats.getCandidates() > 0, is(true));
+
+        final QueryStats beforeParallel = tree.getQueryStats();
+        tree.parallelRangeQuery(queryObject, 20d);
+        assertThat(tree.getQueryStats().getVisitedClusters() - beforeParallel.getVisitedClusters(),
+                   is(expectedStats.getVisitedClusters()));
+        assertThat(tree.getQueryStats().getCandidates() - beforeParallel.getCandidates(),
+                   is(expectedStats.getCandidates()));
+
+        final QueryStats beforeIterator = tree.getQueryStats();
+        try (CloseableIterator<Point> iterator = tree.rangeQueryIterator(queryObject, 20d)) {
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+        }
+        assertThat(tree.getQueryStats().getVisitedClusters() - beforeIterator.getVisitedClusters(),
+                   is(expectedStats.getVisitedClusters()));
+        assertThat(tree.getQueryStats().getCandidates() - beforeIterator.getCandidates(),
+                   is(expectedStats.getCandidates()));
+
+        final QueryContext<Point> context = tree.createQueryContext();
+        tree.rangeQuery(queryObject, 20d, context, new ArrayList<Point>());
+        assertThat(context.getQueryStats().getVisitedClusters(), is(expectedStats.getVisitedClusters()));
+        assertThat(context.getQueryStats().getCandidates(), is(expectedStats.getCandidates()));
+
+        // Objects of clusters inside of the range are counted without refinement, so they aren't candidates
+        final QueryStats beforeCount = tree.getQueryStats();
+        tree.rangeCount(queryObject, 20d);
+        assertThat(tree.getQueryStats().getVisitedClusters() - beforeCount.getVisitedClusters(),
+                   is(expectedStats.getVisitedClusters()));
+        final long countCandidates = tree.getQueryStats().getCandidates() - beforeCount.getCandidates();
+        assertThat(countCandidates > 0 && countCandidates <= expectedStats.getCandidates(), is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testConcurrentRangeQuery() throws Exception {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new DynamicMIndex<>(3, 5, createPivots(pivotPoints), 20);
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(2000, 100));
+
+        tree.build();
+
+        final int threads = 4;
+        final List<Point> queryObjects = createPoints(50, 100);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<QueryStats>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<QueryStats>() {
+                    @Override
+                    public QueryStats call() {
+                        final QueryStats threadStats = new QueryStats();
+                        final QueryContext<Point> context = tree.createQueryContext();
+                        final List<Point> points = new ArrayList<>();
+                        for (Point queryObject : queryObjects) {
+                            final Set<Point> expected = new HashSet<>(
+                                    new RangeQuerySeqScanner<>(queryObject, 15d, tree.getObjects()).calculate());
+
+                            final QueryResult<Point> result = tree.rangeQueryWithStats(queryObject, 15d);
+                            threadStats.add(result.getQueryStats());
+                            assertThat(new HashSet<>(result.getObjects()), is(equalTo(expected)));
+
+                            points.clear();
+                            tree.rangeQuery(queryObject, 15d, context, points);
+                            threadStats.add(context.getQueryStats());
+                            assertThat(new HashSet<>(points), is(equalTo(expected)));
+                        }
+
+                        return threadStats;
+                    }
+                }));
+            }
+
+            final QueryStats expectedStats = new QueryStats();
+            for (Future<QueryStats> future : futures) {
+                expectedStats.add(future.get());
+            }
+            assertThat(tree.getQueryStats().toString(), is(expectedStats.toString()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeCount() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new DynamicMIndex<>(3, 5, createPivots(pivotPoints), 20);
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(2000, 100));
+
+        tree.build();
+
+        for (Point queryObject : createPoints(20, 100)) {
+            for (double range : new double[]{5d, 30d, 150d}) {
+                assertThat(tree.rangeCount(queryObject, range),
+                           is(new RangeQuerySeqScanner<>(queryObject, range, tree.getObjects()).calculate().size()));
+            }
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeCountWholeIndex() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        assertThat(tree.rangeCount(new Point(50, 50), 1000d), is(tree.getObjects().size()));
+        assertThat(tree.getQueryStats().getObjectFilter(), is(0L));
+        assertThat(tree.getQueryStats().getIncludedClusters() > 0, is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryWithExpiredDeadline() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final QueryResult<Point> result = tree.rangeQuery(new Point(50, 50), 1000d,
+                QueryDeadline.after(0, TimeUnit.MILLISECONDS));
+
+        assertThat(result.isComplete(), is(false));
+        assertThat(result.getObjects().isEmpty(), is(true));
+        assertThat(result.getQueryStats().getVisitedClusters(), is(0L));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryCancelledDuringRefinement() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final QueryDeadline deadline = QueryDeadline.cancellable();
+        final Point queryObject = new Point(50, 50) {
+            private int distances = 0;
+
+            @Override
+            public double distance(Point point, double bound) {
+                if (++distances == 100) {
+                    deadline.cancel();
+                }
+                return super.distance(point, bound);
+            }
+        };
+        final QueryResult<Point> result = tree.rangeQuery(queryObject, 1000d, deadline);
+
+        assertThat(result.isComplete(), is(false));
+        assertThat(result.getObjects().size(), is(both(greaterThan(0)).and(lessThan(tree.getObjects().size()))));
+        assertThat(result.getQueryStats().getCandidates() < tree.getObjects().size(), is(true));
+        assertThat(new HashSet<>(tree.getObjects()).containsAll(result.getObjects()), is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testKNearestWithDeadline() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final Point queryObject = new Point(2, 1);
+        final QueryResult<ObjectDistance<Point>> result = tree.kNearest(queryObject, 10,
+                QueryDeadline.after(1, TimeUnit.HOURS));
+        assertThat(result.isComplete(), is(true));
+        assertThat(distancesOf(new ArrayList<>(result.getObjects())),
+                   is(equalTo(distancesOf(tree.kNearest(queryObject, 10)))));
+        assertThat(result.getQueryStats().getVisitedClusters() > 0, is(true));
+
+        final QueryDeadline cancelledDeadline = QueryDeadline.cancellable();
+        cancelledDeadline.cancel();
+        final QueryResult<ObjectDistance<Point>> cancelledResult = tree.kNearest(queryObject, 10, cancelledDeadline);
+        assertThat(cancelledResult.isComplete(), is(false));
+        assertThat(cancelledResult.getObjects().isEmpty(), is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testKNearestStopsWhenLowerBoundExceedsRadius() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new DynamicMIndex<>(3, 5, createPivots(pivotPoints), 20);
+        tree.addAll(pivotPoints);
+        final List<Point> points = createPoints(1000, 100);
+        tree.addAll(points);
+
+        tree.build();
+
+        final Point queryObject = points.get(0);
+        final QueryResult<ObjectDistance<Point>> result = tree.kNearest(queryObject, 3,
+                QueryDeadline.after(1, TimeUnit.HOURS));
+        assertThat(distancesOf(new ArrayList<>(result.getObjects())),
+                   is(equalTo(distancesOf(new KNearestSeqScanner<>(queryObject, 3, tree.getObjects()).calculate()))));
+        assertThat(result.getQueryStats().getVisitedClusters() < tree.getClusterStats().getClusters(), is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryPivotBoxFilter() {
+        final List<Point> pivotPoints = Arrays.asList(new Point(0, 0), new Point(100, 0), new Point(0, 100),
+                new Point(100, 100), new Point(50, 50));
+        final MIndex<Point> tree = new DynamicMIndex<>(3, 5, createPivots(pivotPoints), 20);
+        // Jitter avoids objects equally distant from two pivots
+        final Random random = new Random(42);
+        for (int x = 0; x < 100; x += 2) {
+            for (int y = 0; y < 100; y += 2) {
+                tree.add(new Point(x + random.nextDouble() / 10, y + random.nextDouble() / 10));
+            }
+        }
+
+        tree.build();
+
+        final Point queryObject = new Point(25, 70);
+        final QueryResult<Point> result = tree.rangeQueryWithStats(queryObject, 5d);
+
+        assertThat(new HashSet<>(result.getObjects()),
+                   is(equalTo(new HashSet<>(new RangeQuerySeqScanner<>(queryObject, 5d, tree.getObjects())
+                                                    .calculate()))));
+        assertThat(result.getQueryStats().getPivotBoxFilter() > 0, is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQuerySavesBtreeNodeVisits() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 2, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(2000, 100));
+
+        tree.build();
+
+        final Point queryObject = new Point(0, 0);
+        final QueryResult<Point> result = tree.rangeQueryWithStats(queryObject, 60d);
+
+        assertThat(new HashSet<>(result.getObjects()),
+                   is(equalTo(new HashSet<>(new RangeQuerySeqScanner<>(queryObject, 60d, tree.getObjects())
+                                                    .calculate()))));
+        assertThat(result.getObjects().size(), is(new HashSet<>(result.getObjects()).size()));
+        assertThat(result.getQueryStats().getBtreeNodeVisits() > 0, is(true));
+        assertThat(result.getQueryStats().getSavedBtreeNodeVisits() > 0, is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testAveragePivotFilterChecks() {
+        final List<Vector> pivotVectors = createVectors(50, 10, 1);
+        final MIndex<Vector> tree = new MultiLevelMIndex<>(2, 10, createPivots(pivotVectors));
+        tree.addAll(pivotVectors);
+        final List<Vector> vectors = createVectors(2000, 10, 1);
+        tree.addAll(vectors);
+
+        tree.build();
+
+        // Indexed object is always a candidate, so at least one object is checked by pivot filter
+        final Vector queryObject = vectors.get(0);
+        final QueryResult<Vector> result = tree.rangeQueryWithStats(queryObject, 0.5);
+        final QueryStats stats = result.getQueryStats();
+
+        logger.info("Average pivots checked per candidate: {}", stats.getAveragePivotFilterChecks());
+        assertThat(stats.getPivotFilterObjects() > 0, is(true));
+        assertThat(stats.getAveragePivotFilterChecks() >= 1, is(true));
+        assertThat(stats.getAveragePivotFilterChecks() <= 50, is(true));
+        assertThat(new HashSet<>(result.getObjects()),
+                   is(equalTo(new HashSet<>(new RangeQuerySeqScanner<>(queryObject, 0.5, tree.getObjects())
+                                                    .calculate()))));
+    }
+
+    @Test(groups = {"unit"})
+    public void testInsertIntoMultiLevelIndex() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 3, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(200, 100));
+
+        tree.build();
+        final long version = tree.getVersion();
+        for (Point point : createPoints(800, 100)) {
+            tree.insert(point);
+        }
+
+        assertThat(tree.getObjects().size(), is(1010));
+        assertThat(tree.getVersion(), is(version + 800));
+        assertInsertedObjectsAreFound(tree);
+    }
+
+    @Test(groups = {"unit"})
+    public void testInsertIntoDynamicIndexSplitsLeafClusters() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new DynamicMIndex<>(3, 3, createPivots(pivotPoints), 20);
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(20, 100));
+
+        tree.build();
+        final int clusters = tree.getClusterStats().getClusters();
+        for (Point point : createPoints(2000, 100)) {
+            tree.insert(point);
+        }
+
+        assertThat(tree.getClusterStats().getClusters() > clusters, is(true));
+        assertInsertedObjectsAreFound(tree);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = ".*has to be built.*",
+          groups = {"unit"})
+    public void testInsertIntoNotBuiltIndex() {
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 3, twoPivots());
+
+        tree.insert(new Point(1, 1));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+          expectedExceptionsMessageRegExp = ".*must be lower than maximum distance.*", groups = {"unit"})
+    public void testInsertObjectFartherThanMaximumDistance() {
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 3, twoPivots(), 10d);
+        tree.add(new Point(2, 3));
+        tree.add(new Point(3, 2));
+        tree.build();
+
+        tree.insert(new Point(1000, 1000));
+    }
+
+    @Test(groups = {"unit"})
+    public void testDeleteFromMultiLevelIndex() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 3, createPivots(pivotPoints));
+        final List<Point> points = createPoints(1000, 100);
+        tree.addAll(pivotPoints);
+        tree.addAll(points);
+
+        tree.build();
+        for (Point point : points.subList(0, 600)) {
+            assertThat(tree.delete(point), is(true));
+            assertThat(tree.delete(point), is(false));
+        }
+
+        assertThat(tree.getObjects().size(), is(410));
+        assertInsertedObjectsAreFound(tree);
+    }
+
+    @Test(groups = {"unit"})
+    public void testDeleteAllObjectsRemovesClusters() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final List<Point> points = createPoints(500, 100);
+        final MIndex<Point> multiLevelTree = new MultiLevelMIndex<>(2, 3, createPivots(pivotPoints));
+        final MIndex<Point> dynamicTree = new DynamicMIndex<>(3, 3, createPivots(pivotPoints), 20);
+        for (MIndex<Point> tree : Arrays.asList(multiLevelTree, dynamicTree)) {
+            tree.addAll(pivotPoints);
+            tree.addAll(points);
+            tree.build();
+
+            for (Point point : new ArrayList<>(tree.getObjects())) {
+                tree.delete(point);
+            }
+
+            assertThat(tree.getObjects(), is(empty()));
+            assertThat(tree.getClusterStats().getClusters(), is(0));
+            assertThat(tree.rangeQuery(new Point(0, 0), 1000d), is(empty()));
+
+            tree.insert(points.get(0));
+            assertThat(tree.rangeQuery(points.get(0), 1d), contains(points.get(0)));
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testDeleteFromDynamicIndex() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new DynamicMIndex<>(3, 3, createPivots(pivotPoints), 20);
+        final List<Point> points = createPoints(1000, 100);
+        tree.addAll(pivotPoints);
+        tree.addAll(points);
+
+        tree.build();
+        for (Point point : points.subList(0, 300)) {
+            assertThat(tree.delete(point), is(true));
+        }
+        final List<Point> insertedPoints = createPoints(300, 100);
+        for (Point point : insertedPoints) {
+            tree.insert(point);
+        }
+        for (Point point : points.subList(300, 600)) {
+            assertThat(tree.delete(point), is(true));
+        }
+
+        final Set<Point> expectedObjects = new HashSet<>(pivotPoints);
+        expectedObjects.addAll(points.subList(600, 1000));
+        expectedObjects.addAll(insertedPoints);
+        assertThat(tree.getObjects().size(), is(710));
+        assertThat(new HashSet<>(tree.getObjects()), is(equalTo(expectedObjects)));
+        assertInsertedObjectsAreFound(tree);
+    }
+
+    @Test(groups = {"unit"})
+    public void testUpdate() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 3, createPivots(pivotPoints));
+        final List<Point> points = createPoints(200, 100);
+        tree.addAll(pivotPoints);
+        tree.addAll(points);
+
+        tree.build();
+        final Point oldPoint = points.get(0);
+        final Point newPoint = new Point(oldPoint.distance(new Point(0, 0)), 0);
+
+        assertThat(tree.update(oldPoint, newPoint), is(true));
+        assertThat(tree.update(oldPoint, new Point(1, 1)), is(false));
+        assertThat(tree.rangeQuery(oldPoint, 1d), not(hasItem(oldPoint)));
+        assertThat(tree.rangeQuery(newPoint, 1d), hasItem(newPoint));
+        assertInsertedObjectsAreFound(tree);
+    }
+
+    @Test(groups = {"unit"})
+    public void testUpdateWithObjectFartherThanMaximumDistanceKeepsOldObject() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 3, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.build();
+
+        try {
+            tree.update(pivotPoints.get(0), new Point(100000, 100000));
+            fail("Object farther than maximum distance was inserted");
+        } catch (IllegalArgumentException e) {
+            assertThat(tree.rangeQuery(pivotPoints.get(0), 1d), hasItem(pivotPoints.get(0)));
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testBuildWithBtreeFillFactor() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new DynamicMIndex<>(3, 3, createPivots(pivotPoints), 20);
+        tree.setBtreeFillFactor(0.5);
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(1000, 100));
+
+        tree.build();
+        for (Point point : createPoints(500, 100)) {
+            tree.insert(point);
+        }
+
+        assertInsertedObjectsAreFound(tree);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+          expectedExceptionsMessageRegExp = ".*fill factor must be greater than 0 and at most 1.*", groups = {"unit"})
+    public void testBtreeFillFactorMustBeAtMostOne() {
+        new MultiLevelMIndex<>(2, 3, twoPivots()).setBtreeFillFactor(1.5);
+    }
+
+    @Test(groups = {"unit"})
+    public void testBuildWithMaximumDistanceEstimators() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final List<Point> points = createPoints(2000, 100);
+        for (MaximumDistanceEstimator estimator : MaximumDistanceEstimator.values()) {
+            final MIndex<Point> tree = new DynamicMIndex<>(3, 3, createPivots(pivotPoints), 20);
+            tree.setMaximumDistanceEstimator(estimator);
+            tree.addAll(pivotPoints);
+            tree.addAll(points);
+
+            tree.build();
+
+            assertThat(tree.getMaximumDistanceEstimator(), is(estimator));
+            assertInsertedObjectsAreFound(tree);
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testBuildWithPivotDistanceStorages() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final List<Point> points = createPoints(2000, 100);
+        for (PivotDistanceStorage storage : PivotDistanceStorage.values()) {
+            final MIndex<Point> multiLevelTree = new MultiLevelMIndex<>(3, 3, createPivots(pivotPoints));
+            final MIndex<Point> dynamicTree = new DynamicMIndex<>(3, 3, createPivots(pivotPoints), 20);
+            for (MIndex<Point> tree : Arrays.asList(multiLevelTree, dynamicTree)) {
+                tree.setPivotDistanceStorage(storage);
+                tree.addAll(pivotPoints);
+                tree.addAll(points);
+                tree.build();
+                for (Point point : createPoints(50, 150)) {
+                    tree.insert(point);
+                }
+
+                assertThat(tree.getPivotDistanceStorage(), is(storage));
+                assertInsertedObjectsAreFound(tree);
+                final Point queryObject = new Point(30, 60);
+                assertThat(distancesOf(tree.kNearest(queryObject, 10)), is(equalTo(
+                        distancesOf(new KNearestSeqScanner<>(queryObject, 10, tree.getObjects()).calculate()))));
+                assertThat(pairsOf(tree.similarityJoin(3d), true),
+                           is(equalTo(joinedPairs(tree.getObjects(), tree.getObjects(), 3d))));
+                assertThat(tree.getQueryStats().getPivotDistanceSavedBytes() > 0,
+                           is(storage != PivotDistanceStorage.DENSE));
+            }
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testBuildOfFirstLevelSubtreesKeepsClusterStats() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final List<Point> points = createPoints(3000, 100);
+        final MIndex<Point> multiLevelTree = new MultiLevelMIndex<>(3, 3, createPivots(pivotPoints));
+        final MIndex<Point> dynamicTree = new DynamicMIndex<>(3, 3, createPivots(pivotPoints), 20);
+        for (final MIndex<Point> tree : Arrays.asList(multiLevelTree, dynamicTree)) {
+            tree.addAll(pivotPoints);
+            tree.addAll(points);
+            tree.build();
+
+            final int[] clusters = new int[2];
+            tree.clusterRoot.accept(new ClusterVisitor<Point>() {
+                @Override
+                public void enterInternalCluster(InternalCluster<Point> internalCluster) {
+                    if (internalCluster != tree.clusterRoot) {
+                        clusters[0]++;
+                    }
+                    for (Cluster<Point> subCluster : internalCluster.getSubClusters()) {
+                        subCluster.accept(this);
+                    }
+                }
+
+                @Override
+                public void enterLeafCluster(LeafCluster<Point> leafCluster) {
+                    clusters[1]++;
+                }
+            });
+
+            final int expectedClusters = tree == multiLevelTree ? clusters[0] + clusters[1] : clusters[1];
+            assertThat(tree.getClusterStats().getClusters(), is(expectedClusters));
+            assertThat(tree.clusterRoot.getSubClusters().size(), is(pivotPoints.size()));
+            for (int i = 0; i < pivotPoints.size(); i++) {
+                double pivotDistanceMin = Double.POSITIVE_INFINITY;
+                double pivotDistanceMax = Double.NEGATIVE_INFINITY;
+                for (Point point : tree.getObjects()) {
+                    pivotDistanceMin = Math.min(pivotDistanceMin, tree.pivotDistanceTable.pivotDistance(point, i));
+                    pivotDistanceMax = Math.max(pivotDistanceMax, tree.pivotDistanceTable.pivotDistance(point, i));
+                }
+
+                assertThat(tree.clusterRoot.pivotBoxMin(i), is(pivotDistanceMin));
+                assertThat(tree.clusterRoot.pivotBoxMax(i), is(pivotDistanceMax));
+            }
+            assertInsertedObjectsAreFound(tree);
+        }
+    }
+
+    private void assertInsertedObjectsAreFound(MIndex<Point> tree) {
+        for (Point queryObject : createPoints(20, 100)) {
+            final Collection<Point> objects = tree.rangeQuery(queryObject, 20d);
+
+            assertThat(new HashSet<>(objects),
+                       is(equalTo(new HashSet<>(new RangeQuerySeqScanner<>(queryObject, 20d, tree.getObjects())
+                                                        .calculate()))));
+            assertThat(objects.size(), is(new HashSet<>(objects).size()));
+            assertThat(tree.rangeCount(queryObject, 20d), is(objects.size()));
+        }
+    }
+
+    @Test(groups = {"unit"})
+    public void testSimilaritySelfJoin() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final List<ObjectPair<Point>> pairs = tree.similarityJoin(5d);
+
+        assertThat(pairsOf(pairs, true), is(equalTo(joinedPairs(tree.getObjects(), tree.getObjects(), 5d))));
+        assertThat(pairs.size() * 2, is(pairsOf(pairs, true).size()));
+        assertThat(tree.getQueryStats().getPivotBoxFilter() > 0, is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testSimilaritySelfJoinDynamicIndex() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new DynamicMIndex<>(3, 5, createPivots(pivotPoints), 20);
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        final List<ObjectPair<Point>> pairs = tree.similarityJoin(8d);
+
+        assertThat(pairsOf(pairs, true), is(equalTo(joinedPairs(tree.getObjects(), tree.getObjects(), 8d))));
+        assertThat(pairs.size() * 2, is(pairsOf(pairs, true).size()));
+    }
+
+    @Test(groups = {"unit"})
+    public void testSimilarityJoinWithIndex() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(createPoints(300, 100));
+        final MIndex<Point> anotherTree = new DynamicMIndex<>(3, 5, createPivots(pivotPoints), 20);
+        anotherTree.addAll(createPoints(300, 50));
+
+        tree.build();
+        anotherTree.build();
+
+        final List<ObjectPair<Point>> pairs = tree.similarityJoin(anotherTree, 5d);
+
+        assertThat(pairsOf(pairs, false),
+                   is(equalTo(joinedPairs(tree.getObjects(), anotherTree.getObjects(), 5d))));
+    }
+
+    @Test(groups = {"unit"})
+    public void testSimilarityJoinWithObjects() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(createPoints(300, 100));
+        final List<Point> objects = createPoints(200, 100);
+
+        tree.build();
+
+        final List<ObjectPair<Point>> pairs = tree.similarityJoin(objects, 5d);
+
+        assertThat(pairsOf(pairs, false), is(equalTo(joinedPairs(tree.getObjects(), objects, 5d))));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+          expectedExceptionsMessageRegExp = ".*same pivots.*", groups = {"unit"})
+    public void testSimilarityJoinWithIndexWithDifferentPivots() {
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(createPoints(10, 100)));
+        final MIndex<Point> anotherTree = new MultiLevelMIndex<>(2, 5, createPivots(createPoints(10, 100)));
+
+        tree.similarityJoin(anotherTree, 5d);
+    }
+
+    @Test(groups = {"unit"})
+    public void testPlanSmallRangeUsesIndex() {
+        final MIndex<Point> tree = createPlannedIndex(new QueryCostModel(100, 1, 1, 1));
+
+        final QueryPlan plan = tree.plan(new Point(50, 50), 1d);
+
+        assertThat(plan.getStrategy(), is(QueryStrategy.INDEX));
+        assertThat(plan.getEstimatedCandidates() < tree.getObjects().size(), is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testPlanSmallRangeWithExpensiveClustersUsesPivotFilterScan() {
+        final MIndex<Point> tree = createPlannedIndex(new QueryCostModel(100, 1, 1, 1000000));
+
+        final QueryPlan plan = tree.plan(new Point(50, 50), 1d);
+
+        assertThat(plan.getStrategy(), is(QueryStrategy.PIVOT_FILTER_SCAN));
+    }
+
+    @Test(groups = {"unit"})
+    public void testPlanRangeCoveringAllObjectsUsesSequentialScan() {
+        final MIndex<Point> tree = createPlannedIndex(new QueryCostModel(100, 1, 1, 1));
+
+        final QueryPlan plan = tree.plan(new Point(50, 50), 1000d);
+
+        assertThat(plan.getStrategy(), is(QueryStrategy.SEQUENTIAL_SCAN));
+        assertThat(plan.getEstimatedSelectivity(), is(closeTo(1, 1e-9)));
+        assertThat(plan.getEstimatedCost(QueryStrategy.INDEX) > plan.getEstimatedCost(), is(true));
+    }
+
+    @Test(groups = {"unit"})
+    public void testRangeQueryStrategiesFindSameObjects() {
+        final MIndex<Point> tree = createPlannedIndex(new QueryCostModel(100, 1, 1, 1));
+        final Point queryObject = new Point(20, 30);
+        final Set<Point> expectedObjects = new HashSet<>(
+                new RangeQuerySeqScanner<>(queryObject, 20d, tree.getObjects()).calculate());
+
+        for (QueryStrategy strategy : QueryStrategy.values()) {
+            assertThat(new HashSet<>(tree.rangeQuery(queryObject, 20d, strategy).getObjects()),
+                       is(equalTo(expectedObjects)));
+        }
+        assertThat(new HashSet<>(tree.plannedRangeQuery(queryObject, 20d).getObjects()),
+                   is(equalTo(expectedObjects)));
+    }
+
+    @Test(groups = {"unit"})
+    public void testExplain() {
+        final MIndex<Point> tree = createPlannedIndex(new QueryCostModel(100, 1, 1, 1));
+        final Point queryObject = new Point(20, 30);
+
+        final QueryExplanation explanation = tree.explain(queryObject, 1000d);
+
+        assertThat(explanation.getPlan().getStrategy(), is(QueryStrategy.SEQUENTIAL_SCAN));
+        assertThat(explanation.getFoundObjects(), is(tree.getObjects().size()));
+        assertThat(explanation.getActualCost(), is(closeTo(explanation.getPlan().getEstimatedCost(), 1e-9)));
+        assertThat(explanation.getQueryStats().getCandidates(), is((long) tree.getObjects().size()));
+    }
+
+    @Test(groups = {"unit"})
+    public void testQueryCostModelIsCalibratedByBuild() {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(createPoints(500, 100));
+
+        tree.build();
+
+        assertThat(tree.getQueryCostModel().getDistanceCost() > 0, is(true));
+        assertThat(tree.getQueryCostModel().getPivotCheckCost() > 0, is(true));
+    }
+
+    private MIndex<Point> createPlannedIndex(QueryCostModel queryCostModel) {
+        final List<Point> pivotPoints = createPoints(10, 100);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.setQueryCostModel(queryCostModel);
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(2000, 100));
+
+        tree.build();
+
+        return tree;
+    }
+
+    private Set<List<Point>> pairsOf(List<ObjectPair<Point>> pairs, boolean symmetric) {
+        final Set<List<Point>> objectPairs = new HashSet<>();
+        for (ObjectPair<Point> pair : pairs) {
+            assertThat(pair.getDistance(), is(closeTo(pair.getFirst().distance(pair.getSecond()), 1e-9)));
+            objectPairs.add(Arrays.asList(pair.getFirst(), pair.getSecond()));
+            if (symmetric) {
+                objectPairs.add(Arrays.asList(pair.getSecond(), pair.getFirst()));
+            }
+        }
+
+        return objectPairs;
+    }
+
+    private Set<List<Point>> joinedPairs(List<Point> objects, List<Point> joinedObjects, double range) {
+        final Set<List<Point>> pairs = new HashSet<>();
+        for (Point object : objects) {
+            for (Point joinedObject : joinedObjects) {
+                if (object != joinedObject && object.distance(joinedObject) <= range) {
+                    pairs.add(Arrays.asList(object, joinedObject));
+                }
+            }
+        }
+
+        return pairs;
+    }
+
+    private <D extends Distanceable<D>> List<D> objectsOf(List<ObjectDistance<D>> objectDistances) {
+        final List<D> objects = new ArrayList<>(objectDistances.size());
+        for (ObjectDistance<D> objectDistance : objectDistances) {
+            objects.add(objectDistance.getObject());
+        }
+
+        return objects;
+    }
+
+    private <D extends Distanceable<D>> List<Double> distancesOf(List<ObjectDistance<D>> objectDistances) {
+        final List<Double> distances = new ArrayList<>(objectDistances.size());
+        for (ObjectDistance<D> objectDistance : objectDistances) {
+            distances.add(objectDistance.getDistance());
+        }
+
+        return distances;
+    }
+
     private List<Point> createPoints(int pointsCount, int limit) {
         List<Point> points = new ArrayList<>(pointsCount);
 
@@ -306,4 +1328,247 @@ public class MIndexTest {
         }
     }
 
+    @Test(groups = {"longRunning"}, dataProvider = "rangeQueryData")
+    public void testKNearestMultiLevelIndex(int pivotsCount, int objectsCount, int vectorDimension, int maxClusterLevel, int btreeDegree) {
+        final int limit = 1;
+        final List<Vector> pivotVectors = createVectors(pivotsCount, vectorDimension, limit);
+        final MIndex<Vector> tree = new MultiLevelMIndex<>(maxClusterLevel, btreeDegree, createPivots(pivotVectors));
+        final List<Vector> searchVectors = createVectors(100, vectorDimension, limit);
+        tree.addAll(searchVectors);
+        tree.addAll(pivotVectors);
+        tree.addAll(createVectors(objectsCount, vectorDimension, limit));
+
+        tree.build();
+
+        for (Vector vector : searchVectors) {
+            final int k = 10;
+            final List<ObjectDistance<Vector>> nearestObjects = tree.kNearest(vector, k);
+            final List<ObjectDistance<Vector>> nearestObjectsFromSeqScan = new KNearestSeqScanner<>(vector, k,
+                                                                                                    tree.getObjects())
+                    .calculate();
+
+            assertThat(distancesOf(nearestObjects), is(equalTo(distancesOf(nearestObjectsFromSeqScan))));
+        }
+    }
+
+    @Test(groups = {"longRunning"}, dataProvider = "rangeQueryData")
+    public void testKNearestDynamicIndex(int pivotsCount, int objectsCount, int vectorDimension, int maxClusterLevel, int btreeDegree) {
+        final int limit = 1;
+        final List<Vector> pivotVectors = createVectors(pivotsCount, vectorDimension, limit);
+        final MIndex<Vector> tree = new DynamicMIndex<>(maxClusterLevel, btreeDegree, createPivots(pivotVectors), 10);
+        final List<Vector> searchVectors = createVectors(100, vectorDimension, limit);
+        tree.addAll(searchVectors);
+        tree.addAll(pivotVectors);
+        tree.addAll(createVectors(objectsCount, vectorDimension, limit));
+
+        tree.build();
+
+        for (Vector vector : searchVectors) {
+            final int k = 10;
+            final List<ObjectDistance<Vector>> nearestObjects = tree.kNearest(vector, k);
+            final List<ObjectDistance<Vector>> nearestObjectsFromSeqScan = new KNearestSeqScanner<>(vector, k,
+                                                                                                    tree.getObjects())
+                    .calculate();
+
+            assertThat(distancesOf(nearestObjects), is(equalTo(distancesOf(nearestObjectsFromSeqScan))));
+        }
+    }
+
+    @DataProvider(name = "approximateKNearestData")
+    public Object[][] approximateKNearestData() {
+        return new Object[][]{
+                {DynamicMIndex.class},
+                {MultiLevelMIndex.class}
+        };
+    }
+
+    @Test(groups = {"longRunning"}, dataProvider = "approximateKNearestData")
+    public void testApproximateKNearestRecall(Class<?> indexClass) {
+        final int[] candidatesLimits = {100, 500, 1000, 5000, Integer.MAX_VALUE};
+        final int k = 10;
+        final List<Vector> pivotVectors = createVectors(30, 16, 1);
+        final MIndex<Vector> tree = indexClass == DynamicMIndex.class ?
+                                    new DynamicMIndex<>(3, 5, createPivots(pivotVectors), 50) :
+                                    new MultiLevelMIndex<>(3, 5, createPivots(pivotVectors));
+        final List<Vector> searchVectors = createVectors(100, 16, 1);
+        tree.addAll(searchVectors);
+        tree.addAll(pivotVectors);
+        tree.addAll(createVectors(10000, 16, 1));
+
+        tree.build();
+
+        final double[] recalls = new double[candidatesLimits.length];
+        for (Vector vector : searchVectors) {
+            final double kthDistance = new KNearestSeqScanner<>(vector, k, tree.getObjects()).calculate().get(k - 1)
+                                                                                            .getDistance();
+            final Collection<Vector> nearestObjectsFromSeqScan = new RangeQuerySeqScanner<>(vector, kthDistance,
+                                                                                          tree.getObjects())
+                    .calculate();
+
+            for (int i = 0; i < candidatesLimits.length; i++) {
+                final List<ObjectDistance<Vector>> nearestObjects = tree.approximateKNearest(vector, k,
+                                                                                             candidatesLimits[i],
+                                                                                             Integer.MAX_VALUE);
+                int found = 0;
+                for (ObjectDistance<Vector> nearestObject : nearestObjects) {
+                    if (nearestObjectsFromSeqScan.contains(nearestObject.getObject())) {
+                        found++;
+                    }
+                }
+                recalls[i] += (double) found / k / searchVectors.size();
+            }
+        }
+
+        for (int i = 0; i < candidatesLimits.length; i++) {
+            logger.info("{} approximate kNN recall with candidates limit {}: {}", indexClass.getSimpleName(),
+                        candidatesLimits[i], recalls[i]);
+            if (i > 0) {
+                assertThat(recalls[i] >= recalls[i - 1], is(true));
+            }
+        }
+        assertThat(recalls[candidatesLimits.length - 1], is(closeTo(1d, 1e-9)));
+    }
+
+    @Test(groups = {"longRunning"}, dataProvider = "rangeQueryData")
+    public void testRangeQueryBatchDynamicIndex(int pivotsCount, int objectsCount, int vectorDimension, int maxClusterLevel, int btreeDegree) {
+        final int limit = 1;
+        final List<Vector> pivotVectors = createVectors(pivotsCount, vectorDimension, limit);
+        final MIndex<Vector> tree = new DynamicMIndex<>(maxClusterLevel, btreeDegree, createPivots(pivotVectors), 10);
+        final List<Vector> searchVectors = createVectors(100, vectorDimension, limit);
+        tree.addAll(searchVectors);
+        tree.addAll(pivotVectors);
+        tree.addAll(createVectors(objectsCount, vectorDimension, limit));
+
+        tree.build();
+
+        final double range = 3;
+        final List<Collection<Vector>> foundVectors = tree.rangeQueryBatch(searchVectors, range);
+        for (int i = 0; i < searchVectors.size(); i++) {
+            final Set<Vector> pointsFromSeqScan = new HashSet<>(
+                    new RangeQuerySeqScanner<>(searchVectors.get(i), range, tree.getObjects()).calculate());
+
+            assertThat(new HashSet<>(foundVectors.get(i)), is(equalTo(pointsFromSeqScan)));
+            assertThat(foundVectors.get(i).size(), is(pointsFromSeqScan.size()));
+        }
+    }
+
+    @Test(groups = {"longRunning"}, dataProvider = "rangeQueryData")
+    public void testParallelRangeQueryMultiLevelIndex(int pivotsCount, int objectsCount, int vectorDimension, int maxClusterLevel, int btreeDegree) {
+        final int limit = 1;
+        final List<Vector> pivotVectors = createVectors(pivotsCount, vectorDimension, limit);
+        final MIndex<Vector> tree = new MultiLevelMIndex<>(maxClusterLevel, btreeDegree, createPivots(pivotVectors));
+        final List<Vector> searchVectors = createVectors(100, vectorDimension, limit);
+        tree.addAll(searchVectors);
+        tree.addAll(pivotVectors);
+        tree.addAll(createVectors(objectsCount, vectorDimension, limit));
+
+        tree.build();
+
+        for (Vector vector : searchVectors) {
+            final double range = 2;
+            final Collection<Vector> points = tree.parallelRangeQuery(vector, range);
+            final Set<Vector> pointsFromSeqScan = new HashSet<>(
+                    new RangeQuerySeqScanner<>(vector, range, tree.getObjects()).calculate());
+
+            assertThat(points.size(), is(pointsFromSeqScan.size()));
+            assertThat(new HashSet<>(points), is(equalTo(pointsFromSeqScan)));
+        }
+    }
+
+    @Test(groups = {"longRunning"}, dataProvider = "rangeQueryData")
+    public void testParallelRangeQueryDynamicIndex(int pivotsCount, int objectsCount, int vectorDimension, int maxClusterLevel, int btreeDegree) {
+        final int limit = 1;
+        final List<Vector> pivotVectors = createVectors(pivotsCount, vectorDimension, limit);
+        final MIndex<Vector> tree = new DynamicMIndex<>(maxClusterLevel, btreeDegree, createPivots(pivotVectors), 10);
+        final List<Vector> searchVectors = createVectors(100, vectorDimension, limit);
+        tree.addAll(searchVectors);
+        tree.addAll(pivotVectors);
+        tree.addAll(createVectors(objectsCount, vectorDimension, limit));
+
+        tree.build();
+
+        for (Vector vector : searchVectors) {
+            final double range = 3;
+            final Collection<Vector> points = tree.parallelRangeQuery(vector, range);
+            final Set<Vector> pointsFromSeqScan = new HashSet<>(
+                    new RangeQuerySeqScanner<>(vector, range, tree.getObjects()).calculate());
+
+            assertThat(points.size(), is(pointsFromSeqScan.size()));
+            assertThat(new HashSet<>(points), is(equalTo(pointsFromSeqScan)));
+        }
+    }
+
+    @Test(groups = {"longRunning"}, dataProvider = "rangeQueryData")
+    public void testRangeQueryIteratorDynamicIndex(int pivotsCount, int objectsCount, int vectorDimension, int maxClusterLevel, int btreeDegree) {
+        final int limit = 1;
+        final List<Vector> pivotVectors = createVectors(pivotsCount, vectorDimension, limit);
+        final MIndex<Vector> tree = new DynamicMIndex<>(maxClusterLevel, btreeDegree, createPivots(pivotVectors), 10);
+        final List<Vector> searchVectors = createVectors(100, vectorDimension, limit);
+        tree.addAll(searchVectors);
+        tree.addAll(pivotVectors);
+        tree.addAll(createVectors(objectsCount, vectorDimension, limit));
+
+        tree.build();
+
+        for (Vector vector : searchVectors) {
+            final double range = 3;
+            final List<Vector> points = new ArrayList<>();
+            try (CloseableIterator<Vector> iterator = tree.rangeQueryIterator(vector, range)) {
+                while (iterator.hasNext()) {
+                    points.add(iterator.next());
+                }
+            }
+            final Set<Vector> pointsFromSeqScan = new HashSet<>(
+                    new RangeQuerySeqScanner<>(vector, range, tree.getObjects()).calculate());
+
+            assertThat(points.size(), is(pointsFromSeqScan.size()));
+            assertThat(new HashSet<>(points), is(equalTo(pointsFromSeqScan)));
+        }
+    }
+
+    @Test(groups = {"longRunning"}, dataProvider = "rangeQueryData")
+    public void testRangeQueryWithContextDynamicIndex(int pivotsCount, int objectsCount, int vectorDimension, int maxClusterLevel, int btreeDegree) {
+        final int limit = 1;
+        final List<Vector> pivotVectors = createVectors(pivotsCount, vectorDimension, limit);
+        final MIndex<Vector> tree = new DynamicMIndex<>(maxClusterLevel, btreeDegree, createPivots(pivotVectors), 10);
+        final List<Vector> searchVectors = createVectors(100, vectorDimension, limit);
+        tree.addAll(searchVectors);
+        tree.addAll(pivotVectors);
+        tree.addAll(createVectors(objectsCount, vectorDimension, limit));
+
+        tree.build();
+
+        final QueryContext<Vector> context = tree.createQueryContext();
+        final List<Vector> points = new ArrayList<>();
+        for (Vector vector : searchVectors) {
+            final double range = 3;
+            points.clear();
+            tree.rangeQuery(vector, range, context, points);
+            final Set<Vector> pointsFromSeqScan = new HashSet<>(
+                    new RangeQuerySeqScanner<>(vector, range, tree.getObjects()).calculate());
+
+            assertThat(points.size(), is(pointsFromSeqScan.size()));
+            assertThat(new HashSet<>(points), is(equalTo(pointsFromSeqScan)));
+        }
+    }
+
+    @Test(groups = {"longRunning"}, dataProvider = "rangeQueryData")
+    public void testRangeCountDynamicIndex(int pivotsCount, int objectsCount, int vectorDimension, int maxClusterLevel, int btreeDegree) {
+        final int limit = 1;
+        final List<Vector> pivotVectors = createVectors(pivotsCount, vectorDimension, limit);
+        final MIndex<Vector> tree = new DynamicMIndex<>(maxClusterLevel, btreeDegree, createPivots(pivotVectors), 10);
+        final List<Vector> searchVectors = createVectors(100, vectorDimension, limit);
+        tree.addAll(searchVectors);
+        tree.addAll(pivotVectors);
+        tree.addAll(createVectors(objectsCount, vectorDimension, limit));
+
+        tree.build();
+
+        for (Vector vector : searchVectors) {
+            final double range = 3;
+            assertThat(tree.rangeCount(vector, range),
+                       is(new RangeQuerySeqScanner<>(vector, range, tree.getObjects()).calculate().size()));
+        }
+    }
+
 }
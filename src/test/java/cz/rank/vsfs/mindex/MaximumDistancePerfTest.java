@@ -40,8 +40,12 @@ import org.testng.annotations.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
 /**
  * @author Karel Rank
  */
@@ -105,13 +109,48 @@ public class MaximumDistancePerfTest {
     @Test(groups = "perf", dataProvider = "maximumDistancePerfData", enabled = false)
     public void test(TestParams params) {
         List<Vector> objects = Generators.createVectors(params.objectsCount, params.dimension, 10);
+        final ForkJoinPool pool = new ForkJoinPool(params.threads);
+        try {
+            for (int invocation = 1; invocation <= params.invocations; invocation++) {
+                final MaximumDistance<Vector> maximumDistance = new MaximumDistance<>(objects, pool);
+
+                stopWatch.start(params.toString(), Integer.toString(invocation));
+                maximumDistance.calculate();
+                stopWatch.stop(params.toString(), Integer.toString(invocation));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-        for (int invocation = 1; invocation <= params.invocations; invocation++) {
-            final MaximumDistance<Vector> maximumDistance = new MaximumDistance<>(objects, params.threads);
-
-            stopWatch.start(params.toString(), Integer.toString(invocation));
-            maximumDistance.calculate();
-            stopWatch.stop(params.toString(), Integer.toString(invocation));
+    /**
+     * Compares tiled fork/join calculation with the former one submitting a solver per object and chunk of objects.
+     * Both are warmed up before measured invocations.
+     */
+    @Test(groups = "perf", dataProvider = "maximumDistancePerfData", enabled = false)
+    public void testTiledComparedToCompletionService(TestParams params) {
+        List<Vector> objects = Generators.createVectors(params.objectsCount, params.dimension, 10);
+        final double expected = new CompletionServiceMaximumDistance<>(objects, params.threads).calculate();
+        final ForkJoinPool pool = new ForkJoinPool(params.threads);
+        try {
+            new MaximumDistance<>(objects, pool).calculate();
+
+            for (int invocation = 1; invocation <= params.invocations; invocation++) {
+                final CompletionServiceMaximumDistance<Vector> completionService =
+                        new CompletionServiceMaximumDistance<>(objects, params.threads);
+                stopWatch.start("COMPLETION SERVICE " + params, Integer.toString(invocation));
+                completionService.calculate();
+                stopWatch.stop("COMPLETION SERVICE " + params, Integer.toString(invocation));
+
+                final MaximumDistance<Vector> tiled = new MaximumDistance<>(objects, pool);
+                stopWatch.start("TILED " + params, Integer.toString(invocation));
+                final double maximum = tiled.calculate();
+                stopWatch.stop("TILED " + params, Integer.toString(invocation));
+
+                assertThat(maximum, is(expected));
+            }
+        } finally {
+            pool.shutdown();
         }
     }
 
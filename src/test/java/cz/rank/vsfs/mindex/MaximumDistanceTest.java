@@ -26,13 +26,21 @@
 
 package cz.rank.vsfs.mindex;
 
+import org.apache.commons.math3.util.FastMath;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import static cz.rank.vsfs.mindex.util.Generators.createPivots;
+import static cz.rank.vsfs.mindex.util.Generators.createVectors;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 
 /**
  * @author Karel Rank
@@ -45,6 +53,75 @@ public class MaximumDistanceTest {
         assertThat(maximumDistance.calculate(), is(3d));
     }
 
+    @Test
+    public void testMaximumDistancePrunedByPivots() {
+        final List<Point> points = points();
+
+        assertThat(new MaximumDistance<>(points).calculatePrunedByPivots(createPivots(points.subList(1, 3))),
+                   is(3d));
+    }
+
+    @Test
+    public void testPivotBound() {
+        final List<Point> points = points();
+
+        // Sum of the two biggest distances to pivot (0, 0)
+        assertThat(new MaximumDistance<>(points).calculatePivotBound(createPivots(points.subList(2, 3))), is(3d));
+        assertThat(new MaximumDistance<>(points).calculatePivotBound(createPivots(points.subList(0, 1))), is(5d));
+    }
+
+    @Test
+    public void testTiledMaximumDistanceAcrossTileBorders() {
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int vectorsCount : new int[]{0, 1, 2, 255, 256, 257, 700, 1500}) {
+                final List<Vector> vectors = createVectors(vectorsCount, 4, 1000);
+                final double expected = new CompletionServiceMaximumDistance<>(vectors, 2).calculate();
+
+                assertThat(new MaximumDistance<>(vectors).calculate(), is(expected));
+                assertThat(new MaximumDistance<>(vectors, pool).calculate(), is(expected));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @DataProvider(name = "vectorsData")
+    public Object[][] vectorsData() {
+        return new Object[][]{{500, 1, 3}, {3000, 2, 5}, {3000, 8, 10}, {12000, 3, 20}, {2000, 32, 8}};
+    }
+
+    @Test(dataProvider = "vectorsData")
+    public void testEstimatorsOfVectors(int vectorsCount, int dimension, int pivotsCount) {
+        final List<Vector> vectors = createVectors(vectorsCount, dimension, 1000);
+        final List<Pivot<Vector>> pivots = createPivots(vectors.subList(0, pivotsCount));
+        final double exact = new MaximumDistance<>(vectors).calculate();
+
+        assertThat(new MaximumDistance<>(vectors).calculatePrunedByPivots(pivots), is(exact));
+        assertThat(new MaximumDistance<>(vectors).calculatePivotBound(pivots), is(greaterThanOrEqualTo(exact)));
+
+        final double farPairs = new MaximumDistance<>(vectors).estimateByFarPairs(pivots);
+        assertThat(farPairs, is(greaterThanOrEqualTo(exact / 2)));
+        assertThat(farPairs, is(lessThanOrEqualTo(FastMath.nextUp(exact))));
+        for (MaximumDistanceEstimator estimator : MaximumDistanceEstimator.values()) {
+            assertThat(estimator.toString(), estimator.estimate(vectors, pivots),
+                       is(greaterThan(nearestPivotDistance(vectors, pivots))));
+        }
+    }
+
+    private double nearestPivotDistance(List<Vector> vectors, List<Pivot<Vector>> pivots) {
+        double maximum = 0;
+        for (Vector vector : vectors) {
+            double nearest = Double.POSITIVE_INFINITY;
+            for (Pivot<Vector> pivot : pivots) {
+                nearest = FastMath.min(nearest, pivot.distance(vector));
+            }
+            maximum = FastMath.max(maximum, nearest);
+        }
+
+        return maximum;
+    }
+
     private List<Point> points() {
         final List<Point> points = new ArrayList<>();
         points.add(new Point(-2, 0));
@@ -26,11 +26,20 @@
 
 package cz.rank.vsfs.mindex;
 
+import cz.rank.vsfs.mindex.util.Generators;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
 /**
  * @author Karel Rank
  */
@@ -41,6 +50,149 @@ public class PivotDistanceTableTest {
         distanceTable.calculate();
     }
 
+    @DataProvider(name = "densePivotDistanceTableData")
+    public Object[][] densePivotDistanceTableData() {
+        return new Object[][]{{2000, 10}, {25000, 3}, {400, 300}};
+    }
+
+    @Test(dataProvider = "densePivotDistanceTableData")
+    public void testDensePivotDistanceTable(int objectsCount, int pivotsCount) {
+        final List<Vector> objects = Generators.createVectors(objectsCount, 4, 100);
+        final List<Pivot<Vector>> pivots = Generators.createPivots(objects.subList(0, pivotsCount));
+        final PivotDistanceTable<Vector> denseTable = new DensePivotDistanceTable<>(50d, pivots, objects);
+        denseTable.calculate();
+
+        for (Vector object : objects) {
+            assertDistances(denseTable, object, pivots);
+        }
+    }
+
+    @Test
+    public void testDensePivotDistanceTableAddAndRemove() {
+        final List<Vector> objects = Generators.createVectors(100, 4, 100);
+        final List<Pivot<Vector>> pivots = Generators.createPivots(objects.subList(0, 5));
+        final PivotDistanceTable<Vector> denseTable = new DensePivotDistanceTable<>(50d, pivots,
+                objects.subList(0, 50));
+        denseTable.calculate();
+
+        for (Vector object : objects.subList(0, 20)) {
+            denseTable.remove(object);
+            assertThat(denseTable.contains(object), is(false));
+        }
+        for (Vector object : objects.subList(50, 100)) {
+            denseTable.add(object);
+        }
+
+        for (Vector object : objects.subList(20, 100)) {
+            assertThat(denseTable.contains(object), is(true));
+            assertDistances(denseTable, object, pivots);
+        }
+    }
+
+    @Test
+    public void testDensePivotDistanceTableOrdersEqualDistancesByPivotIndex() {
+        final PivotDistanceTable<Point> denseTable = new DensePivotDistanceTable<>(pivots(), points());
+        denseTable.calculate();
+
+        // Pivots (-1, 0) and (1, 0) are equally far from (0, 1)
+        final Point middle = new Point(0, 1);
+        denseTable.add(middle);
+        assertThat(denseTable.pivotAt(middle, 0).getIndex(), is(2));
+        assertThat(denseTable.pivotAt(middle, 1).getIndex(), is(1));
+        assertThat(denseTable.pivotAt(middle, 2).getIndex(), is(3));
+        assertThat(denseTable.pivotAt(middle, 3).getIndex(), is(0));
+    }
+
+    @DataProvider(name = "quantizedPivotDistanceTableData")
+    public Object[][] quantizedPivotDistanceTableData() {
+        return new Object[][]{{2000, 10, 8}, {2000, 10, 16}, {25000, 3, 16}, {400, 300, 8}};
+    }
+
+    @Test(dataProvider = "quantizedPivotDistanceTableData")
+    public void testQuantizedPivotDistanceTable(int objectsCount, int pivotsCount, int bits) {
+        final List<Vector> objects = Generators.createVectors(objectsCount, 4, 100);
+        final List<Pivot<Vector>> pivots = Generators.createPivots(objects.subList(0, pivotsCount));
+        final PivotDistanceTable<Vector> denseTable = new DensePivotDistanceTable<>(50d, pivots, objects);
+        denseTable.calculate();
+        final QuantizedPivotDistanceTable<Vector> quantizedTable = new QuantizedPivotDistanceTable<>(50d, pivots,
+                objects, bits);
+        quantizedTable.calculate();
+
+        for (Vector object : objects) {
+            assertQuantizedDistances(quantizedTable, denseTable, object, pivots);
+        }
+        assertThat(quantizedTable.getSavedBytes(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void testQuantizedPivotDistanceTableKeepsDistancesOutOfScaleExactly() {
+        final List<Vector> objects = Generators.createVectors(100, 4, 100);
+        final List<Pivot<Vector>> pivots = Generators.createPivots(objects.subList(0, 5));
+        final List<Vector> addedObjects = new ArrayList<>(Generators.createVectors(20, 4, 100));
+        addedObjects.add(new Vector(1000, 1000, 1000, 1000));
+        final List<Vector> allObjects = new ArrayList<>(objects);
+        allObjects.addAll(addedObjects);
+        final PivotDistanceTable<Vector> denseTable = new DensePivotDistanceTable<>(50d, pivots, allObjects);
+        denseTable.calculate();
+        final QuantizedPivotDistanceTable<Vector> quantizedTable = new QuantizedPivotDistanceTable<>(50d, pivots,
+                objects, 8);
+        quantizedTable.calculate();
+
+        for (Vector object : objects.subList(0, 20)) {
+            quantizedTable.remove(object);
+            assertThat(quantizedTable.contains(object), is(false));
+        }
+        for (Vector object : addedObjects) {
+            quantizedTable.add(object);
+        }
+
+        assertThat(quantizedTable.getExactDistancesCount(), is(greaterThanOrEqualTo(4)));
+        for (Vector object : allObjects.subList(20, allObjects.size())) {
+            assertThat(quantizedTable.contains(object), is(true));
+            assertQuantizedDistances(quantizedTable, denseTable, object, pivots);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testQuantizedPivotDistanceTableBits() {
+        new QuantizedPivotDistanceTable<>(pivots(), points(), 12);
+    }
+
+    private <D extends Distanceable<D>> void assertQuantizedDistances(PivotDistanceTable<D> quantizedTable,
+                                                                      PivotDistanceTable<D> denseTable, D object,
+                                                                      List<Pivot<D>> pivots) {
+        for (Pivot<D> pivot : pivots) {
+            final int pivotIndex = pivot.getIndex();
+            assertThat(quantizedTable.pivotDistance(object, pivotIndex),
+                    is(closeTo(denseTable.pivotDistance(object, pivotIndex),
+                            quantizedTable.pivotDistanceError(pivotIndex))));
+        }
+
+        assertThat(quantizedTable.firstPivotDistance(object), is(denseTable.firstPivotDistance(object)));
+        assertThat(quantizedTable.distanceAt(object, 0), is(denseTable.distanceAt(object, 0)));
+        for (int i = 0; i < pivots.size(); i++) {
+            assertThat(quantizedTable.pivotAt(object, i), is(denseTable.pivotAt(object, i)));
+            assertThat(quantizedTable.distanceAt(object, i),
+                    is(quantizedTable.pivotDistance(object, quantizedTable.pivotAt(object, i).getIndex())));
+        }
+    }
+
+    private <D extends Distanceable<D>> void assertDistances(PivotDistanceTable<D> table, D object,
+                                                             List<Pivot<D>> pivots) {
+        for (Pivot<D> pivot : pivots) {
+            assertThat(table.pivotDistance(object, pivot.getIndex()), is(pivot.distance(object) / 50d));
+        }
+
+        assertThat(table.firstPivotDistance(object), is(table.distanceAt(object, 0)));
+        for (int i = 0; i < pivots.size(); i++) {
+            assertThat(table.distanceAt(object, i), is(table.pivotDistance(object, table.pivotAt(object, i)
+                                                                                     .getIndex())));
+            if (i > 0) {
+                assertThat(table.distanceAt(object, i - 1), is(lessThanOrEqualTo(table.distanceAt(object, i))));
+            }
+        }
+    }
+
     private List<Point> points() {
         List<Point> points = new ArrayList<>();
         points.add(new Point(-2, 1));
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cz.rank.vsfs.mindex;
+
+import cz.rank.vsfs.mindex.util.Generators;
+import cz.rank.vsfs.mindex.util.PerfLogger;
+import org.perf4j.StopWatch;
+import org.perf4j.slf4j.Slf4JStopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares pruning of range queries of indexes with pivots selected by each {@link PivotSelectionStrategy}. All
+ * indexes are built from the same clustered vectors and queried by the same query objects.
+ *
+ * @author Karel Rank
+ */
+public class PivotSelectorPerfTest {
+    private static final int OBJECTS_COUNT = 50000;
+    private static final int QUERY_OBJECTS = 100;
+    private static final int DIMENSION = 16;
+    private static final int CLUSTERS_COUNT = 50;
+    private static final int CLUSTER_MAX_LEVEL = 3;
+    private static final int BTREE_LEVEL = 100;
+    /**
+     * Range of queries as a fraction of maximum distance
+     */
+    private static final double RANGE = 0.05;
+    private static final Integer[] PIVOTS_COUNTS = {10,
+                                                    20,
+                                                    50};
+    private static final Logger logger = LoggerFactory.getLogger(PivotSelectorPerfTest.class);
+    private static final StopWatch stopWatch = new Slf4JStopWatch(PerfLogger.LOGGER);
+    private List<Vector> objects;
+    private List<Vector> queryObjects;
+    private double maximumDistance;
+
+    @BeforeSuite
+    public void logJvmInfo() {
+        PerfLogger.logJvmInfo();
+    }
+
+    @BeforeClass
+    public void createObjects() {
+        final List<Vector> vectors = Generators.createClusteredVectors(OBJECTS_COUNT + QUERY_OBJECTS, DIMENSION,
+                CLUSTERS_COUNT, 100, 10);
+        objects = new ArrayList<>(vectors.subList(0, OBJECTS_COUNT));
+        queryObjects = new ArrayList<>(vectors.subList(OBJECTS_COUNT, OBJECTS_COUNT + QUERY_OBJECTS));
+        maximumDistance = MaximumDistanceEstimator.SAMPLED_FAR_PAIRS.estimate(objects,
+                PivotSelectionStrategy.FIRST.select(objects, 1));
+        logger.info("Maximum distance is {}", maximumDistance);
+    }
+
+    @DataProvider(name = "pivotSelectionData")
+    public Object[][] pivotSelectionData() {
+        final List<Object[]> params = new ArrayList<>();
+        for (Integer pivotsCount : PIVOTS_COUNTS) {
+            for (PivotSelectionStrategy strategy : PivotSelectionStrategy.values()) {
+                params.add(new Object[]{strategy, pivotsCount});
+            }
+        }
+
+        return params.toArray(new Object[params.size()][]);
+    }
+
+    /**
+     * Logs ratio of objects whose distance to query object wasn't computed, ratio of candidates filtered by
+     * pivots and counts of visited and filtered clusters
+     */
+    @Test(groups = "perf", dataProvider = "pivotSelectionData")
+    public void testPruning(PivotSelectionStrategy strategy, int pivotsCount) {
+        final String tag = strategy + " {pivotsCount=" + pivotsCount + "}";
+        stopWatch.start(tag + ".select");
+        final List<Pivot<Vector>> pivots = strategy.select(objects, pivotsCount);
+        stopWatch.stop(tag + ".select");
+
+        final MIndex<Vector> mIndex = new MultiLevelMIndex<>(CLUSTER_MAX_LEVEL, BTREE_LEVEL, pivots,
+                maximumDistance * 1.15d);
+        mIndex.addAll(objects);
+        stopWatch.start(tag + ".build");
+        mIndex.build();
+        stopWatch.stop(tag + ".build");
+
+        long found = 0;
+        stopWatch.start(tag + ".rangeQuery");
+        for (Vector queryObject : queryObjects) {
+            found += mIndex.rangeQuery(queryObject, RANGE * maximumDistance).size();
+        }
+        stopWatch.stop(tag + ".rangeQuery");
+
+        final QueryStats stats = mIndex.getQueryStats();
+        final long distanceComputations = stats.getCandidates() - stats.getPivotFilter();
+        logger.info("{}: pruning ratio {}, pivot filter rate {}, candidates {}, distance computations {}, found {}, "
+                        + "visited clusters {}, pivot box filter {}, double pivot filter {}", tag,
+                1 - (double) distanceComputations / ((long) OBJECTS_COUNT * QUERY_OBJECTS),
+                stats.getPivotFilterRate(), stats.getCandidates(), distanceComputations, found,
+                stats.getVisitedClusters(), stats.getPivotBoxFilter(), stats.getDoublePivotDistanceFilter());
+        logger.info("{}", mIndex.getClusterStats());
+    }
+}
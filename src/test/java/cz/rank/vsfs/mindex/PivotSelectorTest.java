@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cz.rank.vsfs.mindex;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static cz.rank.vsfs.mindex.util.Generators.createVectors;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author Karel Rank
+ */
+public class PivotSelectorTest {
+    @DataProvider(name = "strategies")
+    public Object[][] strategies() {
+        final PivotSelectionStrategy[] strategies = PivotSelectionStrategy.values();
+        final Object[][] data = new Object[strategies.length][];
+        for (int i = 0; i < strategies.length; i++) {
+            data[i] = new Object[]{strategies[i]};
+        }
+
+        return data;
+    }
+
+    @Test(dataProvider = "strategies")
+    public void testSelectedPivots(PivotSelectionStrategy strategy) {
+        final List<Vector> objects = createVectors(3000, 4, 100);
+
+        for (int pivotsCount : new int[]{1, 20, 400}) {
+            final List<Pivot<Vector>> pivots = strategy.select(objects, pivotsCount);
+
+            assertThat(pivots.size(), is(pivotsCount));
+            final Set<Vector> pivotObjects = Collections.newSetFromMap(new IdentityHashMap<Vector, Boolean>());
+            for (int i = 0; i < pivotsCount; i++) {
+                assertThat(pivots.get(i).getIndex(), is(i));
+                pivotObjects.add(pivots.get(i).getObject());
+            }
+            assertThat(pivotObjects.size(), is(pivotsCount));
+            for (Vector object : objects) {
+                pivotObjects.remove(object);
+            }
+            assertThat(pivotObjects.isEmpty(), is(true));
+        }
+    }
+
+    @Test(dataProvider = "strategies")
+    public void testSelectionIsRepeatable(PivotSelectionStrategy strategy) {
+        final List<Vector> objects = createVectors(1000, 4, 100);
+
+        assertThat(objectsOf(strategy.select(objects, 10)), is(objectsOf(strategy.select(objects, 10))));
+    }
+
+    @Test(dataProvider = "strategies")
+    public void testAllObjectsSelected(PivotSelectionStrategy strategy) {
+        final List<Point> points = Arrays.asList(new Point(0, 0), new Point(0, 0), new Point(1, 0), new Point(1, 0));
+
+        assertThat(objectsOf(strategy.select(points, 4)), containsInAnyOrder(points.toArray()));
+    }
+
+    @Test
+    public void testFarthestFirst() {
+        final List<Point> points = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            points.add(new Point(i, 0));
+        }
+
+        final List<Pivot<Point>> pivots = new PivotSelector<>(points).selectFarthestFirst(3);
+
+        assertThat(objectsOf(pivots.subList(0, 2)), containsInAnyOrder(points.get(0), points.get(10)));
+        assertThat(pivots.get(2).getObject(), is(points.get(5)));
+    }
+
+    @Test
+    public void testKMedoids() {
+        final List<Point> points = Arrays.asList(new Point(-1, 0), new Point(0, 0), new Point(1, 0),
+                new Point(100, 0), new Point(101, 0), new Point(102, 0), new Point(101, 1));
+
+        final List<Pivot<Point>> pivots = new PivotSelector<>(points).selectKMedoids(2);
+
+        assertThat(objectsOf(pivots), containsInAnyOrder(points.get(1), points.get(4)));
+    }
+
+    @Test
+    public void testIncrementalSelectionPrefersSpreadPivots() {
+        final List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            points.add(new Point(i, 0));
+        }
+        final Point farPoint = new Point(50, 1000);
+        points.add(farPoint);
+
+        final Pivot<Point> pivot = new PivotSelector<>(points).selectIncrementally(1).get(0);
+
+        // Distances to an end of the line spread pairs better than distances to the far point above its middle
+        assertThat(pivot.getObject() != farPoint, is(true));
+        assertThat(pivot.getObject().distance(points.get(50)) > 25, is(true));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoPivots() {
+        new PivotSelector<>(createVectors(10, 2, 10)).selectFarthestFirst(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMorePivotsThanObjects() {
+        new PivotSelector<>(createVectors(10, 2, 10)).selectKMedoids(11);
+    }
+
+    private static <D extends Distanceable<D>> List<D> objectsOf(List<Pivot<D>> pivots) {
+        final List<D> objects = new ArrayList<>(pivots.size());
+        for (Pivot<D> pivot : pivots) {
+            objects.add(pivot.getObject());
+        }
+
+        return objects;
+    }
+}
@@ -47,4 +47,30 @@ public class PointTest {
         
         assertThat(a.distance(b), greaterThan(0d));
     }
+
+    @Test(groups = {"unit"})
+    public void testBoundedDistanceWithinBound() {
+        Point a = new Point(0, 0);
+        Point b = new Point(3, 4);
+
+        assertThat(a.distance(b, 5d), is(a.distance(b)));
+    }
+
+    @Test(groups = {"unit"})
+    public void testBoundedDistanceAboveBound() {
+        Point a = new Point(0, 0);
+        Point b = new Point(30, 4);
+
+        assertThat(a.distance(b, 5d), allOf(greaterThan(5d), lessThanOrEqualTo(a.distance(b))));
+    }
+
+    @Test(groups = {"unit"})
+    public void testBoundedDistanceAtBound() {
+        Point a = new Point(0, 0);
+        Point b = new Point(5, 0);
+        Point c = new Point(5, 1e-7);
+
+        assertThat(a.distance(b, 5d), is(5d));
+        assertThat(a.distance(c, 5d), allOf(greaterThan(5d), is(a.distance(c))));
+    }
 }
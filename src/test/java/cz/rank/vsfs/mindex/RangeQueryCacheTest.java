@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2012 Karel Rank All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *  Neither the name of Karel Rank nor the names of its contributors may be used to
+ *   endorse or promote products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cz.rank.vsfs.mindex;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import static cz.rank.vsfs.mindex.util.Generators.createPivots;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * @author Karel Rank
+ */
+public class RangeQueryCacheTest {
+
+    @Test(groups = {"unit"})
+    public void testRepeatedQueryIsCached() {
+        final MIndex<Point> tree = createIndex();
+        final RangeQueryCache<Point> cache = new RangeQueryCache<>(tree, 1024 * 1024);
+        final Point queryObject = new Point(10, 10);
+
+        final Collection<Point> points = cache.rangeQuery(queryObject, 30d);
+        final Collection<Point> cachedPoints = cache.rangeQuery(queryObject, 30d);
+
+        assertThat(cachedPoints, containsInAnyOrder(points.toArray()));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test(groups = {"unit"})
+    public void testQueryRecordsDistancesOfFoundObjects() {
+        final MIndex<Point> tree = createIndex();
+        final Point queryObject = new Point(10, 10);
+
+        final List<ObjectDistance<Point>> objectDistances = tree.rangeQueryDistances(queryObject, 30d);
+
+        final Collection<Point> points = new ArrayList<>();
+        for (ObjectDistance<Point> objectDistance : objectDistances) {
+            assertThat(objectDistance.getDistance(), is(queryObject.distance(objectDistance.getObject())));
+            points.add(objectDistance.getObject());
+        }
+        assertThat(points, is(tree.rangeQuery(queryObject, 30d)));
+    }
+
+    @Test(groups = {"unit"})
+    public void testSmallerRangeIsFilteredFromCachedResult() {
+        final MIndex<Point> tree = createIndex();
+        final RangeQueryCache<Point> cache = new RangeQueryCache<>(tree, 1024 * 1024);
+        final Point queryObject = new Point(10, 10);
+
+        cache.rangeQuery(queryObject, 50d);
+        final Collection<Point> points = cache.rangeQuery(queryObject, 20d);
+
+        assertThat(points, containsInAnyOrder(
+                new RangeQuerySeqScanner<>(queryObject, 20d, tree.getObjects()).calculate().toArray()));
+        assertThat(cache.getHits(), is(1L));
+    }
+
+    @Test(groups = {"unit"})
+    public void testLargerRangeIsQueried() {
+        final MIndex<Point> tree = createIndex();
+        final RangeQueryCache<Point> cache = new RangeQueryCache<>(tree, 1024 * 1024);
+        final Point queryObject = new Point(10, 10);
+
+        cache.rangeQuery(queryObject, 20d);
+        final Collection<Point> points = cache.rangeQuery(queryObject, 50d);
+        cache.rangeQuery(queryObject, 40d);
+
+        assertThat(points, containsInAnyOrder(
+                new RangeQuerySeqScanner<>(queryObject, 50d, tree.getObjects()).calculate().toArray()));
+        assertThat(cache.getMisses(), is(2L));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test(groups = {"unit"})
+    public void testCacheIsInvalidatedByRebuild() {
+        final MIndex<Point> tree = createIndex();
+        final RangeQueryCache<Point> cache = new RangeQueryCache<>(tree, 1024 * 1024);
+        final Point queryObject = new Point(10, 10);
+        cache.rangeQuery(queryObject, 30d);
+
+        final Point addedPoint = new Point(10.5, 10.5);
+        tree.add(addedPoint);
+        tree.build();
+        final Collection<Point> points = cache.rangeQuery(queryObject, 30d);
+
+        assertThat(points.contains(addedPoint), is(true));
+        assertThat(cache.getMisses(), is(2L));
+        assertThat(cache.getHits(), is(0L));
+    }
+
+    @Test(groups = {"unit"})
+    public void testLeastRecentlyUsedResultsAreEvicted() {
+        final MIndex<Point> tree = createIndex();
+        final List<Point> queryObjects = new ArrayList<>();
+        long weight = 0;
+        for (int i = 0; i < 5; i++) {
+            final Point queryObject = new Point(i * 10, i * 10);
+            queryObjects.add(queryObject);
+            weight += RangeQueryCache.ENTRY_WEIGHT +
+                      RangeQueryCache.RESULT_WEIGHT * tree.rangeCount(queryObject, 20d);
+        }
+        final RangeQueryCache<Point> cache = new RangeQueryCache<>(tree, weight - 1);
+
+        for (Point queryObject : queryObjects) {
+            cache.rangeQuery(queryObject, 20d);
+        }
+
+        assertThat(cache.size(), is(4));
+        assertThat(cache.getWeight(), is(lessThan(weight)));
+
+        cache.rangeQuery(queryObjects.get(1), 20d);
+        cache.rangeQuery(queryObjects.get(0), 20d);
+
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getMisses(), is(6L));
+    }
+
+    @Test(groups = {"unit"})
+    public void testTooBigResultIsNotCached() {
+        final MIndex<Point> tree = createIndex();
+        final RangeQueryCache<Point> cache = new RangeQueryCache<>(tree, RangeQueryCache.ENTRY_WEIGHT);
+
+        cache.rangeQuery(new Point(10, 10), 1000d);
+
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getWeight(), is(0L));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+          expectedExceptionsMessageRegExp = ".*must be greater than 0.*", groups = {"unit"})
+    public void testMaximumWeightMustBeGreaterThanZero() {
+        new RangeQueryCache<>(createIndex(), 0);
+    }
+
+    private MIndex<Point> createIndex() {
+        final Random random = new Random(42);
+        final List<Point> pivotPoints = createPoints(random, 10);
+        final MIndex<Point> tree = new MultiLevelMIndex<>(2, 5, createPivots(pivotPoints));
+        tree.addAll(pivotPoints);
+        tree.addAll(createPoints(random, 500));
+        tree.build();
+
+        return tree;
+    }
+
+    private List<Point> createPoints(Random random, int pointsCount) {
+        final List<Point> points = new ArrayList<>(pointsCount);
+        for (int i = 0; i < pointsCount; ++i) {
+            points.add(new Point(random.nextDouble() * 200 - 100, random.nextDouble() * 200 - 100));
+        }
+
+        return points;
+    }
+}
@@ -55,6 +55,38 @@ public class VectorTest {
         assertThat(params.vector1.distance(params.vector2), is(params.expectedDistance));
     }
 
+    @Test(groups = "unit", dataProvider = "vectorData")
+    public void testBoundedDistanceWithinBound(TestParams params) {
+        assertThat(params.vector1.distance(params.vector2, params.expectedDistance), is(params.expectedDistance));
+        assertThat(params.vector1.distance(params.vector2, Double.POSITIVE_INFINITY), is(params.expectedDistance));
+    }
+
+    @Test(groups = "unit")
+    public void testBoundedDistanceAboveBound() {
+        final Vector vector1 = new Vector(0d, 0d, 0d, 0d);
+        final Vector vector2 = new Vector(3d, 4d, 5d, 6d);
+
+        assertThat(vector1.distance(vector2, 4d) > 4d, is(true));
+        assertThat(vector1.distance(vector2, 4d) < vector1.distance(vector2), is(true));
+    }
+
+    /**
+     * Partial sum of the first two dimensions is greater than square of the bound, but its square root is rounded
+     * to the bound
+     */
+    @Test(groups = "unit")
+    public void testBoundedDistanceRoundedToBound() {
+        final Vector vector = new Vector(0.3779644730092272d, 4.041451884327381d);
+        final Vector zero = new Vector(0d, 0d);
+        final double bound = vector.distance(zero);
+        assertThat(vector.distance(zero, bound), is(bound));
+
+        final Vector fartherVector = new Vector(0.3779644730092272d, 4.041451884327381d, 1e-7d);
+        final Vector fartherZero = new Vector(0d, 0d, 0d);
+        assertThat(fartherVector.distance(fartherZero) > bound, is(true));
+        assertThat(fartherVector.distance(fartherZero, bound) > bound, is(true));
+    }
+
     private class TestParams {
         private final Vector vector1;
         private final Vector vector2;
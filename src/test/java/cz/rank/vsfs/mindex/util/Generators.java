@@ -62,4 +62,31 @@ public class Generators {
 
         return vectors;
     }
+
+    /**
+     * Creates vectors normally distributed around {@code clustersCount} centers, which are uniformly distributed
+     * like vectors of {@link #createVectors(int, int, int)}
+     */
+    public static List<Vector> createClusteredVectors(int vectorsCount, int vectorDimension, int clustersCount,
+                                                      int limit, double deviation) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final double[][] centers = new double[clustersCount][vectorDimension];
+        for (double[] center : centers) {
+            for (int j = 0; j < vectorDimension; ++j) {
+                center[j] = random.nextDouble(-limit, limit);
+            }
+        }
+
+        final List<Vector> vectors = new ArrayList<>(vectorsCount);
+        for (int i = 0; i < vectorsCount; ++i) {
+            final double[] center = centers[random.nextInt(clustersCount)];
+            final List<Double> values = new ArrayList<>(vectorDimension);
+            for (int j = 0; j < vectorDimension; ++j) {
+                values.add(center[j] + random.nextGaussian() * deviation);
+            }
+            vectors.add(new Vector(values));
+        }
+
+        return vectors;
+    }
 }